@@ -10,7 +10,7 @@ del /q classes\*.class 2>nul
 del /q build\*.jar 2>nul
 
 echo Compiling Java files...
-javac -encoding UTF-8 -d classes src/Main.java src/MainMenu.java src/MyPanel.java src/Molecule.java src/MoleculeBuilder.java
+javac -encoding UTF-8 -d classes src/Main.java src/BatchMain.java src/MainMenu.java src/MyPanel.java src/Molecule.java src/MoleculeCache.java src/MoleculeLayout.java src/MoleculeRenderPlan.java src/NameTokenizer.java src/SymbolTable.java src/MoleculeBuilder.java src/BuilderGraph.java src/BuilderHistory.java src/BuilderSelection.java src/FormulaCounter.java src/RingPerception.java src/SmilesWriter.java src/SmilesReader.java src/StructureLayout.java src/ForceLayout.java src/FragmentTemplate.java src/MoleculeRenderer.java src/SmilesBenchmark.java src/RegressionTests.java src/SpatialGrid.java src/IntList.java
 
 if %errorlevel% neq 0 (
     echo Compilation failed!
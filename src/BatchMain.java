@@ -0,0 +1,297 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class BatchMain {
+
+    // Гистограмма задержек: 8 корзин на каждую степень двойки наносекунд
+    private static final int BUCKETS_PER_OCTAVE = 8;
+    private static final int BUCKET_COUNT = 64 * BUCKETS_PER_OCTAVE;
+
+    private final boolean csv;
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(BUCKET_COUNT);
+
+    private BatchMain(boolean csv) {
+        this.csv = csv;
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        String input = null;
+        String output = null;
+        String format = "jsonl";
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean stats = false;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            boolean needsValue = arg.equals("-o") || arg.equals("--output")
+                    || arg.equals("--format") || arg.equals("--threads");
+            if (needsValue && i + 1 >= args.length) {
+                usage();
+            }
+            switch (arg) {
+                case "-o":
+                case "--output":
+                    output = args[++i];
+                    break;
+                case "--format":
+                    format = args[++i];
+                    break;
+                case "--threads":
+                    try {
+                        threads = Integer.parseInt(args[++i]);
+                    } catch (NumberFormatException e) {
+                        usage();
+                    }
+                    break;
+                case "--stats":
+                    stats = true;
+                    break;
+                default:
+                    // Неизвестный ключ или второй файл - ошибка; «-» - стандартный ввод
+                    if ((arg.startsWith("-") && !arg.equals("-")) || input != null) {
+                        usage();
+                    }
+                    input = arg;
+            }
+        }
+
+        if (input == null || !(format.equals("jsonl") || format.equals("csv")) || threads < 1) {
+            usage();
+        }
+
+        BatchMain batch = new BatchMain(format.equals("csv"));
+        try (BufferedReader in = openInput(input); Writer out = openOutput(output)) {
+            long start = System.nanoTime();
+            long count = batch.run(in, out, threads);
+            long elapsed = System.nanoTime() - start;
+
+            if (stats) {
+                batch.printStats(count, elapsed);
+            }
+        } catch (IOException e) {
+            System.err.println("Ошибка ввода-вывода: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Использование: java -cp MolChemView.jar BatchMain <файл|-> "
+                + "[-o вывод] [--format jsonl|csv] [--threads N] [--stats]");
+        System.exit(2);
+    }
+
+    private static BufferedReader openInput(String input) throws IOException {
+        InputStream is = input.equals("-") ? System.in : new FileInputStream(input);
+        return new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static Writer openOutput(String output) throws IOException {
+        OutputStream os = output == null ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(output);
+        return new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private long run(BufferedReader in, Writer out, int threads) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "batch-parser");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // Окно незавершённых задач ограничивает память и сохраняет порядок вывода
+        int window = threads * 256;
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>(window);
+        long count = 0;
+
+        if (csv) {
+            out.write("name,parent,carbons,substituents,chain,error\n");
+        }
+
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                String name = line.trim();
+                if (name.isEmpty()) continue;
+
+                if (pending.size() == window) {
+                    out.write(await(pending.poll()));
+                }
+                pending.add(pool.submit(() -> convert(name)));
+                count++;
+            }
+            while (!pending.isEmpty()) {
+                out.write(await(pending.poll()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return count;
+    }
+
+    private static String await(Future<String> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private String convert(String name) {
+        long start = System.nanoTime();
+        StringBuilder sb = new StringBuilder(128);
+        try {
+            Molecule molecule = Molecule.parseMolecule(name);
+            if (csv) {
+                writeCsv(sb, name, molecule);
+            } else {
+                writeJson(sb, name, molecule);
+            }
+        } catch (RuntimeException e) {
+            sb.setLength(0);
+            if (csv) {
+                csvField(sb, name).append(",,,,,");
+                csvField(sb, String.valueOf(e.getMessage()));
+            } else {
+                sb.append("{\"name\":");
+                jsonString(sb, name).append(",\"error\":");
+                jsonString(sb, String.valueOf(e.getMessage())).append('}');
+            }
+        }
+        sb.append('\n');
+        recordLatency(System.nanoTime() - start);
+        return sb.toString();
+    }
+
+    private static void writeJson(StringBuilder sb, String name, Molecule molecule) {
+        MoleculeLayout layout = molecule.getLayout();
+        sb.append("{\"name\":");
+        jsonString(sb, name);
+        sb.append(",\"parent\":");
+        jsonString(sb, molecule.getName());
+        sb.append(",\"carbons\":").append(molecule.getCarbonCount());
+
+        sb.append(",\"substituents\":[");
+        for (int s = 0; s < molecule.getSubstituentCount(); s++) {
+            if (s > 0) sb.append(',');
+            sb.append("{\"position\":").append(molecule.getSubstituentCarbon(s) + 1).append(",\"label\":");
+            jsonString(sb, molecule.getSubstituentLabel(s));
+            sb.append(",\"x\":");
+            coordinate(sb, layout.getSubstituentX(s)).append(",\"y\":");
+            coordinate(sb, layout.getSubstituentY(s)).append('}');
+        }
+
+        sb.append("],\"chain\":[");
+        for (int i = 0; i < molecule.getCarbonCount(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append('[');
+            coordinate(sb, layout.getChainX(i)).append(',');
+            coordinate(sb, layout.getChainY(i)).append(']');
+        }
+        sb.append("]}");
+    }
+
+    private static void writeCsv(StringBuilder sb, String name, Molecule molecule) {
+        MoleculeLayout layout = molecule.getLayout();
+        csvField(sb, name).append(',');
+        csvField(sb, molecule.getName()).append(',');
+        sb.append(molecule.getCarbonCount()).append(',');
+
+        StringBuilder subs = new StringBuilder();
+        for (int s = 0; s < molecule.getSubstituentCount(); s++) {
+            if (s > 0) subs.append(';');
+            subs.append(molecule.getSubstituentCarbon(s) + 1).append(':')
+                    .append(molecule.getSubstituentLabel(s)).append(':');
+            coordinate(subs, layout.getSubstituentX(s)).append(' ');
+            coordinate(subs, layout.getSubstituentY(s));
+        }
+        csvField(sb, subs.toString()).append(',');
+
+        for (int i = 0; i < molecule.getCarbonCount(); i++) {
+            if (i > 0) sb.append(';');
+            coordinate(sb, layout.getChainX(i)).append(' ');
+            coordinate(sb, layout.getChainY(i));
+        }
+        sb.append(',');
+    }
+
+    // Нормированные координаты: шаг цепи равен 1
+    private static StringBuilder coordinate(StringBuilder sb, double value) {
+        long thousandths = Math.round(value * 1000);
+        if (thousandths % 1000 == 0) {
+            return sb.append(thousandths / 1000);
+        }
+        return sb.append(thousandths / 1000.0);
+    }
+
+    private static StringBuilder jsonString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+
+    private static StringBuilder csvField(StringBuilder sb, String s) {
+        if (s.indexOf(',') < 0 && s.indexOf('"') < 0 && s.indexOf('\n') < 0) {
+            return sb.append(s);
+        }
+        return sb.append('"').append(s.replace("\"", "\"\"")).append('"');
+    }
+
+    // ===== СТАТИСТИКА =====
+
+    private void recordLatency(long nanos) {
+        latencyHistogram.incrementAndGet(bucketOf(Math.max(1, nanos)));
+    }
+
+    private static int bucketOf(long nanos) {
+        int octave = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = octave >= 3
+                ? (int) ((nanos >>> (octave - 3)) & (BUCKETS_PER_OCTAVE - 1))
+                : (int) ((nanos << (3 - octave)) & (BUCKETS_PER_OCTAVE - 1));
+        return octave * BUCKETS_PER_OCTAVE + sub;
+    }
+
+    private static long bucketUpperBound(int bucket) {
+        int octave = bucket / BUCKETS_PER_OCTAVE;
+        int sub = bucket % BUCKETS_PER_OCTAVE;
+        return (long) Math.ceil(Math.pow(2, octave) * (1 + (sub + 1) / (double) BUCKETS_PER_OCTAVE));
+    }
+
+    private long percentile(long total, double p) {
+        long rank = (long) Math.ceil(total * p);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += latencyHistogram.get(i);
+            if (seen >= rank) {
+                return bucketUpperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    private void printStats(long count, long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.err.printf(Locale.ROOT, "Названий: %d за %.3f с (%.0f назв./с)%n",
+                count, seconds, count / Math.max(seconds, 1e-9));
+        if (count > 0) {
+            System.err.printf(Locale.ROOT, "Задержка на название: p50 %.1f мкс, p99 %.1f мкс%n",
+                    percentile(count, 0.50) / 1e3, percentile(count, 0.99) / 1e3);
+        }
+        System.err.println(MoleculeCache.shared());
+    }
+}
@@ -0,0 +1,887 @@
+import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Граф конструктора молекул в параллельных массивах: узел или связь - это номер,
+// а не объект. Атомы углерода и функциональные группы - узлы с интернированным
+// символом, связи хранят концы и порядок, смежность - односвязные списки полусвязей.
+// Освобождённые номера переиспользуются через списки свободных слотов.
+// Граф не зависит от Swing: генераторы строят молекулы в headless JVM теми же
+// вызовами, что и конструктор, а рисует их MoleculeRenderer.
+// Класс не потокобезопасен: все изменения идут из одного потока.
+public class BuilderGraph {
+
+    public static final int NONE = -1;
+    public static final int CARBON = SymbolTable.intern("C");
+
+    private static final int MAX_BOND_ORDER = 3;
+
+    // ===== Узлы =====
+    private double[] nodeX = new double[16];
+    private double[] nodeY = new double[16];
+    // NONE у свободного слота
+    private int[] nodeSymbol = new int[16];
+    // У группы - атом, к которому она присоединена; у свободного слота - следующий свободный
+    private int[] nodeAttachedTo = new int[16];
+    private int[] firstHalfEdge = new int[16];
+    private int[] degree = new int[16];
+    private int nodeLimit;
+    private int nodeCount;
+    private int atomCount;
+    private int freeNode = NONE;
+
+    // ===== Связи: полусвязь 2b идёт от начала к концу, 2b + 1 - обратно =====
+    private int[] bondStart = new int[16];
+    private int[] bondEnd = new int[16];
+    // 0 у свободного слота
+    private int[] bondOrder = new int[16];
+    // У свободной связи в nextHalfEdge[2b] лежит следующая свободная
+    private int[] nextHalfEdge = new int[32];
+    private int bondLimit;
+    private int bondCount;
+    private int freeBond = NONE;
+
+    // Сетки с ячейкой в длину связи для поиска под курсором и отсечения
+    private final SpatialGrid atomIndex;
+    private final SpatialGrid groupIndex;
+    private final SpatialGrid bondIndex;
+    private final IntList candidates = new IntList();
+
+    private final ArrayList<Listener> listeners = new ArrayList<>();
+
+    public BuilderGraph(double cellSize) {
+        atomIndex = new SpatialGrid(cellSize);
+        groupIndex = new SpatialGrid(cellSize);
+        bondIndex = new SpatialGrid(cellSize);
+    }
+
+    // Наблюдатель за составом графа. Удаление сообщается после освобождения слота,
+    // поэтому прежние данные передаются параметрами. Перемещения узлов не сообщаются.
+    public interface Listener {
+        default void nodeAdded(int node) {
+        }
+
+        default void nodeRemoved(int node, int symbol, int attachedTo, double x, double y) {
+        }
+
+        default void bondAdded(int bond) {
+        }
+
+        default void bondRemoved(int bond, int start, int end, int order) {
+        }
+
+        default void bondOrderChanged(int bond, int oldOrder) {
+        }
+
+        // Фрагмент из insertAll уже в графе; его связи соединяют только его же узлы.
+        // По умолчанию - как поэлементные добавления: сначала все узлы, затем связи
+        default void fragmentInserted(int[] nodes, int[] bonds) {
+            for (int node : nodes) {
+                nodeAdded(node);
+            }
+            for (int bond : bonds) {
+                bondAdded(bond);
+            }
+        }
+
+        // Граф очищен или восстановлен целиком - производные данные надо пересчитать
+        default void graphReset() {
+        }
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // ===== Изменение графа =====
+
+    public int addAtom(double x, double y) {
+        return addNode(CARBON, x, y, NONE);
+    }
+
+    public int addGroup(String symbol, double x, double y, int attachedTo) {
+        int code = SymbolTable.intern(symbol);
+        if (code == CARBON) {
+            throw new IllegalArgumentException("Углерод добавляется как атом, а не как группа");
+        }
+        if (!isAtom(attachedTo)) {
+            throw new IllegalArgumentException("Группа присоединяется только к атому: " + attachedTo);
+        }
+        return addNode(code, x, y, attachedTo);
+    }
+
+    // Группа в точке (x, y) вместе со связью к своему атому; возвращает номер группы
+    public int attachGroup(int atom, String symbol, int order, double x, double y) {
+        checkOrder(order);
+        int group = addGroup(symbol, x, y, atom);
+        addBond(atom, group, order);
+        return group;
+    }
+
+    private int addNode(int symbol, double x, double y, int attachedTo) {
+        int id;
+        if (freeNode != NONE) {
+            id = freeNode;
+            freeNode = nodeAttachedTo[id];
+        } else {
+            id = nodeLimit++;
+            ensureNodeCapacity(nodeLimit);
+        }
+        return placeNode(id, symbol, x, y, attachedTo);
+    }
+
+    // Возвращение узла под прежним номером - для отмены удаления и повтора добавления.
+    // Номер обычно лежит в голове списка свободных, так что это O(1). Присоединение
+    // группы не проверяется: восстанавливается ровно то, что было записано.
+    int reviveNode(int id, int symbol, double x, double y, int attachedTo) {
+        if (id < 0 || isAlive(id)) {
+            throw new IllegalArgumentException("Номер узла занят: " + id);
+        }
+        if (id >= nodeLimit) {
+            ensureNodeCapacity(id + 1);
+            for (int slot = nodeLimit; slot < id; slot++) {
+                nodeSymbol[slot] = NONE;
+                nodeAttachedTo[slot] = freeNode;
+                freeNode = slot;
+            }
+            nodeLimit = id + 1;
+        } else if (freeNode == id) {
+            freeNode = nodeAttachedTo[id];
+        } else {
+            int slot = freeNode;
+            while (nodeAttachedTo[slot] != id) {
+                slot = nodeAttachedTo[slot];
+            }
+            nodeAttachedTo[slot] = nodeAttachedTo[id];
+        }
+        return placeNode(id, symbol, x, y, attachedTo);
+    }
+
+    private void ensureNodeCapacity(int limit) {
+        if (limit <= nodeSymbol.length) return;
+        int capacity = Math.max(limit, nodeSymbol.length * 2);
+        nodeX = Arrays.copyOf(nodeX, capacity);
+        nodeY = Arrays.copyOf(nodeY, capacity);
+        nodeSymbol = Arrays.copyOf(nodeSymbol, capacity);
+        nodeAttachedTo = Arrays.copyOf(nodeAttachedTo, capacity);
+        firstHalfEdge = Arrays.copyOf(firstHalfEdge, capacity);
+        degree = Arrays.copyOf(degree, capacity);
+    }
+
+    private int placeNode(int id, int symbol, double x, double y, int attachedTo) {
+        nodeX[id] = x;
+        nodeY[id] = y;
+        nodeSymbol[id] = symbol;
+        nodeAttachedTo[id] = attachedTo;
+        firstHalfEdge[id] = NONE;
+        degree[id] = 0;
+        nodeCount++;
+        if (symbol == CARBON) atomCount++;
+        indexNode(id);
+        for (Listener listener : listeners) {
+            listener.nodeAdded(id);
+        }
+        return id;
+    }
+
+    // Кратная связь - это порядок одной связи, а не несколько параллельных
+    public int addBond(int start, int end, int order) {
+        checkEnds(start, end);
+        checkOrder(order);
+        if (findBond(start, end) != NONE) {
+            throw new IllegalArgumentException("Узлы уже связаны: " + start + ", " + end);
+        }
+
+        int bond;
+        if (freeBond != NONE) {
+            bond = freeBond;
+            freeBond = nextHalfEdge[2 * bond];
+        } else {
+            bond = bondLimit++;
+            ensureBondCapacity(bondLimit);
+        }
+        return placeBond(bond, start, end, order);
+    }
+
+    int reviveBond(int bond, int start, int end, int order) {
+        if (bond < 0 || isBondAlive(bond)) {
+            throw new IllegalArgumentException("Номер связи занят: " + bond);
+        }
+        checkEnds(start, end);
+        checkOrder(order);
+        if (bond >= bondLimit) {
+            ensureBondCapacity(bond + 1);
+            for (int slot = bondLimit; slot < bond; slot++) {
+                bondOrder[slot] = 0;
+                nextHalfEdge[2 * slot] = freeBond;
+                freeBond = slot;
+            }
+            bondLimit = bond + 1;
+        } else if (freeBond == bond) {
+            freeBond = nextHalfEdge[2 * bond];
+        } else {
+            int slot = freeBond;
+            while (nextHalfEdge[2 * slot] != bond) {
+                slot = nextHalfEdge[2 * slot];
+            }
+            nextHalfEdge[2 * slot] = nextHalfEdge[2 * bond];
+        }
+        return placeBond(bond, start, end, order);
+    }
+
+    private void checkEnds(int start, int end) {
+        if (!isAlive(start) || !isAlive(end)) {
+            throw new IllegalArgumentException("Связь между несуществующими узлами: " + start + ", " + end);
+        }
+        if (start == end) {
+            throw new IllegalArgumentException("Связь узла с самим собой: " + start);
+        }
+    }
+
+    private void ensureBondCapacity(int limit) {
+        if (limit <= bondOrder.length) return;
+        int capacity = Math.max(limit, bondOrder.length * 2);
+        bondStart = Arrays.copyOf(bondStart, capacity);
+        bondEnd = Arrays.copyOf(bondEnd, capacity);
+        bondOrder = Arrays.copyOf(bondOrder, capacity);
+        nextHalfEdge = Arrays.copyOf(nextHalfEdge, capacity * 2);
+    }
+
+    private int placeBond(int bond, int start, int end, int order) {
+        bondStart[bond] = start;
+        bondEnd[bond] = end;
+        bondOrder[bond] = order;
+        link(bond);
+        bondCount++;
+        indexBond(bond);
+        for (Listener listener : listeners) {
+            listener.bondAdded(bond);
+        }
+        return bond;
+    }
+
+    private void link(int bond) {
+        int start = bondStart[bond];
+        int end = bondEnd[bond];
+        nextHalfEdge[2 * bond] = firstHalfEdge[start];
+        firstHalfEdge[start] = 2 * bond;
+        nextHalfEdge[2 * bond + 1] = firstHalfEdge[end];
+        firstHalfEdge[end] = 2 * bond + 1;
+        degree[start]++;
+        degree[end]++;
+    }
+
+    public void setBondOrder(int bond, int order) {
+        checkBond(bond);
+        checkOrder(order);
+        int oldOrder = bondOrder[bond];
+        if (oldOrder == order) return;
+        bondOrder[bond] = order;
+        for (Listener listener : listeners) {
+            listener.bondOrderChanged(bond, oldOrder);
+        }
+    }
+
+    public void removeBond(int bond) {
+        checkBond(bond);
+        unlink(bondStart[bond], 2 * bond);
+        unlink(bondEnd[bond], 2 * bond + 1);
+        degree[bondStart[bond]]--;
+        degree[bondEnd[bond]]--;
+        bondIndex.remove(bond);
+
+        int order = bondOrder[bond];
+        bondOrder[bond] = 0;
+        nextHalfEdge[2 * bond] = freeBond;
+        freeBond = bond;
+        bondCount--;
+        for (Listener listener : listeners) {
+            listener.bondRemoved(bond, bondStart[bond], bondEnd[bond], order);
+        }
+    }
+
+    private void unlink(int node, int halfEdge) {
+        int h = firstHalfEdge[node];
+        if (h == halfEdge) {
+            firstHalfEdge[node] = nextHalfEdge[h];
+            return;
+        }
+        while (nextHalfEdge[h] != halfEdge) {
+            h = nextHalfEdge[h];
+        }
+        nextHalfEdge[h] = nextHalfEdge[halfEdge];
+    }
+
+    // Удаление атома уносит его связи и присоединённые к нему группы: O(степени)
+    public void removeNode(int node) {
+        if (!isAlive(node)) {
+            throw new IllegalArgumentException("Нет такого узла: " + node);
+        }
+
+        if (nodeSymbol[node] == CARBON) {
+            for (int h = firstHalfEdge[node]; h != NONE; ) {
+                int target = halfEdgeTarget(h);
+                h = nextHalfEdge[h];
+                if (isGroup(target) && nodeAttachedTo[target] == node) {
+                    removeNode(target);
+                    // Список полусвязей изменился - начинаем обход заново
+                    h = firstHalfEdge[node];
+                }
+            }
+        }
+        while (firstHalfEdge[node] != NONE) {
+            removeBond(firstHalfEdge[node] >> 1);
+        }
+
+        if (nodeSymbol[node] == CARBON) {
+            atomIndex.remove(node);
+            atomCount--;
+        } else {
+            groupIndex.remove(node);
+        }
+        int symbol = nodeSymbol[node];
+        int attachedTo = nodeAttachedTo[node];
+        nodeSymbol[node] = NONE;
+        nodeAttachedTo[node] = freeNode;
+        freeNode = node;
+        nodeCount--;
+        for (Listener listener : listeners) {
+            listener.nodeRemoved(node, symbol, attachedTo, nodeX[node], nodeY[node]);
+        }
+    }
+
+    // Удаление набора узлов одним вызовом: O(суммы степеней), а не O(графа) на узел.
+    // Уже удалённые узлы пропускаются - группы уходят вместе со своим атомом.
+    // Возвращает число удалённых узлов из набора.
+    public int removeNodes(int[] nodes) {
+        int removed = 0;
+        // Сначала группы: тогда события идут в том же порядке, что и при removeNode атома
+        for (int pass = 0; pass < 2; pass++) {
+            for (int node : nodes) {
+                if (isAlive(node) && (pass == 0) == isGroup(node)) {
+                    removeNode(node);
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    public void setPosition(int node, double x, double y) {
+        if (!isAlive(node)) {
+            throw new IllegalArgumentException("Нет такого узла: " + node);
+        }
+        nodeX[node] = x;
+        nodeY[node] = y;
+        indexNode(node);
+        for (int h = firstHalfEdge[node]; h != NONE; h = nextHalfEdge[h]) {
+            indexBond(h >> 1);
+        }
+    }
+
+    // Новые координаты группы узлов: xy[2i], xy[2i+1] - для nodes[i]
+    public void setPositions(int[] nodes, double[] xy) {
+        if (xy.length != nodes.length * 2) {
+            throw new IllegalArgumentException("Длины массивов координат не совпадают");
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            setPosition(nodes[i], xy[2 * i], xy[2 * i + 1]);
+        }
+    }
+
+    public void clear() {
+        nodeLimit = 0;
+        nodeCount = 0;
+        atomCount = 0;
+        freeNode = NONE;
+        bondLimit = 0;
+        bondCount = 0;
+        freeBond = NONE;
+        clearIndexes();
+        fireReset();
+    }
+
+    private void fireReset() {
+        for (Listener listener : listeners) {
+            listener.graphReset();
+        }
+    }
+
+    // ===== Вставка целого фрагмента =====
+
+    // Фрагмент из готовых массивов: после проверки всего фрагмента узлы и связи
+    // заносятся напрямую, без событий на каждый элемент; сетки заполняются одним проходом, наблюдатели
+    // получают одно fragmentInserted с номерами новых узлов и связей и обновляются
+    // за O(фрагмента), а не O(графа). Номера в attachedTo и концах связей - индексы
+    // внутри фрагмента; группа, как и в addGroup, обязана быть присоединена к атому.
+    // Возвращает номера новых узлов в порядке фрагмента.
+    public int[] insertAll(String[] symbols, double[] x, double[] y, int[] attachedTo,
+                           int[] bondStarts, int[] bondEnds, int[] bondOrders) {
+        int nodes = symbols.length;
+        int bonds = bondStarts.length;
+        if (x.length != nodes || y.length != nodes || attachedTo.length != nodes
+                || bondEnds.length != bonds || bondOrders.length != bonds) {
+            throw new IllegalArgumentException("Длины массивов фрагмента не совпадают");
+        }
+        int[] codes = new int[nodes];
+        for (int i = 0; i < nodes; i++) {
+            codes[i] = SymbolTable.intern(symbols[i]);
+            if (codes[i] == CARBON) continue;
+            // То же правило, что в addGroup: группа без атома в граф не попадает
+            int owner = attachedTo[i];
+            if (owner == NONE) {
+                throw new IllegalArgumentException("Группа " + symbols[i] + " не присоединена ни к одному атому углерода");
+            }
+            if (owner < 0 || owner >= nodes || !symbols[owner].equals("C")) {
+                throw new IllegalArgumentException("Группа присоединяется только к атому: " + owner);
+            }
+        }
+        for (int b = 0; b < bonds; b++) {
+            int start = bondStarts[b];
+            int end = bondEnds[b];
+            if (start < 0 || start >= nodes || end < 0 || end >= nodes || start == end) {
+                throw new IllegalArgumentException("Недопустимая связь фрагмента: " + start + ", " + end);
+            }
+            checkOrder(bondOrders[b]);
+        }
+
+        int[] ids = new int[nodes];
+        ensureNodeCapacity(nodeLimit + nodes);
+        for (int i = 0; i < nodes; i++) {
+            int id;
+            if (freeNode != NONE) {
+                id = freeNode;
+                freeNode = nodeAttachedTo[id];
+            } else {
+                id = nodeLimit++;
+            }
+            ids[i] = id;
+            nodeX[id] = x[i];
+            nodeY[id] = y[i];
+            nodeSymbol[id] = codes[i];
+            firstHalfEdge[id] = NONE;
+            degree[id] = 0;
+            nodeCount++;
+            if (codes[i] == CARBON) atomCount++;
+        }
+        for (int i = 0; i < nodes; i++) {
+            nodeAttachedTo[ids[i]] = codes[i] == CARBON ? NONE : ids[attachedTo[i]];
+            indexNode(ids[i]);
+        }
+
+        int[] bondIds = new int[bonds];
+        ensureBondCapacity(bondLimit + bonds);
+        for (int b = 0; b < bonds; b++) {
+            int bond;
+            if (freeBond != NONE) {
+                bond = freeBond;
+                freeBond = nextHalfEdge[2 * bond];
+            } else {
+                bond = bondLimit++;
+            }
+            bondStart[bond] = ids[bondStarts[b]];
+            bondEnd[bond] = ids[bondEnds[b]];
+            bondOrder[bond] = bondOrders[b];
+            link(bond);
+            bondCount++;
+            indexBond(bond);
+            bondIds[b] = bond;
+        }
+        for (Listener listener : listeners) {
+            listener.fragmentInserted(ids, bondIds);
+        }
+        return ids;
+    }
+
+    // ===== Снимки =====
+
+    // Компактная копия графа: только узлы и связи, без смежности и сеток
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    // Восстановление снимка: смежность, свободные слоты и сетки строятся заново один раз
+    public void restore(Snapshot snapshot) {
+        clearIndexes();
+        nodeLimit = snapshot.nodeSymbol.length;
+        ensureNodeCapacity(nodeLimit);
+        System.arraycopy(snapshot.nodeX, 0, nodeX, 0, nodeLimit);
+        System.arraycopy(snapshot.nodeY, 0, nodeY, 0, nodeLimit);
+        System.arraycopy(snapshot.nodeSymbol, 0, nodeSymbol, 0, nodeLimit);
+        System.arraycopy(snapshot.nodeAttachedTo, 0, nodeAttachedTo, 0, nodeLimit);
+        bondLimit = snapshot.bondOrder.length;
+        ensureBondCapacity(bondLimit);
+        System.arraycopy(snapshot.bondStart, 0, bondStart, 0, bondLimit);
+        System.arraycopy(snapshot.bondEnd, 0, bondEnd, 0, bondLimit);
+        System.arraycopy(snapshot.bondOrder, 0, bondOrder, 0, bondLimit);
+
+        nodeCount = 0;
+        atomCount = 0;
+        freeNode = NONE;
+        for (int node = nodeLimit - 1; node >= 0; node--) {
+            firstHalfEdge[node] = NONE;
+            degree[node] = 0;
+            if (nodeSymbol[node] == NONE) {
+                nodeAttachedTo[node] = freeNode;
+                freeNode = node;
+                continue;
+            }
+            nodeCount++;
+            if (nodeSymbol[node] == CARBON) atomCount++;
+            indexNode(node);
+        }
+
+        bondCount = 0;
+        freeBond = NONE;
+        for (int bond = bondLimit - 1; bond >= 0; bond--) {
+            if (bondOrder[bond] == 0) {
+                nextHalfEdge[2 * bond] = freeBond;
+                freeBond = bond;
+                continue;
+            }
+            link(bond);
+            bondCount++;
+            indexBond(bond);
+        }
+        fireReset();
+    }
+
+    private void clearIndexes() {
+        atomIndex.clear();
+        groupIndex.clear();
+        bondIndex.clear();
+    }
+
+    public static final class Snapshot {
+        private final double[] nodeX;
+        private final double[] nodeY;
+        private final int[] nodeSymbol;
+        private final int[] nodeAttachedTo;
+        private final int[] bondStart;
+        private final int[] bondEnd;
+        private final int[] bondOrder;
+
+        private Snapshot(BuilderGraph graph) {
+            int nodes = graph.nodeLimit;
+            int bonds = graph.bondLimit;
+            nodeX = Arrays.copyOf(graph.nodeX, nodes);
+            nodeY = Arrays.copyOf(graph.nodeY, nodes);
+            nodeSymbol = Arrays.copyOf(graph.nodeSymbol, nodes);
+            nodeAttachedTo = Arrays.copyOf(graph.nodeAttachedTo, nodes);
+            bondStart = Arrays.copyOf(graph.bondStart, bonds);
+            bondEnd = Arrays.copyOf(graph.bondEnd, bonds);
+            bondOrder = Arrays.copyOf(graph.bondOrder, bonds);
+        }
+
+        // Объём в примитивных значениях - для учёта памяти истории
+        public long size() {
+            return 4L * nodeSymbol.length + 3L * bondOrder.length;
+        }
+    }
+
+    private void checkOrder(int order) {
+        if (order < 1 || order > MAX_BOND_ORDER) {
+            throw new IllegalArgumentException("Недопустимый порядок связи: " + order);
+        }
+    }
+
+    private void checkBond(int bond) {
+        if (!isBondAlive(bond)) {
+            throw new IllegalArgumentException("Нет такой связи: " + bond);
+        }
+    }
+
+    private void indexNode(int node) {
+        (nodeSymbol[node] == CARBON ? atomIndex : groupIndex).insertPoint(node, nodeX[node], nodeY[node]);
+    }
+
+    private void indexBond(int bond) {
+        int a = bondStart[bond];
+        int b = bondEnd[bond];
+        bondIndex.insert(bond, Math.min(nodeX[a], nodeX[b]), Math.min(nodeY[a], nodeY[b]),
+                Math.max(nodeX[a], nodeX[b]), Math.max(nodeY[a], nodeY[b]));
+    }
+
+    // ===== Чтение =====
+
+    // Верхняя граница номеров узлов для обхода; пропуски - свободные слоты
+    public int nodeLimit() {
+        return nodeLimit;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int atomCount() {
+        return atomCount;
+    }
+
+    public int bondLimit() {
+        return bondLimit;
+    }
+
+    public int bondCount() {
+        return bondCount;
+    }
+
+    public boolean isAlive(int node) {
+        return node >= 0 && node < nodeLimit && nodeSymbol[node] != NONE;
+    }
+
+    public boolean isAtom(int node) {
+        return isAlive(node) && nodeSymbol[node] == CARBON;
+    }
+
+    public boolean isGroup(int node) {
+        return isAlive(node) && nodeSymbol[node] != CARBON;
+    }
+
+    public boolean isBondAlive(int bond) {
+        return bond >= 0 && bond < bondLimit && bondOrder[bond] != 0;
+    }
+
+    public double getX(int node) {
+        return nodeX[node];
+    }
+
+    public double getY(int node) {
+        return nodeY[node];
+    }
+
+    public int getSymbol(int node) {
+        return nodeSymbol[node];
+    }
+
+    public String getSymbolName(int node) {
+        return SymbolTable.name(nodeSymbol[node]);
+    }
+
+    public int getAttachedTo(int node) {
+        return isGroup(node) ? nodeAttachedTo[node] : NONE;
+    }
+
+    public int getDegree(int node) {
+        return degree[node];
+    }
+
+    public int getBondStart(int bond) {
+        return bondStart[bond];
+    }
+
+    public int getBondEnd(int bond) {
+        return bondEnd[bond];
+    }
+
+    public int getBondOrder(int bond) {
+        return bondOrder[bond];
+    }
+
+    public int getOtherEnd(int bond, int node) {
+        return bondStart[bond] == node ? bondEnd[bond] : bondStart[bond];
+    }
+
+    // Обход соседей: for (h = firstHalfEdge(v); h != NONE; h = nextHalfEdge(h))
+    public int firstHalfEdge(int node) {
+        return firstHalfEdge[node];
+    }
+
+    public int nextHalfEdge(int halfEdge) {
+        return nextHalfEdge[halfEdge];
+    }
+
+    public static int halfEdgeBond(int halfEdge) {
+        return halfEdge >> 1;
+    }
+
+    public int halfEdgeTarget(int halfEdge) {
+        int bond = halfEdge >> 1;
+        return (halfEdge & 1) == 0 ? bondEnd[bond] : bondStart[bond];
+    }
+
+    public int findBond(int a, int b) {
+        for (int h = firstHalfEdge[a]; h != NONE; h = nextHalfEdge[h]) {
+            if (halfEdgeTarget(h) == b) return h >> 1;
+        }
+        return NONE;
+    }
+
+    // ===== Пространственные запросы =====
+
+    public int nearestAtom(double x, double y, double radius) {
+        return nearestNode(atomIndex, x, y, radius);
+    }
+
+    public int nearestGroup(double x, double y, double radius) {
+        return nearestNode(groupIndex, x, y, radius);
+    }
+
+    private int nearestNode(SpatialGrid index, double x, double y, double radius) {
+        int nearest = NONE;
+        double best = radius;
+        candidates.clear();
+        index.queryRadius(x, y, radius, candidates);
+        for (int i = 0; i < candidates.size(); i++) {
+            int node = candidates.get(i);
+            double dist = Math.hypot(x - nodeX[node], y - nodeY[node]);
+            if (dist < best) {
+                best = dist;
+                nearest = node;
+            }
+        }
+        return nearest;
+    }
+
+    public int nearestBond(double x, double y, double radius) {
+        int nearest = NONE;
+        double best = radius;
+        candidates.clear();
+        bondIndex.queryRadius(x, y, radius, candidates);
+        for (int i = 0; i < candidates.size(); i++) {
+            int bond = candidates.get(i);
+            int a = bondStart[bond];
+            int b = bondEnd[bond];
+            double dist = distanceToSegment(x, y, nodeX[a], nodeY[a], nodeX[b], nodeY[b]);
+            if (dist < best) {
+                best = dist;
+                nearest = bond;
+            }
+        }
+        return nearest;
+    }
+
+    public IntList queryAtoms(double minX, double minY, double maxX, double maxY, IntList result) {
+        return atomIndex.query(minX, minY, maxX, maxY, result);
+    }
+
+    public IntList queryGroups(double minX, double minY, double maxX, double maxY, IntList result) {
+        return groupIndex.query(minX, minY, maxX, maxY, result);
+    }
+
+    public IntList queryBonds(double minX, double minY, double maxX, double maxY, IntList result) {
+        return bondIndex.query(minX, minY, maxX, maxY, result);
+    }
+
+    public static double distanceToSegment(double px, double py, double x1, double y1, double x2, double y2) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+
+        if (dx == 0 && dy == 0) {
+            return Math.hypot(px - x1, py - y1);
+        }
+
+        double t = ((px - x1) * dx + (py - y1) * dy) / (dx * dx + dy * dy);
+        t = Math.max(0, Math.min(1, t));
+
+        double projX = x1 + t * dx;
+        double projY = y1 + t * dy;
+
+        return Math.hypot(px - projX, py - projY);
+    }
+
+    // ===== Жёсткие фрагменты =====
+
+    public Fragment component(int seed) {
+        return new Fragment(seed);
+    }
+
+    // Фрагмент из заданных узлов - например, записанных в истории правок
+    public Fragment fragment(int[] nodes) {
+        return new Fragment(nodes);
+    }
+
+    // Поворот, сдвиг или отражение набора узлов одним проходом
+    public void transform(int[] nodes, AffineTransform transform) {
+        new Fragment(nodes).apply(transform);
+    }
+
+    // Связная компонента с исходными координатами в одном массиве: любое
+    // преобразование применяется одним проходом от исходного положения,
+    // без накопления ошибок и тригонометрии на каждый атом
+    public class Fragment {
+        private final int[] nodes;
+        private final int[] bonds;
+        private final double[] origin;
+        private final double[] moved;
+
+        private Fragment(int seed) {
+            if (!isAlive(seed)) {
+                throw new IllegalArgumentException("Нет такого узла: " + seed);
+            }
+            boolean[] seen = new boolean[nodeLimit];
+            IntList queue = new IntList();
+            IntList componentBonds = new IntList();
+
+            seen[seed] = true;
+            queue.add(seed);
+            for (int head = 0; head < queue.size(); head++) {
+                int node = queue.get(head);
+                for (int h = firstHalfEdge[node]; h != NONE; h = nextHalfEdge[h]) {
+                    // Каждая связь попадает в список один раз - со стороны своего начала
+                    if ((h & 1) == 0) {
+                        componentBonds.add(h >> 1);
+                    }
+                    int target = halfEdgeTarget(h);
+                    if (!seen[target]) {
+                        seen[target] = true;
+                        queue.add(target);
+                    }
+                }
+            }
+
+            nodes = queue.toArray();
+            bonds = componentBonds.toArray();
+            origin = new double[nodes.length * 2];
+            moved = new double[nodes.length * 2];
+            captureOrigin();
+        }
+
+        // Связи между двумя узлами набора попадают в список дважды - повторная
+        // индексация ничего не меняет, а проверка принадлежности стоила бы O(графа)
+        private Fragment(int[] nodeSet) {
+            IntList incident = new IntList();
+            for (int node : nodeSet) {
+                if (!isAlive(node)) {
+                    throw new IllegalArgumentException("Нет такого узла: " + node);
+                }
+                for (int h = firstHalfEdge[node]; h != NONE; h = nextHalfEdge[h]) {
+                    incident.add(h >> 1);
+                }
+            }
+            nodes = nodeSet.clone();
+            bonds = incident.toArray();
+            origin = new double[nodes.length * 2];
+            moved = new double[nodes.length * 2];
+            captureOrigin();
+        }
+
+        private void captureOrigin() {
+            for (int i = 0; i < nodes.length; i++) {
+                origin[2 * i] = nodeX[nodes[i]];
+                origin[2 * i + 1] = nodeY[nodes[i]];
+            }
+        }
+
+        public int[] nodes() {
+            return nodes.clone();
+        }
+
+        // Координаты = transform(исходные); сетки обновляются только для фрагмента
+        public void apply(AffineTransform transform) {
+            transform.transform(origin, 0, moved, 0, nodes.length);
+            for (int i = 0; i < nodes.length; i++) {
+                int node = nodes[i];
+                nodeX[node] = moved[2 * i];
+                nodeY[node] = moved[2 * i + 1];
+                indexNode(node);
+            }
+            for (int bond : bonds) {
+                indexBond(bond);
+            }
+        }
+    }
+}
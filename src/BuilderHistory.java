@@ -0,0 +1,417 @@
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+// История правок конструктора: журнал команд, каждая из которых умеет себя отменить.
+// Команда - это либо элементарные изменения графа в порядке их появления (их пишет
+// наблюдатель), либо преобразование фрагмента (номера узлов и матрица), либо
+// контрольная точка со снимками графа до и после - для операций над графом целиком.
+// Отмена и повтор стоят столько же, сколько сама правка, а не размер молекулы.
+// Память ограничена числом команд и суммарным объёмом в примитивных значениях;
+// старейшие команды вытесняются первыми.
+public class BuilderHistory implements BuilderGraph.Listener {
+
+    private static final int LIMIT = Integer.getInteger("molchem.undo.limit", 500);
+    private static final long BUDGET = Long.getLong("molchem.undo.budget", 4_000_000L);
+
+    private final BuilderGraph graph;
+    private final int limit;
+    private final long budget;
+
+    // Вершина стека - в голове очереди, старейшая команда - в хвосте
+    private final ArrayDeque<Command> undo = new ArrayDeque<>();
+    private final ArrayDeque<Command> redo = new ArrayDeque<>();
+    private long weight;
+
+    private Edit open;
+    private int depth;
+    // Во время отмены, повтора и контрольной точки события графа не записываются
+    private boolean muted;
+
+    public BuilderHistory(BuilderGraph graph) {
+        this(graph, LIMIT, BUDGET);
+    }
+
+    public BuilderHistory(BuilderGraph graph, int limit, long budget) {
+        if (limit < 1 || budget < 1) {
+            throw new IllegalArgumentException("Размер истории должен быть положительным: " + limit + ", " + budget);
+        }
+        this.graph = graph;
+        this.limit = limit;
+        this.budget = budget;
+        graph.addListener(this);
+    }
+
+    // Изменения между begin и end отменяются одним шагом; пары могут быть вложенными
+    public void begin() {
+        if (depth++ == 0) {
+            open = new Edit();
+        }
+    }
+
+    public void end() {
+        if (depth == 0) {
+            throw new IllegalStateException("end() без begin()");
+        }
+        if (--depth == 0) {
+            Edit edit = open;
+            open = null;
+            if (!edit.isEmpty()) {
+                push(edit);
+            }
+        }
+    }
+
+    // Преобразование уже применено к узлам; хранится только матрица и номера узлов
+    public void recordTransform(int[] nodes, AffineTransform transform) {
+        if (nodes.length == 0 || transform.isIdentity()) return;
+        try {
+            push(new Transform(nodes, new AffineTransform(transform), transform.createInverse()));
+        } catch (NoninvertibleTransformException e) {
+            throw new IllegalArgumentException("Необратимое преобразование: " + transform, e);
+        }
+    }
+
+    // Узлы уже стоят в новых местах; before и after - координаты в порядке nodes
+    public void recordPositions(int[] nodes, double[] before, double[] after) {
+        if (nodes.length == 0 || Arrays.equals(before, after)) return;
+        push(new Positions(nodes, before, after));
+    }
+
+    // Изменение всего графа сразу (очистка) записывается контрольной точкой:
+    // отмена восстанавливает снимок за один проход
+    public void checkpoint(Runnable change) {
+        BuilderGraph.Snapshot before = graph.snapshot();
+        boolean wasMuted = muted;
+        muted = true;
+        try {
+            change.run();
+        } finally {
+            muted = wasMuted;
+        }
+        push(new Checkpoint(before, graph.snapshot()));
+    }
+
+    public boolean canUndo() {
+        return !undo.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redo.isEmpty();
+    }
+
+    public boolean undo() {
+        if (depth != 0 || undo.isEmpty()) return false;
+        Command command = undo.pop();
+        replay(command, true);
+        redo.push(command);
+        return true;
+    }
+
+    public boolean redo() {
+        if (depth != 0 || redo.isEmpty()) return false;
+        Command command = redo.pop();
+        replay(command, false);
+        undo.push(command);
+        return true;
+    }
+
+    public void clear() {
+        undo.clear();
+        redo.clear();
+        weight = 0;
+    }
+
+    private void replay(Command command, boolean backwards) {
+        muted = true;
+        try {
+            if (backwards) {
+                command.undo(graph);
+            } else {
+                command.redo(graph);
+            }
+        } finally {
+            muted = false;
+        }
+    }
+
+    private void push(Command command) {
+        while (!redo.isEmpty()) {
+            weight -= redo.pop().size();
+        }
+        undo.push(command);
+        weight += command.size();
+        // Последняя команда остаётся, даже если одна превышает бюджет
+        while (undo.size() > 1 && (undo.size() > limit || weight > budget)) {
+            weight -= undo.removeLast().size();
+        }
+    }
+
+    // ===== Запись событий графа =====
+
+    // Изменение вне begin/end становится отдельной командой
+    @Override
+    public void nodeAdded(int node) {
+        if (muted) return;
+        begin();
+        open.node(Edit.NODE_ADDED, node, graph.getSymbol(node), graph.getAttachedTo(node),
+                graph.getX(node), graph.getY(node));
+        end();
+    }
+
+    @Override
+    public void nodeRemoved(int node, int symbol, int attachedTo, double x, double y) {
+        if (muted) return;
+        begin();
+        open.node(Edit.NODE_REMOVED, node, symbol, attachedTo, x, y);
+        end();
+    }
+
+    @Override
+    public void bondAdded(int bond) {
+        if (muted) return;
+        begin();
+        open.record(Edit.BOND_ADDED, bond, graph.getBondStart(bond), graph.getBondEnd(bond),
+                graph.getBondOrder(bond));
+        end();
+    }
+
+    // Вставка фрагмента - одна команда: атомы, их группы, затем связи. Отмена идёт
+    // в обратном порядке, поэтому группа удаляется раньше своего атома
+    @Override
+    public void fragmentInserted(int[] nodes, int[] bonds) {
+        if (muted) return;
+        begin();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int node : nodes) {
+                if ((pass == 0) == graph.isAtom(node)) {
+                    open.node(Edit.NODE_ADDED, node, graph.getSymbol(node), graph.getAttachedTo(node),
+                            graph.getX(node), graph.getY(node));
+                }
+            }
+        }
+        for (int bond : bonds) {
+            open.record(Edit.BOND_ADDED, bond, graph.getBondStart(bond), graph.getBondEnd(bond),
+                    graph.getBondOrder(bond));
+        }
+        end();
+    }
+
+    @Override
+    public void bondRemoved(int bond, int start, int end, int order) {
+        if (muted) return;
+        begin();
+        open.record(Edit.BOND_REMOVED, bond, start, end, order);
+        end();
+    }
+
+    @Override
+    public void bondOrderChanged(int bond, int oldOrder) {
+        if (muted) return;
+        begin();
+        open.record(Edit.BOND_ORDER, bond, oldOrder, graph.getBondOrder(bond), 0);
+        end();
+    }
+
+    // Сброс графа мимо checkpoint() отменить нечем - прежняя история теряет смысл
+    @Override
+    public void graphReset() {
+        if (!muted) {
+            clear();
+        }
+    }
+
+    // ===== Команды =====
+
+    private interface Command {
+        void undo(BuilderGraph graph);
+
+        void redo(BuilderGraph graph);
+
+        // Объём в примитивных значениях
+        long size();
+    }
+
+    // Элементарные изменения в плоских массивах: запись - пять int, у узлов ещё два double
+    private static final class Edit implements Command {
+        static final int NODE_ADDED = 0;
+        static final int NODE_REMOVED = 1;
+        static final int BOND_ADDED = 2;
+        static final int BOND_REMOVED = 3;
+        static final int BOND_ORDER = 4;
+
+        private static final int RECORD = 5;
+
+        private final IntList records = new IntList(RECORD * 4);
+        private double[] coordinates = new double[4];
+        private int coordinateCount;
+
+        boolean isEmpty() {
+            return records.isEmpty();
+        }
+
+        void record(int kind, int id, int a, int b, int c) {
+            records.add(kind);
+            records.add(id);
+            records.add(a);
+            records.add(b);
+            records.add(c);
+        }
+
+        void node(int kind, int node, int symbol, int attachedTo, double x, double y) {
+            record(kind, node, symbol, attachedTo, 0);
+            if (coordinateCount + 2 > coordinates.length) {
+                coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+            }
+            coordinates[coordinateCount++] = x;
+            coordinates[coordinateCount++] = y;
+        }
+
+        // Обратные операции в обратном порядке: связи группы уходят раньше группы,
+        // группы - раньше атома, поэтому номера возвращаются в прежние слоты
+        @Override
+        public void undo(BuilderGraph graph) {
+            int c = coordinateCount;
+            for (int r = records.size() - RECORD; r >= 0; r -= RECORD) {
+                int kind = records.get(r);
+                int id = records.get(r + 1);
+                switch (kind) {
+                    case NODE_ADDED:
+                        c -= 2;
+                        graph.removeNode(id);
+                        break;
+                    case NODE_REMOVED:
+                        c -= 2;
+                        graph.reviveNode(id, records.get(r + 2), coordinates[c], coordinates[c + 1],
+                                records.get(r + 3));
+                        break;
+                    case BOND_ADDED:
+                        graph.removeBond(id);
+                        break;
+                    case BOND_REMOVED:
+                        graph.reviveBond(id, records.get(r + 2), records.get(r + 3), records.get(r + 4));
+                        break;
+                    default:
+                        graph.setBondOrder(id, records.get(r + 2));
+                        break;
+                }
+            }
+        }
+
+        @Override
+        public void redo(BuilderGraph graph) {
+            int c = 0;
+            for (int r = 0; r < records.size(); r += RECORD) {
+                int kind = records.get(r);
+                int id = records.get(r + 1);
+                switch (kind) {
+                    case NODE_ADDED:
+                        graph.reviveNode(id, records.get(r + 2), coordinates[c], coordinates[c + 1],
+                                records.get(r + 3));
+                        c += 2;
+                        break;
+                    case NODE_REMOVED:
+                        graph.removeNode(id);
+                        c += 2;
+                        break;
+                    case BOND_ADDED:
+                        graph.reviveBond(id, records.get(r + 2), records.get(r + 3), records.get(r + 4));
+                        break;
+                    case BOND_REMOVED:
+                        graph.removeBond(id);
+                        break;
+                    default:
+                        graph.setBondOrder(id, records.get(r + 3));
+                        break;
+                }
+            }
+        }
+
+        @Override
+        public long size() {
+            return records.size() + coordinateCount;
+        }
+    }
+
+    // Поворот или сдвиг фрагмента: отмена применяет обратную матрицу к тем же узлам
+    private static final class Transform implements Command {
+        private final int[] nodes;
+        private final AffineTransform forward;
+        private final AffineTransform inverse;
+
+        Transform(int[] nodes, AffineTransform forward, AffineTransform inverse) {
+            this.nodes = nodes;
+            this.forward = forward;
+            this.inverse = inverse;
+        }
+
+        @Override
+        public void undo(BuilderGraph graph) {
+            graph.fragment(nodes).apply(inverse);
+        }
+
+        @Override
+        public void redo(BuilderGraph graph) {
+            graph.fragment(nodes).apply(forward);
+        }
+
+        @Override
+        public long size() {
+            return nodes.length + 12;
+        }
+    }
+
+    // Перемещение без общей матрицы (например, после выравнивания структуры)
+    private static final class Positions implements Command {
+        private final int[] nodes;
+        private final double[] before;
+        private final double[] after;
+
+        Positions(int[] nodes, double[] before, double[] after) {
+            this.nodes = nodes;
+            this.before = before;
+            this.after = after;
+        }
+
+        @Override
+        public void undo(BuilderGraph graph) {
+            graph.setPositions(nodes, before);
+        }
+
+        @Override
+        public void redo(BuilderGraph graph) {
+            graph.setPositions(nodes, after);
+        }
+
+        @Override
+        public long size() {
+            return nodes.length * 5L;
+        }
+    }
+
+    private static final class Checkpoint implements Command {
+        private final BuilderGraph.Snapshot before;
+        private final BuilderGraph.Snapshot after;
+
+        Checkpoint(BuilderGraph.Snapshot before, BuilderGraph.Snapshot after) {
+            this.before = before;
+            this.after = after;
+        }
+
+        @Override
+        public void undo(BuilderGraph graph) {
+            graph.restore(before);
+        }
+
+        @Override
+        public void redo(BuilderGraph graph) {
+            graph.restore(after);
+        }
+
+        @Override
+        public long size() {
+            return before.size() + after.size();
+        }
+    }
+}
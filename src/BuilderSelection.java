@@ -0,0 +1,140 @@
+import java.awt.Shape;
+import java.util.Arrays;
+
+// Выделенные узлы конструктора: отметка по номеру узла и список номеров.
+// Выбор рамкой или лассо идёт запросом к пространственному индексу графа,
+// так что стоит столько, сколько узлов попало в рамку, а не весь граф.
+// Удалённые узлы снимаются с выделения по событию графа; список чистится лениво.
+public class BuilderSelection implements BuilderGraph.Listener {
+
+    private final BuilderGraph graph;
+    private boolean[] marked = new boolean[16];
+    private final IntList nodes = new IntList();
+    private final IntList found = new IntList();
+    private int size;
+
+    public BuilderSelection(BuilderGraph graph) {
+        this.graph = graph;
+        graph.addListener(this);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int node) {
+        return node >= 0 && node < marked.length && marked[node];
+    }
+
+    public void add(int node) {
+        if (!graph.isAlive(node) || contains(node)) return;
+        if (node >= marked.length) {
+            marked = Arrays.copyOf(marked, Math.max(node + 1, marked.length * 2));
+        }
+        marked[node] = true;
+        nodes.add(node);
+        size++;
+    }
+
+    public void toggle(int node) {
+        if (contains(node)) {
+            marked[node] = false;
+            size--;
+        } else {
+            add(node);
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < nodes.size(); i++) {
+            int node = nodes.get(i);
+            if (node < marked.length) marked[node] = false;
+        }
+        nodes.clear();
+        size = 0;
+    }
+
+    // Узлы в прямоугольнике (мировые координаты)
+    public void addRectangle(double minX, double minY, double maxX, double maxY) {
+        found.clear();
+        graph.queryAtoms(minX, minY, maxX, maxY, found);
+        graph.queryGroups(minX, minY, maxX, maxY, found);
+        for (int i = 0; i < found.size(); i++) {
+            add(found.get(i));
+        }
+    }
+
+    // Узлы внутри контура: запрос по его рамке, затем проверка точки в контуре
+    public void addShape(Shape shape) {
+        java.awt.geom.Rectangle2D box = shape.getBounds2D();
+        found.clear();
+        graph.queryAtoms(box.getMinX(), box.getMinY(), box.getMaxX(), box.getMaxY(), found);
+        graph.queryGroups(box.getMinX(), box.getMinY(), box.getMaxX(), box.getMaxY(), found);
+        for (int i = 0; i < found.size(); i++) {
+            int node = found.get(i);
+            if (shape.contains(graph.getX(node), graph.getY(node))) {
+                add(node);
+            }
+        }
+    }
+
+    public void addAll() {
+        for (int node = 0; node < graph.nodeLimit(); node++) {
+            if (graph.isAlive(node)) add(node);
+        }
+    }
+
+    // Номера выделенных узлов; заодно из списка убираются снятые и удалённые
+    public int[] nodes() {
+        int kept = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            int node = nodes.get(i);
+            // Снятый и выбранный заново узел встречается в списке дважды - берётся первый
+            if (contains(node)) {
+                marked[node] = false;
+                nodes.set(kept++, node);
+            }
+        }
+        while (nodes.size() > kept) {
+            nodes.removeLast();
+        }
+        int[] result = nodes.toArray();
+        for (int node : result) {
+            marked[node] = true;
+        }
+        return result;
+    }
+
+    // Связи, оба конца которых выделены; каждая связь один раз - со стороны начала
+    public int[] bonds() {
+        IntList bonds = new IntList();
+        for (int node : nodes()) {
+            for (int h = graph.firstHalfEdge(node); h != BuilderGraph.NONE; h = graph.nextHalfEdge(h)) {
+                int bond = BuilderGraph.halfEdgeBond(h);
+                if (graph.getBondStart(bond) == node && contains(graph.getBondEnd(bond))) {
+                    bonds.add(bond);
+                }
+            }
+        }
+        return bonds.toArray();
+    }
+
+    // ===== События графа =====
+
+    @Override
+    public void nodeRemoved(int node, int symbol, int attachedTo, double x, double y) {
+        if (contains(node)) {
+            marked[node] = false;
+            size--;
+        }
+    }
+
+    @Override
+    public void graphReset() {
+        clear();
+    }
+}
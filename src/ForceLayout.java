@@ -0,0 +1,265 @@
+import java.util.Arrays;
+
+// Выравнивание нарисованной от руки структуры силовым методом: связи - пружины
+// длиной в одну связь, все пары узлов отталкиваются. Отталкивание считается
+// деревом Барнса-Хата: далёкий квадрант заменяется его центром масс, так что шаг
+// стоит O(n log n) вместо O(n²). Шаг ограничен «температурой», которая убывает,
+// поэтому раскладка сходится и не уплывает; центр масс остаётся на месте.
+// Класс не трогает граф и Swing - шаги можно делать в фоновом потоке.
+public final class ForceLayout {
+
+    private static final int ITERATIONS = Integer.getInteger("molchem.cleanup.iterations", 300);
+    // Квадрант дальше size / THETA считается одним телом
+    private static final double THETA = 0.8;
+    private static final double SPRING = 6.0;
+    private static final double REPULSION = 0.1;
+    private static final double START_TEMPERATURE = 0.25;
+    private static final double MIN_TEMPERATURE = 0.002;
+    // Глубина дерева ограничена: совпадающие узлы остаются в одном листе
+    private static final int MAX_DEPTH = 24;
+    private static final int NONE = -1;
+
+    private final int count;
+    private final int[] bondA;
+    private final int[] bondB;
+    private final double bondLength;
+    // Координаты в длинах связи
+    private final double[] x;
+    private final double[] y;
+    private final double[] fx;
+    private final double[] fy;
+    private final double centreX;
+    private final double centreY;
+    private double temperature = START_TEMPERATURE;
+    private final double cooling;
+    private int iteration;
+
+    // Дерево в плоских массивах; дети узла - child[q]..child[q]+3
+    private int[] order;
+    private int treeSize;
+    private double[] massX = new double[64];
+    private double[] massY = new double[64];
+    private int[] mass = new int[64];
+    private double[] cellSize = new double[64];
+    private int[] child = new int[64];
+    private int[] bodyStart = new int[64];
+    private int[] bodyEnd = new int[64];
+    private int[] stack = new int[64];
+
+    // xy - координаты в пикселях парами; bondA[i]-bondB[i] - связи по индексам в xy
+    public ForceLayout(double[] xy, int[] bondA, int[] bondB, double bondLength) {
+        if (bondA.length != bondB.length || xy.length % 2 != 0) {
+            throw new IllegalArgumentException("Длины массивов структуры не совпадают");
+        }
+        this.count = xy.length / 2;
+        this.bondA = bondA;
+        this.bondB = bondB;
+        this.bondLength = bondLength;
+        x = new double[count];
+        y = new double[count];
+        fx = new double[count];
+        fy = new double[count];
+        order = new int[count];
+        double sumX = 0;
+        double sumY = 0;
+        for (int i = 0; i < count; i++) {
+            x[i] = xy[2 * i] / bondLength;
+            y[i] = xy[2 * i + 1] / bondLength;
+            sumX += x[i];
+            sumY += y[i];
+        }
+        centreX = count == 0 ? 0 : sumX / count;
+        centreY = count == 0 ? 0 : sumY / count;
+        cooling = Math.pow(MIN_TEMPERATURE / START_TEMPERATURE, 1.0 / ITERATIONS);
+    }
+
+    public boolean isFinished() {
+        return count < 2 || iteration >= ITERATIONS;
+    }
+
+    // Доля выполненных шагов для индикатора
+    public double progress() {
+        return count < 2 ? 1 : Math.min(1, iteration / (double) ITERATIONS);
+    }
+
+    public void step() {
+        if (isFinished()) return;
+        Arrays.fill(fx, 0);
+        Arrays.fill(fy, 0);
+        buildTree();
+        for (int i = 0; i < count; i++) {
+            repel(i);
+        }
+        for (int b = 0; b < bondA.length; b++) {
+            int i = bondA[b];
+            int j = bondB[b];
+            double dx = x[j] - x[i];
+            double dy = y[j] - y[i];
+            double d = Math.max(Math.hypot(dx, dy), 1e-3);
+            // Отталкивание связанной пары снимается: длину связи держит пружина
+            double f = SPRING * (d - 1) / d + REPULSION / (d * d * d);
+            fx[i] += f * dx;
+            fy[i] += f * dy;
+            fx[j] -= f * dx;
+            fy[j] -= f * dy;
+        }
+
+        double sumX = 0;
+        double sumY = 0;
+        for (int i = 0; i < count; i++) {
+            double f = Math.hypot(fx[i], fy[i]);
+            double scale = f > temperature ? temperature / f : 1;
+            x[i] += fx[i] * scale;
+            y[i] += fy[i] * scale;
+            sumX += x[i];
+            sumY += y[i];
+        }
+        double shiftX = centreX - sumX / count;
+        double shiftY = centreY - sumY / count;
+        for (int i = 0; i < count; i++) {
+            x[i] += shiftX;
+            y[i] += shiftY;
+        }
+        temperature *= cooling;
+        iteration++;
+    }
+
+    // Текущие координаты в пикселях парами, в порядке исходного xy
+    public double[] positions() {
+        double[] xy = new double[count * 2];
+        for (int i = 0; i < count; i++) {
+            xy[2 * i] = x[i] * bondLength;
+            xy[2 * i + 1] = y[i] * bondLength;
+        }
+        return xy;
+    }
+
+    // ===== Дерево Барнса-Хата =====
+
+    private void buildTree() {
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        treeSize = 1;
+        build(0, 0, count, minX, minY, Math.max(maxX - minX, maxY - minY) + 1e-9, 0);
+    }
+
+    // Узлы [lo, hi) массива order лежат в квадрате (x0, y0, size)
+    private void build(int cell, int lo, int hi, double x0, double y0, double size, int depth) {
+        double sumX = 0;
+        double sumY = 0;
+        for (int k = lo; k < hi; k++) {
+            sumX += x[order[k]];
+            sumY += y[order[k]];
+        }
+        mass[cell] = hi - lo;
+        massX[cell] = hi > lo ? sumX / (hi - lo) : 0;
+        massY[cell] = hi > lo ? sumY / (hi - lo) : 0;
+        cellSize[cell] = size;
+        bodyStart[cell] = lo;
+        bodyEnd[cell] = hi;
+        child[cell] = NONE;
+        if (hi - lo <= 1 || depth == MAX_DEPTH) return;
+
+        double half = size / 2;
+        double midX = x0 + half;
+        double midY = y0 + half;
+        // Сначала по x, затем каждую половину по y: квадранты идут подряд
+        int splitX = partition(lo, hi, midX, true);
+        int splitLeft = partition(lo, splitX, midY, false);
+        int splitRight = partition(splitX, hi, midY, false);
+
+        int first = treeSize;
+        treeSize += 4;
+        ensureTreeCapacity(treeSize);
+        child[cell] = first;
+        build(first, lo, splitLeft, x0, y0, half, depth + 1);
+        build(first + 1, splitLeft, splitX, x0, midY, half, depth + 1);
+        build(first + 2, splitX, splitRight, midX, y0, half, depth + 1);
+        build(first + 3, splitRight, hi, midX, midY, half, depth + 1);
+    }
+
+    // Узлы с координатой меньше mid - в начало; возвращает границу
+    private int partition(int lo, int hi, double mid, boolean byX) {
+        int i = lo;
+        int j = hi - 1;
+        while (i <= j) {
+            int body = order[i];
+            if ((byX ? x[body] : y[body]) < mid) {
+                i++;
+            } else {
+                order[i] = order[j];
+                order[j--] = body;
+            }
+        }
+        return i;
+    }
+
+    private void ensureTreeCapacity(int size) {
+        if (size <= mass.length) return;
+        int capacity = Math.max(size, mass.length * 2);
+        massX = Arrays.copyOf(massX, capacity);
+        massY = Arrays.copyOf(massY, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        cellSize = Arrays.copyOf(cellSize, capacity);
+        child = Arrays.copyOf(child, capacity);
+        bodyStart = Arrays.copyOf(bodyStart, capacity);
+        bodyEnd = Arrays.copyOf(bodyEnd, capacity);
+    }
+
+    // Отталкивание REPULSION / d² от всех остальных узлов
+    private void repel(int i) {
+        double xi = x[i];
+        double yi = y[i];
+        double forceX = 0;
+        double forceY = 0;
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int cell = stack[--top];
+            if (mass[cell] == 0) continue;
+            double dx = xi - massX[cell];
+            double dy = yi - massY[cell];
+            double d2 = dx * dx + dy * dy;
+            if (child[cell] == NONE) {
+                for (int k = bodyStart[cell]; k < bodyEnd[cell]; k++) {
+                    int j = order[k];
+                    if (j == i) continue;
+                    double ex = xi - x[j];
+                    double ey = yi - y[j];
+                    double e2 = ex * ex + ey * ey;
+                    if (e2 < 1e-8) {
+                        // Совпавшие узлы разводятся в детерминированную сторону
+                        ex = i < j ? 1e-4 : -1e-4;
+                        e2 = 1e-8;
+                    }
+                    double f = REPULSION / (e2 * Math.sqrt(e2));
+                    forceX += ex * f;
+                    forceY += ey * f;
+                }
+            } else if (cellSize[cell] * cellSize[cell] < THETA * THETA * d2) {
+                double f = REPULSION * mass[cell] / (d2 * Math.sqrt(d2));
+                forceX += dx * f;
+                forceY += dy * f;
+            } else {
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                int first = child[cell];
+                for (int q = 0; q < 4; q++) {
+                    stack[top++] = first + q;
+                }
+            }
+        }
+        fx[i] += forceX;
+        fy[i] += forceY;
+    }
+}
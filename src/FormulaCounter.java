@@ -0,0 +1,254 @@
+import java.util.Arrays;
+
+// Брутто-формула, массы и превышения валентности для графа конструктора.
+// Итоги не пересчитываются по всему графу: каждое событие меняет вклад одного-двух
+// узлов за O(1), так что правка обходится в O(степени) удалённых или добавленных связей.
+// Водород неявный: атом добирает до своей валентности, группа - сверх своих H (OH, NH2).
+public class FormulaCounter implements BuilderGraph.Listener {
+
+    // C и H первыми, остальные по алфавиту - порядок Хилла при наличии углерода
+    private static final String[] ELEMENTS = {"C", "H", "Br", "Cl", "F", "N", "O"};
+    private static final int[] VALENCE = {4, 1, 1, 1, 1, 3, 2};
+    private static final double[] MONOISOTOPIC_MASS = {
+            12.0, 1.00782503207, 78.9183371, 34.96885268, 18.99840322, 14.0030740048, 15.99491461956};
+    private static final double[] AVERAGE_MASS = {
+            12.011, 1.008, 79.904, 35.453, 18.998, 14.007, 15.999};
+    private static final int CARBON = 0;
+    private static final int HYDROGEN = 1;
+
+    // Разбор символа группы: элемент и собственные атомы H; UNPARSED - ещё не разобран
+    private static final int UNPARSED = -2;
+    private static final int UNKNOWN = -1;
+
+    private final BuilderGraph graph;
+    private final int[] counts = new int[ELEMENTS.length];
+    private int[] bondSum = new int[16];
+    private int[] symbolElement = new int[0];
+    private int[] symbolHydrogens = new int[0];
+    private int violations;
+    private int unknownGroups;
+    private String formula;
+
+    public FormulaCounter(BuilderGraph graph) {
+        this.graph = graph;
+        graph.addListener(this);
+        graphReset();
+    }
+
+    // ===== Итоги =====
+
+    public String getFormula() {
+        if (formula == null) {
+            formula = hillFormula();
+        }
+        return formula;
+    }
+
+    private String hillFormula() {
+        StringBuilder sb = new StringBuilder();
+        if (counts[CARBON] > 0) {
+            appendElement(sb, CARBON);
+            appendElement(sb, HYDROGEN);
+            for (int e = HYDROGEN + 1; e < ELEMENTS.length; e++) {
+                appendElement(sb, e);
+            }
+        } else {
+            // Без углерода все элементы, включая H, идут по алфавиту
+            String[] order = ELEMENTS.clone();
+            Arrays.sort(order);
+            for (String element : order) {
+                appendElement(sb, elementIndex(element));
+            }
+        }
+        if (unknownGroups > 0) {
+            sb.append(" + ?").append(unknownGroups);
+        }
+        return sb.toString();
+    }
+
+    private void appendElement(StringBuilder sb, int element) {
+        int count = counts[element];
+        if (count == 0) return;
+        sb.append(ELEMENTS[element]);
+        if (count > 1) {
+            sb.append(count);
+        }
+    }
+
+    public int getCount(String element) {
+        int e = elementIndex(element);
+        return e < 0 ? 0 : counts[e];
+    }
+
+    public double getMonoisotopicMass() {
+        return mass(MONOISOTOPIC_MASS);
+    }
+
+    public double getAverageMass() {
+        return mass(AVERAGE_MASS);
+    }
+
+    private double mass(double[] table) {
+        double mass = 0;
+        for (int e = 0; e < ELEMENTS.length; e++) {
+            mass += counts[e] * table[e];
+        }
+        return mass;
+    }
+
+    // Узлы, у которых сумма порядков связей больше валентности, плюс неизвестные группы
+    public int getViolationCount() {
+        return violations;
+    }
+
+    public boolean isOverValence(int node) {
+        int symbol = graph.getSymbol(node);
+        int element = elementOf(symbol);
+        return element == UNKNOWN
+                || symbolHydrogens[symbol] + bondSum[node] > VALENCE[element];
+    }
+
+    public int getImplicitHydrogens(int node) {
+        int symbol = graph.getSymbol(node);
+        return hydrogens(elementOf(symbol), symbolHydrogens[symbol], bondSum[node]);
+    }
+
+    // ===== События графа =====
+
+    @Override
+    public void nodeAdded(int node) {
+        if (node >= bondSum.length) {
+            bondSum = Arrays.copyOf(bondSum, Math.max(node + 1, bondSum.length * 2));
+        }
+        bondSum[node] = 0;
+        contribute(graph.getSymbol(node), 0, 1);
+    }
+
+    // Связи узла к этому моменту уже удалены и вычтены
+    @Override
+    public void nodeRemoved(int node, int symbol, int attachedTo, double x, double y) {
+        contribute(symbol, bondSum[node], -1);
+    }
+
+    @Override
+    public void bondAdded(int bond) {
+        int order = graph.getBondOrder(bond);
+        changeBondSum(graph.getBondStart(bond), order);
+        changeBondSum(graph.getBondEnd(bond), order);
+    }
+
+    @Override
+    public void bondRemoved(int bond, int start, int end, int order) {
+        changeBondSum(start, -order);
+        changeBondSum(end, -order);
+    }
+
+    @Override
+    public void bondOrderChanged(int bond, int oldOrder) {
+        int delta = graph.getBondOrder(bond) - oldOrder;
+        changeBondSum(graph.getBondStart(bond), delta);
+        changeBondSum(graph.getBondEnd(bond), delta);
+    }
+
+    // Единственный полный пересчёт - после очистки или восстановления снимка
+    @Override
+    public void graphReset() {
+        Arrays.fill(counts, 0);
+        violations = 0;
+        unknownGroups = 0;
+        formula = null;
+        if (bondSum.length < graph.nodeLimit()) {
+            bondSum = new int[graph.nodeLimit()];
+        }
+        Arrays.fill(bondSum, 0);
+        for (int bond = 0; bond < graph.bondLimit(); bond++) {
+            if (!graph.isBondAlive(bond)) continue;
+            bondSum[graph.getBondStart(bond)] += graph.getBondOrder(bond);
+            bondSum[graph.getBondEnd(bond)] += graph.getBondOrder(bond);
+        }
+        for (int node = 0; node < graph.nodeLimit(); node++) {
+            if (graph.isAlive(node)) {
+                contribute(graph.getSymbol(node), bondSum[node], 1);
+            }
+        }
+    }
+
+    private void changeBondSum(int node, int delta) {
+        int symbol = graph.getSymbol(node);
+        contribute(symbol, bondSum[node], -1);
+        bondSum[node] += delta;
+        contribute(symbol, bondSum[node], 1);
+    }
+
+    // Вклад узла с данной суммой порядков связей; sign = -1 снимает его
+    private void contribute(int symbol, int sum, int sign) {
+        formula = null;
+        int element = elementOf(symbol);
+        if (element == UNKNOWN) {
+            unknownGroups += sign;
+            violations += sign;
+            return;
+        }
+        int ownHydrogens = symbolHydrogens[symbol];
+        counts[element] += sign;
+        counts[HYDROGEN] += sign * hydrogens(element, ownHydrogens, sum);
+        if (ownHydrogens + sum > VALENCE[element]) {
+            violations += sign;
+        }
+    }
+
+    private static int hydrogens(int element, int ownHydrogens, int sum) {
+        if (element == UNKNOWN) return 0;
+        return ownHydrogens + Math.max(0, VALENCE[element] - ownHydrogens - sum);
+    }
+
+    // ===== Символы групп =====
+
+    private int elementOf(int symbol) {
+        if (symbol >= symbolElement.length) {
+            int oldLength = symbolElement.length;
+            int capacity = Math.max(symbol + 1, oldLength * 2);
+            symbolElement = Arrays.copyOf(symbolElement, capacity);
+            symbolHydrogens = Arrays.copyOf(symbolHydrogens, capacity);
+            Arrays.fill(symbolElement, oldLength, capacity, UNPARSED);
+        }
+        if (symbolElement[symbol] == UNPARSED) {
+            parseSymbol(symbol);
+        }
+        return symbolElement[symbol];
+    }
+
+    // "OH" - кислород с одним H, "NH2" - азот с двумя, "Cl" - хлор без H
+    private void parseSymbol(int symbol) {
+        String name = SymbolTable.name(symbol);
+        int element = UNKNOWN;
+        int length = 0;
+        for (int e = 0; e < ELEMENTS.length; e++) {
+            if (name.startsWith(ELEMENTS[e]) && ELEMENTS[e].length() > length) {
+                element = e;
+                length = ELEMENTS[e].length();
+            }
+        }
+
+        int hydrogens = 0;
+        String rest = name.substring(length);
+        if (element != UNKNOWN && !rest.isEmpty()) {
+            if (rest.equals("H")) {
+                hydrogens = 1;
+            } else if (rest.startsWith("H") && rest.substring(1).chars().allMatch(Character::isDigit)) {
+                hydrogens = Integer.parseInt(rest.substring(1));
+            } else {
+                element = UNKNOWN;
+            }
+        }
+        symbolElement[symbol] = element;
+        symbolHydrogens[symbol] = hydrogens;
+    }
+
+    private static int elementIndex(String element) {
+        for (int e = 0; e < ELEMENTS.length; e++) {
+            if (ELEMENTS[e].equals(element)) return e;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,451 @@
+import java.util.Arrays;
+
+// Шаблон фрагмента для конструктора: узлы с координатами относительно центра
+// рамки и связи между ними, всё в плоских массивах. Вставка идёт одним вызовом
+// BuilderGraph.insertAll - одно изменение графа, один проход по сеткам и одно
+// событие для наблюдателей, сколько бы узлов ни было в шаблоне.
+// Полимер из звена не раскладывается целиком: раскладывается тример, а звенья
+// копируются со сдвигом на период, так что цепь в 100 тысяч атомов строится за O(n).
+// Класс не трогает Swing; шаблоны неизменяемы.
+public final class FragmentTemplate {
+
+    private static final int NONE = BuilderGraph.NONE;
+    private static final int MAX_ATOMS = Integer.getInteger("molchem.template.maxAtoms", 200_000);
+    public static final int MIN_RING = 3;
+    public static final int MAX_RING = 8;
+
+    private final String name;
+    private final String[] symbols;
+    private final double[] x;
+    private final double[] y;
+    private final int[] attachedTo;
+    private final int[] bondStart;
+    private final int[] bondEnd;
+    private final int[] bondOrder;
+    // Первый атом углерода - им шаблон присоединяется к атому графа
+    private final int anchor;
+
+    private FragmentTemplate(String name, String[] symbols, double[] x, double[] y, int[] attachedTo,
+                             int[] bondStart, int[] bondEnd, int[] bondOrder) {
+        this.name = name;
+        this.symbols = symbols;
+        this.x = x;
+        this.y = y;
+        this.attachedTo = attachedTo;
+        this.bondStart = bondStart;
+        this.bondEnd = bondEnd;
+        this.bondOrder = bondOrder;
+        int first = NONE;
+        for (int i = 0; i < symbols.length && first == NONE; i++) {
+            if (symbols[i].equals("C")) first = i;
+        }
+        this.anchor = first;
+        centre();
+    }
+
+    // ===== Готовые шаблоны =====
+
+    // Правильный n-угольник из атомов углерода, вершиной вверх
+    public static FragmentTemplate ring(int size, double bondLength) {
+        if (size < MIN_RING || size > MAX_RING) {
+            throw new IllegalArgumentException("Размер цикла от " + MIN_RING + " до " + MAX_RING + ": " + size);
+        }
+        return polygon("Цикл C" + size, size, bondLength, false);
+    }
+
+    // Кольцо Кекуле: двойные связи через одну
+    public static FragmentTemplate benzene(double bondLength) {
+        return polygon("Бензол", 6, bondLength, true);
+    }
+
+    // Зигзаг из length атомов углерода - полимер из звена «C»
+    public static FragmentTemplate chain(int length, double bondLength) {
+        if (length < 1) {
+            throw new IllegalArgumentException("Длина цепи должна быть положительной: " + length);
+        }
+        return polymer("Цепь C" + length, "C", length, bondLength);
+    }
+
+    public static FragmentTemplate fromSmiles(String name, String smiles, double bondLength) {
+        SmilesReader.Structure structure = SmilesReader.parse(smiles);
+        checkSize(structure.atomCount());
+        double[] xy = StructureLayout.layout(structure, bondLength);
+        int count = structure.atomCount();
+        double[] x = new double[count];
+        double[] y = new double[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = xy[2 * i];
+            y[i] = xy[2 * i + 1];
+        }
+        return new FragmentTemplate(name, structure.symbols, x, y, structure.attachedTo,
+                structure.bondStart, structure.bondEnd, structure.bondOrder);
+    }
+
+    // Узлы графа как шаблон. Группы выделенных атомов берутся вместе с ними,
+    // группа без своего атома пропускается; связи - только внутри набора.
+    public static FragmentTemplate fromNodes(String name, BuilderGraph graph, int[] nodes) {
+        int[] index = new int[graph.nodeLimit()];
+        Arrays.fill(index, NONE);
+        IntList taken = new IntList();
+        for (int node : nodes) {
+            if (graph.isAtom(node) && index[node] == NONE) {
+                index[node] = taken.size();
+                taken.add(node);
+            }
+        }
+        int atoms = taken.size();
+        for (int i = 0; i < atoms; i++) {
+            int atom = taken.get(i);
+            for (int h = graph.firstHalfEdge(atom); h != NONE; h = graph.nextHalfEdge(h)) {
+                int target = graph.halfEdgeTarget(h);
+                if (graph.isGroup(target) && index[target] == NONE && graph.getAttachedTo(target) == atom) {
+                    index[target] = taken.size();
+                    taken.add(target);
+                }
+            }
+        }
+        int count = taken.size();
+        if (count == 0) {
+            throw new IllegalArgumentException("В шаблоне нет ни одного атома");
+        }
+
+        String[] symbols = new String[count];
+        double[] x = new double[count];
+        double[] y = new double[count];
+        int[] attachedTo = new int[count];
+        IntList starts = new IntList();
+        IntList ends = new IntList();
+        IntList orders = new IntList();
+        for (int i = 0; i < count; i++) {
+            int node = taken.get(i);
+            symbols[i] = graph.getSymbolName(node);
+            x[i] = graph.getX(node);
+            y[i] = graph.getY(node);
+            attachedTo[i] = graph.isGroup(node) ? index[graph.getAttachedTo(node)] : NONE;
+            for (int h = graph.firstHalfEdge(node); h != NONE; h = graph.nextHalfEdge(h)) {
+                int bond = BuilderGraph.halfEdgeBond(h);
+                int other = graph.getOtherEnd(bond, node);
+                // Каждая связь один раз - со стороны узла с меньшим индексом в шаблоне
+                if (index[other] != NONE && index[other] > i) {
+                    starts.add(i);
+                    ends.add(index[other]);
+                    orders.add(graph.getBondOrder(bond));
+                }
+            }
+        }
+        return new FragmentTemplate(name, symbols, x, y, attachedTo,
+                starts.toArray(), ends.toArray(), orders.toArray());
+    }
+
+    // Звено unitSmiles, повторённое repeats раз: следующее звено присоединяется
+    // к тому атому, к которому присоединился бы следующий атом строки SMILES
+    // (для «CC(c1ccccc1)» - к атому с фенилом). Тример unit+unit+unit разбирается
+    // и раскладывается один раз, дальше звенья копируются блоками со сдвигом на
+    // период - путь от первого атома блока до первого атома следующего блока.
+    // Сдвиг сохраняет длину связи между блоками при любой раскладке тримера.
+    // Крайние звенья берут символы у крайних звеньев тримера: концевой O - это OH.
+    public static FragmentTemplate polymer(String name, String unitSmiles, int repeats, double bondLength) {
+        if (repeats < 1) {
+            throw new IllegalArgumentException("Число звеньев должно быть положительным: " + repeats);
+        }
+        if (unitSmiles == null || unitSmiles.indexOf('.') >= 0) {
+            throw new IllegalArgumentException("Звено должно быть одной связной структурой");
+        }
+        if (repeats == 1) {
+            return fromSmiles(name, unitSmiles, bondLength);
+        }
+        String unit = unitSmiles.trim();
+        SmilesReader.Structure trimer = SmilesReader.parse(unit + unit + unit);
+        int size = trimer.atomCount() / 3;
+        if ((long) size * repeats > MAX_ATOMS) {
+            throw new IllegalArgumentException("Слишком большой полимер: " + (long) size * repeats
+                    + " узлов, допустимо " + MAX_ATOMS);
+        }
+        double[] layout = StructureLayout.layout(trimer, bondLength);
+        int block = blockSize(layout, size, bondLength);
+        double periodX = layout[2 * block * size] - layout[0];
+        double periodY = layout[2 * block * size + 1] - layout[1];
+
+        // Связи тримера по звеньям: внутри звена u и от звена u к звену u + 1
+        IntList[] inner = {new IntList(), new IntList(), new IntList()};
+        IntList[] links = {new IntList(), new IntList()};
+        for (int b = 0; b < trimer.bondCount(); b++) {
+            int from = Math.min(trimer.bondStart[b], trimer.bondEnd[b]) / size;
+            int to = Math.max(trimer.bondStart[b], trimer.bondEnd[b]) / size;
+            if (from == to) {
+                inner[from].add(b);
+            } else if (to == from + 1) {
+                links[from].add(b);
+            } else {
+                throw new IllegalArgumentException("Звено связано не только с соседними звеньями");
+            }
+        }
+        if (links[0].isEmpty()) {
+            throw new IllegalArgumentException("Звенья не связываются друг с другом");
+        }
+
+        int count = size * repeats;
+        int bondCount = 0;
+        for (int k = 0; k < repeats; k++) {
+            bondCount += inner[source(k, repeats)].size();
+            if (k + 1 < repeats) bondCount += links[k == 0 ? 0 : 1].size();
+        }
+        String[] symbols = new String[count];
+        double[] x = new double[count];
+        double[] y = new double[count];
+        int[] attachedTo = new int[count];
+        int[] starts = new int[bondCount];
+        int[] ends = new int[bondCount];
+        int[] orders = new int[bondCount];
+        int bond = 0;
+        for (int k = 0; k < repeats; k++) {
+            int base = k * size;
+            int from = source(k, repeats) * size;
+            int place = (k % block) * size;
+            double shiftX = (k / block) * periodX;
+            double shiftY = (k / block) * periodY;
+            for (int i = 0; i < size; i++) {
+                symbols[base + i] = trimer.symbols[from + i];
+                int owner = trimer.attachedTo[from + i];
+                attachedTo[base + i] = owner == NONE ? NONE : base + owner - from;
+                x[base + i] = layout[2 * (place + i)] + shiftX;
+                y[base + i] = layout[2 * (place + i) + 1] + shiftY;
+            }
+            bond = copyBonds(trimer, inner[source(k, repeats)], from, base, starts, ends, orders, bond);
+            if (k + 1 < repeats) {
+                int link = k == 0 ? 0 : 1;
+                bond = copyBonds(trimer, links[link], link * size, base, starts, ends, orders, bond);
+            }
+        }
+        // Цепь кладётся горизонтально
+        double angle = Math.atan2(periodY, periodX);
+        double cos = Math.cos(-angle);
+        double sin = Math.sin(-angle);
+        for (int i = 0; i < count; i++) {
+            double px = x[i];
+            x[i] = px * cos - y[i] * sin;
+            y[i] = px * sin + y[i] * cos;
+        }
+        return new FragmentTemplate(name, symbols, x, y, attachedTo, starts, ends, orders);
+    }
+
+    // Блок из двух звеньев даёт правильный зигзаг и для звена из одного атома,
+    // но если раскладка тримера закручивает цепь, соседние блоки налезают друг
+    // на друга - тогда копируется по одному звену. Проверка перебирает пары
+    // атомов блока и его копий, сдвинутых на один и два периода.
+    private static int blockSize(double[] layout, int size, double bondLength) {
+        double twoUnits = clearance(layout, 2 * size, bondLength);
+        if (twoUnits >= bondLength / 2) return 2;
+        return clearance(layout, size, bondLength) >= twoUnits ? 1 : 2;
+    }
+
+    // Наименьшее расстояние между атомами блока [0, atoms) и его сдвинутых копий
+    private static double clearance(double[] layout, int atoms, double bondLength) {
+        double periodX = layout[2 * atoms] - layout[0];
+        double periodY = layout[2 * atoms + 1] - layout[1];
+        double closest = Double.MAX_VALUE;
+        for (int shift = 1; shift <= 2; shift++) {
+            for (int i = 0; i < atoms; i++) {
+                for (int j = 0; j < atoms; j++) {
+                    double dx = layout[2 * j] + shift * periodX - layout[2 * i];
+                    double dy = layout[2 * j + 1] + shift * periodY - layout[2 * i + 1];
+                    closest = Math.min(closest, Math.hypot(dx, dy));
+                }
+            }
+        }
+        return closest;
+    }
+
+    // Первое звено тримера - начало цепи, третье - конец, второе - середина
+    private static int source(int k, int repeats) {
+        return k == 0 ? 0 : k == repeats - 1 ? 2 : 1;
+    }
+
+    private static int copyBonds(SmilesReader.Structure trimer, IntList bonds, int from, int base,
+                                 int[] starts, int[] ends, int[] orders, int next) {
+        for (int i = 0; i < bonds.size(); i++) {
+            int b = bonds.get(i);
+            starts[next] = base + trimer.bondStart[b] - from;
+            ends[next] = base + trimer.bondEnd[b] - from;
+            orders[next] = trimer.bondOrder[b];
+            next++;
+        }
+        return next;
+    }
+
+    private static FragmentTemplate polygon(String name, int size, double bondLength, boolean alternate) {
+        double radius = bondLength / (2 * Math.sin(Math.PI / size));
+        String[] symbols = new String[size];
+        double[] x = new double[size];
+        double[] y = new double[size];
+        int[] attachedTo = new int[size];
+        int[] starts = new int[size];
+        int[] ends = new int[size];
+        int[] orders = new int[size];
+        for (int i = 0; i < size; i++) {
+            double angle = -Math.PI / 2 + 2 * Math.PI * i / size;
+            symbols[i] = "C";
+            x[i] = radius * Math.cos(angle);
+            y[i] = radius * Math.sin(angle);
+            attachedTo[i] = NONE;
+            starts[i] = i;
+            ends[i] = (i + 1) % size;
+            orders[i] = alternate && i % 2 == 0 ? 2 : 1;
+        }
+        return new FragmentTemplate(name, symbols, x, y, attachedTo, starts, ends, orders);
+    }
+
+    private static void checkSize(int count) {
+        if (count > MAX_ATOMS) {
+            throw new IllegalArgumentException("Слишком большой шаблон: " + count + " узлов, допустимо " + MAX_ATOMS);
+        }
+    }
+
+    // Начало координат - в центре рамки шаблона
+    private void centre() {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < x.length; i++) {
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        double shiftX = (minX + maxX) / 2;
+        double shiftY = (minY + maxY) / 2;
+        for (int i = 0; i < x.length; i++) {
+            x[i] -= shiftX;
+            y[i] -= shiftY;
+        }
+    }
+
+    // ===== Вставка =====
+
+    public String getName() {
+        return name;
+    }
+
+    public int nodeCount() {
+        return symbols.length;
+    }
+
+    public int bondCount() {
+        return bondStart.length;
+    }
+
+    public double getWidth() {
+        return extent(x);
+    }
+
+    public double getHeight() {
+        return extent(y);
+    }
+
+    private static double extent(double[] values) {
+        double min = Double.MAX_VALUE;
+        double max = -Double.MAX_VALUE;
+        for (double value : values) {
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+        }
+        return values.length == 0 ? 0 : max - min;
+    }
+
+    // Шаблон с центром в (centreX, centreY); возвращает номера новых узлов
+    public int[] stamp(BuilderGraph graph, double centreX, double centreY) {
+        return stampAll(graph, new double[]{centreX, centreY});
+    }
+
+    // Копии шаблона с центрами в парах centres - все одним вызовом insertAll.
+    // Номера новых узлов идут подряд по копиям, внутри копии - в порядке шаблона.
+    public int[] stampAll(BuilderGraph graph, double[] centres) {
+        if (centres.length % 2 != 0) {
+            throw new IllegalArgumentException("Центры копий задаются парами координат");
+        }
+        int copies = centres.length / 2;
+        int size = symbols.length;
+        int bonds = bondStart.length;
+        checkSize(size * copies);
+        String[] allSymbols = new String[size * copies];
+        double[] allX = new double[size * copies];
+        double[] allY = new double[size * copies];
+        int[] allAttached = new int[size * copies];
+        int[] allStarts = new int[bonds * copies];
+        int[] allEnds = new int[bonds * copies];
+        int[] allOrders = new int[bonds * copies];
+        for (int c = 0; c < copies; c++) {
+            int base = c * size;
+            for (int i = 0; i < size; i++) {
+                allSymbols[base + i] = symbols[i];
+                allX[base + i] = x[i] + centres[2 * c];
+                allY[base + i] = y[i] + centres[2 * c + 1];
+                allAttached[base + i] = attachedTo[i] == NONE ? NONE : base + attachedTo[i];
+            }
+            for (int b = 0; b < bonds; b++) {
+                allStarts[c * bonds + b] = base + bondStart[b];
+                allEnds[c * bonds + b] = base + bondEnd[b];
+                allOrders[c * bonds + b] = bondOrder[b];
+            }
+        }
+        return graph.insertAll(allSymbols, allX, allY, allAttached, allStarts, allEnds, allOrders);
+    }
+
+    // Шаблон присоединяется простой связью к атому графа: первый атом углерода
+    // шаблона встаёт на длину связи от атома, в сторону от его соседей, а сам
+    // шаблон развёрнут от атома наружу. Возвращает номера новых узлов.
+    public int[] attach(BuilderGraph graph, int atom, double bondLength) {
+        if (!graph.isAtom(atom)) {
+            throw new IllegalArgumentException("Шаблон присоединяется только к атому: " + atom);
+        }
+        if (anchor == NONE) {
+            throw new IllegalArgumentException("В шаблоне «" + name + "» нет атома углерода");
+        }
+        double atomX = graph.getX(atom);
+        double atomY = graph.getY(atom);
+        double sumX = 0;
+        double sumY = 0;
+        int firstNeighbour = NONE;
+        for (int h = graph.firstHalfEdge(atom); h != NONE; h = graph.nextHalfEdge(h)) {
+            int neighbour = graph.halfEdgeTarget(h);
+            double dx = graph.getX(neighbour) - atomX;
+            double dy = graph.getY(neighbour) - atomY;
+            double length = Math.hypot(dx, dy);
+            if (length < 1e-9) continue;
+            sumX += dx / length;
+            sumY += dy / length;
+            if (firstNeighbour == NONE) firstNeighbour = neighbour;
+        }
+        double direction;
+        if (Math.hypot(sumX, sumY) > 1e-6) {
+            direction = Math.atan2(-sumY, -sumX);
+        } else if (firstNeighbour != NONE) {
+            // Соседи уравновешены (линейная цепь) - перпендикулярно первой связи
+            direction = Math.atan2(graph.getY(firstNeighbour) - atomY, graph.getX(firstNeighbour) - atomX)
+                    + Math.PI / 2;
+        } else {
+            direction = 0;
+        }
+
+        // Поворот переводит направление «якорь -> центр шаблона» в direction
+        double toCentre = Math.hypot(x[anchor], y[anchor]) < 1e-9 ? 0 : Math.atan2(-y[anchor], -x[anchor]);
+        double rotation = direction - toCentre;
+        double cos = Math.cos(rotation);
+        double sin = Math.sin(rotation);
+        double anchorX = atomX + bondLength * Math.cos(direction);
+        double anchorY = atomY + bondLength * Math.sin(direction);
+        FragmentTemplate rotated = rotated(cos, sin);
+        int[] ids = rotated.stamp(graph, anchorX - rotated.x[anchor], anchorY - rotated.y[anchor]);
+        graph.addBond(atom, ids[anchor], 1);
+        return ids;
+    }
+
+    private FragmentTemplate rotated(double cos, double sin) {
+        double[] rx = new double[x.length];
+        double[] ry = new double[y.length];
+        for (int i = 0; i < x.length; i++) {
+            rx[i] = x[i] * cos - y[i] * sin;
+            ry[i] = x[i] * sin + y[i] * cos;
+        }
+        return new FragmentTemplate(name, symbols, rx, ry, attachedTo, bondStart, bondEnd, bondOrder);
+    }
+}
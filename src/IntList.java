@@ -0,0 +1,68 @@
+import java.util.Arrays;
+
+// Растущий массив int без упаковки: ячейки сетки, результаты запросов, очереди обхода
+public final class IntList {
+    private int[] items;
+    private int size;
+
+    public IntList() {
+        this(8);
+    }
+
+    public IntList(int capacity) {
+        items = new int[Math.max(1, capacity)];
+    }
+
+    public void add(int value) {
+        if (size == items.length) {
+            items = Arrays.copyOf(items, size * 2);
+        }
+        items[size++] = value;
+    }
+
+    public int get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Индекс " + index + " при размере " + size);
+        }
+        return items[index];
+    }
+
+    public void set(int index, int value) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("Индекс " + index + " при размере " + size);
+        }
+        items[index] = value;
+    }
+
+    public int indexOf(int value) {
+        for (int i = 0; i < size; i++) {
+            if (items[i] == value) return i;
+        }
+        return -1;
+    }
+
+    // Удаление перестановкой с последним: порядок не сохраняется
+    public void swapRemove(int index) {
+        items[index] = items[--size];
+    }
+
+    public int removeLast() {
+        return items[--size];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int[] toArray() {
+        return Arrays.copyOf(items, size);
+    }
+}
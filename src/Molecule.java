@@ -1,329 +1,423 @@
 import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
 import java.util.*;
 
 public class Molecule {
-    private String name;
-    private ArrayList<Point> mainChain;
-    private HashMap<Integer, ArrayList<Point>> substituents;
-    private HashMap<Integer, String> substituentLabels;
-
-    public Molecule(String name) {
+    private final String name;
+    private final int carbonCount;
+    // Таблица заместителей в формате CSR: заместители атома i лежат в
+    // [substituentOffsets[i], substituentOffsets[i + 1]), подписи - номера SymbolTable
+    private final int[] substituentOffsets;
+    private final int[] substituentCarbons;
+    private final int[] substituentSymbols;
+    private volatile MoleculeLayout layout;
+    private volatile MoleculeRenderPlan renderPlan;
+
+    private Molecule(String name, int carbonCount, int[] substituentOffsets,
+                     int[] substituentCarbons, int[] substituentSymbols) {
         this.name = name;
-        this.mainChain = new ArrayList<>();
-        this.substituents = new HashMap<>();
-        this.substituentLabels = new HashMap<>();
+        this.carbonCount = carbonCount;
+        this.substituentOffsets = substituentOffsets;
+        this.substituentCarbons = substituentCarbons;
+        this.substituentSymbols = substituentSymbols;
     }
 
-    public void createMainChain(int carbons, int panelWidth, int panelHeight) {
-        mainChain.clear();
+    private static final int MAX_CARBONS = 1_000_000;
 
-        if (carbons <= 0) carbons = 1;
+    private static final String[] PARENT_NAMES = {
+            "Метан", "Этан", "Пропан", "Бутан", "Пентан", "Гексан", "Гептан", "Октан", "Нонан"
+    };
 
-        int availableWidth = panelWidth - 100;
-        int maxStep = 80;
-        int minStep = 30;
+    // Составные части систематических названий: 132 → до-три-а-конт-а-гект-ан
+    private static final String[] UNIT_PREFIXES = {
+            "", "ген", "до", "три", "тетра", "пента", "гекса", "гепта", "окта", "нона"
+    };
+    private static final String[] NUMERAL_STEMS = {
+            "", "", "ди", "три", "тетр", "пент", "гекс", "гепт", "окт", "нон"
+    };
 
-        int stepX = Math.max(minStep, Math.min(maxStep, availableWidth / Math.max(1, carbons - 1)));
-        int stepY = stepX / 2;
+    private static final int[] HETERO_SYMBOLS = {
+            SymbolTable.intern("Cl"), SymbolTable.intern("Br"), SymbolTable.intern("F"),
+            SymbolTable.intern("I"), SymbolTable.intern("OH")
+    };
 
+    private static final int[] ALKYL_SYMBOLS = new int[16];
 
-        int totalWidth = (carbons - 1) * stepX;
-        int startX = (panelWidth - totalWidth) / 2;
-        if (startX < 50) startX = 50;
+    static {
+        for (int i = 0; i < ALKYL_SYMBOLS.length; i++) {
+            int carbons = i + 1;
+            ALKYL_SYMBOLS[i] = SymbolTable.intern(carbons == 1 ? "CH3" : "C" + carbons + "H" + (2 * carbons + 1));
+        }
+    }
 
-        int startY = panelHeight / 2;
-        if (startY < 100) startY = 100;
+    public static Molecule parseMolecule(String formula) {
+        String cleanFormula = formula == null ? "" : normalizeName(formula);
+        if (cleanFormula.isEmpty()) {
+            throw new IllegalArgumentException("Пустое название");
+        }
+        return MoleculeCache.shared().get(cleanFormula, Molecule::parseNormalized);
+    }
 
-        for (int i = 0; i < carbons; i++) {
-            int x = startX + i * stepX;
-            int y;
-
-            if (carbons == 1) {
-                y = startY;
-            } else if (carbons == 2) {
-                y = startY;
-            } else {
-                y = (i % 2 == 0) ? startY : startY + stepY;
+    // ===== НОРМАЛИЗАЦИЯ НАЗВАНИЙ ПО IUPAC =====
+    // Нижний регистр, без пробелов и дефисов: ключ кэша и вход разбора
+    public static String normalizeName(String formula) {
+        StringBuilder sb = new StringBuilder(formula.length());
+        for (int i = 0; i < formula.length(); i++) {
+            char c = formula.charAt(i);
+            if (c != '-' && !Character.isWhitespace(c)) {
+                sb.append(Character.toLowerCase(c));
             }
-
-            mainChain.add(new Point(x, y));
         }
+        return sb.toString();
     }
 
-    public void addSubstituent(int carbonIndex, String label) {
-        if (carbonIndex < 0 || carbonIndex >= mainChain.size()) return;
-
-        Point carbonPos = mainChain.get(carbonIndex);
-        ArrayList<Point> subPoints = new ArrayList<>();
-
-        int length = 40;
-        if (mainChain.size() > 4) length = 30;
-
-        int dx = 0, dy = 0;
+    private static Molecule parseNormalized(String formula) {
+        NameTokenizer tokenizer = new NameTokenizer(formula);
 
-        if (mainChain.size() == 1) {
-            dx = 0;
-            dy = -length;
-        } else if (carbonIndex == 0) {
-            dx = -length;
-            dy = -length;
-        } else if (carbonIndex == mainChain.size() - 1) {
-            dx = length;
-            dy = -length;
-        } else {
-            Point prev = mainChain.get(carbonIndex - 1);
-            Point next = mainChain.get(carbonIndex + 1);
-
-            int bondDx = next.x - prev.x;
-            int bondDy = next.y - prev.y;
+        int[] locants = new int[4];
+        int locantCount = 0;
+        int[] subPositions = new int[4];
+        int[] subLabels = new int[4];
+        int subCount = 0;
 
-            dx = -bondDy;
-            dy = bondDx;
+        // Единицы систематического названия ждут своего множителя: до-три-а-конт → 2 + 3*10
+        int[] units = new int[4];
+        int unitCount = 0;
+        int total = 0;
+        int stem = 0;
+        int carbons = 0;
+        boolean chainLength = false;
+        // Части систематического числительного: десятки и сотни - не больше чем по одной
+        boolean tensSeen = false;
+        boolean hundredsSeen = false;
+        boolean pendingComma = false;
+        // Заместители без номеров: несколько одинаковых допустимы только у метана,
+        // один - только там, где его место однозначно (метан, этан)
+        boolean unnumberedMultiple = false;
+        boolean unnumberedSingle = false;
+
+        for (int kind = tokenizer.next(); kind != NameTokenizer.END; kind = tokenizer.next()) {
+            int substituent = 0;
+            int multiplier = 0;
+
+            // Запятая стоит только между двумя номерами: «2,-метил» - ошибка
+            if (pendingComma && kind != NameTokenizer.LOCANT) {
+                throw new IllegalArgumentException("После запятой нет номера: " + formula);
+            }
+            pendingComma = false;
+            // После названия главной цепи ничего, кроме номера в конце, быть не может
+            if (carbons > 0 && !chainLength && kind != NameTokenizer.LOCANT) {
+                throw new IllegalArgumentException("Лишнее после названия цепи: " + formula);
+            }
 
-            double bondLength = Math.sqrt(dx*dx + dy*dy);
-            if (bondLength > 0) {
-                dx = (int)(dx / bondLength * length);
-                dy = (int)(dy / bondLength * length);
+            switch (kind) {
+                case NameTokenizer.COMMA:
+                    if (locantCount == 0) {
+                        throw new IllegalArgumentException("Запятая без номера перед ней: " + formula);
+                    }
+                    pendingComma = true;
+                    break;
+                case NameTokenizer.LOCANT:
+                    if (chainLength) {
+                        carbons = tokenizer.value();
+                        chainLength = false;
+                        break;
+                    }
+                    if (locantCount == locants.length) {
+                        locants = Arrays.copyOf(locants, locantCount * 2);
+                    }
+                    locants[locantCount++] = tokenizer.value();
+                    break;
+                case NameTokenizer.CHAIN_LENGTH:
+                    chainLength = true;
+                    break;
+                case NameTokenizer.NUMERAL:
+                    if (unitCount == units.length) {
+                        units = Arrays.copyOf(units, unitCount * 2);
+                    }
+                    units[unitCount++] = tokenizer.value();
+                    break;
+                case NameTokenizer.TENS:
+                case NameTokenizer.TENS_MULTIPLIER:
+                    // «дек-триаконт»: десятки уже были или сотни уже названы
+                    if (tensSeen || hundredsSeen) {
+                        throw new IllegalArgumentException("Неверное числительное в названии: " + formula);
+                    }
+                    tensSeen = true;
+                    total += kind == NameTokenizer.TENS
+                            ? tokenizer.value() : (unitCount > 0 ? units[--unitCount] : 1) * tokenizer.value();
+                    break;
+                case NameTokenizer.HUNDREDS:
+                case NameTokenizer.HUNDREDS_MULTIPLIER:
+                    if (hundredsSeen) {
+                        throw new IllegalArgumentException("Неверное числительное в названии: " + formula);
+                    }
+                    hundredsSeen = true;
+                    total += kind == NameTokenizer.HUNDREDS
+                            ? tokenizer.value() : (unitCount > 0 ? units[--unitCount] : 1) * tokenizer.value();
+                    break;
+                case NameTokenizer.STEM:
+                    stem = tokenizer.value();
+                    break;
+                case NameTokenizer.HETERO:
+                    // "тетрахлор": оставшееся числительное - умножающая приставка
+                    if (unitCount > 1 || total != 0 || stem != 0) {
+                        throw new IllegalArgumentException("Лишнее числительное перед галогеном: " + formula);
+                    }
+                    multiplier = unitCount > 0 ? units[unitCount - 1] : 0;
+                    substituent = -1 - tokenizer.value();
+                    break;
+                case NameTokenizer.SUFFIX_YL:
+                case NameTokenizer.SUFFIX_ANE:
+                    // Числительные, не ушедшие в длину, - множитель; у главной цепи его
+                    // нет: «дибутан», «октаноктан» и «бутдекан» - ошибки
+                    int consumed = stem != 0 ? 0 : 1;
+                    int allowed = kind == NameTokenizer.SUFFIX_YL ? consumed + 1 : consumed;
+                    if (unitCount > allowed || (stem != 0 && total != 0)) {
+                        throw new IllegalArgumentException("Лишнее числительное в названии: " + formula);
+                    }
+                    if (kind == NameTokenizer.SUFFIX_ANE && locantCount > 0) {
+                        throw new IllegalArgumentException("Номер без заместителя: " + formula);
+                    }
+                    int length;
+                    if (stem != 0) {
+                        length = stem;
+                        multiplier = unitCount > 0 ? units[unitCount - 1] : 0;
+                    } else {
+                        length = total + (unitCount > 0 ? units[unitCount - 1] : 0);
+                        multiplier = unitCount > 1 ? units[unitCount - 2] : 0;
+                    }
+                    if (kind == NameTokenizer.SUFFIX_YL) {
+                        substituent = length;
+                    } else {
+                        carbons = length;
+                    }
+                    break;
+                case NameTokenizer.UNKNOWN:
+                    // Нераспознанный кусок целиком - до следующего известного токена
+                    int from = tokenizer.position() - 1;
+                    int to = tokenizer.position();
+                    while (tokenizer.next() == NameTokenizer.UNKNOWN) {
+                        to = tokenizer.position();
+                    }
+                    throw new IllegalArgumentException("Нераспознанная часть названия «"
+                            + formula.substring(from, to) + "»: " + formula);
+                default:
+                    break;
             }
 
-            if ((dy >0) && (carbonIndex % 2 == 0)) {
-                dx = -dx;
-                dy = -dy;
-            } else if (dy >0){
-                dx=-dx;
+            if (kind == NameTokenizer.HETERO || kind == NameTokenizer.SUFFIX_YL) {
+                // Код заместителя: >0 - алкил из n атомов C, <0 - гетероатом
+                if (substituent != 0) {
+                    int count = Math.max(1, multiplier);
+                    if (locantCount > 0 && locantCount != count) {
+                        throw new IllegalArgumentException("Число номеров (" + locantCount
+                                + ") не совпадает с числом заместителей (" + count + "): " + formula);
+                    }
+                    if (locantCount == 0) {
+                        if (count > 1) {
+                            unnumberedMultiple = true;
+                        } else {
+                            unnumberedSingle = true;
+                        }
+                    }
+                    for (int i = 0; i < count; i++) {
+                        if (subCount == subPositions.length) {
+                            subPositions = Arrays.copyOf(subPositions, subCount * 2);
+                            subLabels = Arrays.copyOf(subLabels, subCount * 2);
+                        }
+                        subPositions[subCount] = i < locantCount ? locants[i] : 1;
+                        subLabels[subCount] = substituent;
+                        subCount++;
+                    }
+                }
+                locantCount = 0;
+            }
+            if (kind == NameTokenizer.HETERO || kind == NameTokenizer.SUFFIX_YL
+                    || kind == NameTokenizer.SUFFIX_ANE) {
+                unitCount = 0;
+                total = 0;
+                stem = 0;
+                tensSeen = false;
+                hundredsSeen = false;
             }
         }
 
-        Point start = carbonPos;
-        Point end = new Point(carbonPos.x + dx, carbonPos.y + dy);
-
-        subPoints.add(start);
-        subPoints.add(end);
-
-        substituents.put(carbonIndex, subPoints);
-        substituentLabels.put(carbonIndex, label);
-    }
-
-    public void addMethyl(int carbonIndex) {
-        addSubstituent(carbonIndex, "CH3");
-    }
-
-    public void addEthyl(int carbonIndex) {
-        addSubstituent(carbonIndex, "C2H5");
-    }
-
-    public void addHydroxyl(int carbonIndex) {
-        addSubstituent(carbonIndex, "OH");
-    }
-
-    public static Molecule parseMolecule(String formula, int panelWidth, int panelHeight) {
-        if (formula == null || formula.trim().isEmpty()) {
-            formula = "error";
+        if (locantCount > 0 || pendingComma) {
+            throw new IllegalArgumentException("Номер без заместителя: " + formula);
+        }
+        if (unitCount > 0 || total != 0 || stem != 0) {
+            throw new IllegalArgumentException("Название не закончено: " + formula);
         }
 
-        String originalFormula = formula;
-        formula = formula.toLowerCase().trim();
-
-        // ===== НОРМАЛИЗАЦИЯ НАЗВАНИЙ ПО IUPAC =====
-        // Убираем пробелы и дефисы для сравнения
-        String cleanFormula = formula.replaceAll("\\s+", "").replaceAll("-", "");
-
-        if (cleanFormula.equals("1-метилэтан")){
-            formula = "пропан";
+        if (carbons <= 0) {
+            throw new IllegalArgumentException("Неизвестное соединение: " + formula);
         }
-        if (cleanFormula.equals("1-этилэтан")){
-            formula = "бутан";
+        if (carbons > MAX_CARBONS) {
+            throw new IllegalArgumentException("Слишком длинная цепь: " + carbons + " атомов C");
         }
-        // 1-метилбутан → пентан
-        if (cleanFormula.equals("1метилбутан") || cleanFormula.equals("4метилбутан")) {
-            formula = "пентан";
+        if ((unnumberedMultiple && carbons > 1) || (unnumberedSingle && carbons > 2)) {
+            throw new IllegalArgumentException("Не указаны номера атомов для заместителей: " + formula);
         }
-        // 1-метилпропан → бутан
-        else if (cleanFormula.equals("1метилпропан") || cleanFormula.equals("3метилпропан")) {
-            formula = "бутан";
+        for (int i = 0; i < subCount; i++) {
+            if (subPositions[i] < 1 || subPositions[i] > carbons) {
+                throw new IllegalArgumentException("Номер " + subPositions[i] + " вне цепи из "
+                        + carbons + " атомов C: " + formula);
+            }
         }
-        // 1-этилпропан → пентан
-        else if (cleanFormula.equals("1этилпропан") || cleanFormula.equals("3этилпропан")) {
-            formula = "пентан";
+
+        // Алкил на конце цепи удлиняет её: 1-метилбутан → пентан
+        if (subCount == 1 && subLabels[0] > 0
+                && (subPositions[0] == 1 || subPositions[0] == carbons)) {
+            carbons += subLabels[0];
+            subCount = 0;
         }
-        else if (cleanFormula.equals("1метилэтан")){
-            formula = "пропан";
+
+        // Подсчёт по атомам и префиксные суммы: устойчивая сортировка по номеру атома
+        int[] offsets = new int[carbons + 1];
+        for (int i = 0; i < subCount; i++) {
+            offsets[subPositions[i]]++;
         }
-        else if (cleanFormula.equals("1этилэтан")){
-            formula = "бутан";
+        for (int i = 0; i < carbons; i++) {
+            offsets[i + 1] += offsets[i];
         }
 
-        Molecule molecule = null;
-        int carbons = 0;
-
-        if (formula.contains("метан")) {
-            molecule = new Molecule("Метан");
-            carbons = 1;
-        } else if (formula.contains("этан")) {
-            molecule = new Molecule("Этан");
-            carbons = 2;
-        } else if (formula.contains("пропан")) {
-            molecule = new Molecule("Пропан");
-            carbons = 3;
-        } else if (formula.contains("бутан")) {
-            molecule = new Molecule("Бутан");
-            carbons = 4;
-        } else if (formula.contains("пентан")) {
-            molecule = new Molecule("Пентан");
-            carbons = 5;
-        } else if (formula.contains("гексан")) {
-            molecule = new Molecule("Гексан");
-            carbons = 6;
-        } else if (formula.contains("гептан")) {
-            molecule = new Molecule("Гептан");
-            carbons = 7;
-        } else if (formula.contains("октан")) {
-            molecule = new Molecule("Октан");
-            carbons = 8;
+        int[] carbonsOf = new int[offsets[carbons]];
+        int[] symbols = new int[offsets[carbons]];
+        int[] fill = Arrays.copyOf(offsets, carbons);
+        for (int i = 0; i < subCount; i++) {
+            int carbonIndex = subPositions[i] - 1;
+            int label = subLabels[i];
+            int slot = fill[carbonIndex]++;
+            carbonsOf[slot] = carbonIndex;
+            symbols[slot] = label > 0 ? alkylSymbol(label) : HETERO_SYMBOLS[-1 - label];
         }
 
-        molecule.createMainChain(carbons, panelWidth, panelHeight);
-
-        parseSubstituents(formula, molecule);
-
-        return molecule;
+        return new Molecule(parentName(carbons), carbons, offsets, carbonsOf, symbols);
     }
 
-    private static void parseSubstituents(String formula, Molecule molecule) {
-        formula = formula.replace(" ", "").replace("-", "");
+    private static String parentName(int carbons) {
+        if (carbons <= PARENT_NAMES.length) {
+            return PARENT_NAMES[carbons - 1];
+        }
+        if (carbons >= 1000) {
+            return "Алкан C" + carbons;
+        }
 
-        for (int i = 0; i < formula.length(); i++) {
-            if (Character.isDigit(formula.charAt(i))) {
-                int positionStart = i;
-                while (i < formula.length() && Character.isDigit(formula.charAt(i))) {
-                    i++;
-                }
+        int units = carbons % 10;
+        int tens = carbons / 10 % 10;
+        int hundreds = carbons / 100;
 
-                if (i < formula.length()) {
-                    String positionStr = formula.substring(positionStart, i);
-                    int position = Integer.parseInt(positionStr) - 1;
-
-                    if (i + 3 <= formula.length()) {
-                        String nextChars = formula.substring(i, Math.min(i + 6, formula.length()));
-
-                        if (nextChars.startsWith("метил")) {
-                            molecule.addMethyl(position);
-                            i += 4;
-                        } else if (nextChars.startsWith("этил")) {
-                            molecule.addEthyl(position);
-                            i += 3;
-                        } else if (nextChars.startsWith("хлор")) {
-                            molecule.addSubstituent(position, "Cl");
-                            i += 3;
-                        } else if (nextChars.startsWith("бром")) {
-                            molecule.addSubstituent(position, "Br");
-                            i += 3;
-                        } else if (nextChars.startsWith("гидрокси") || nextChars.startsWith("окси")) {
-                            molecule.addHydroxyl(position);
-                            i += nextChars.startsWith("гидрокси") ? 7 : 2;
-                        } else if (nextChars.startsWith("фтор")) {
-                            molecule.addSubstituent(position, "F");
-                            i += 3;
-                        } else if (nextChars.startsWith("йод")) {
-                            molecule.addSubstituent(position, "I");
-                            i += 2;
-                        }
-                    }
-                }
-            }
+        StringBuilder sb = new StringBuilder();
+        if (units > 0) {
+            sb.append(units == 1 && tens == 1 ? "ун" : UNIT_PREFIXES[units]);
         }
-
-        if (formula.contains("диметил")) {
-            String[] parts = formula.split("диметил")[0].split(",");
-            for (String part : parts) {
-                part = part.replaceAll("[^0-9]", "");
-                if (!part.isEmpty()) {
-                    int pos = Integer.parseInt(part) - 1;
-                    molecule.addMethyl(pos);
-                }
-            }
+        if (tens == 1) {
+            sb.append("дек");
+        } else if (tens == 2) {
+            sb.append(units == 0 || units == 1 ? "эйкоз" : "коз");
+        } else if (tens > 2) {
+            sb.append(NUMERAL_STEMS[tens]).append("аконт");
+        }
+        if (hundreds > 0) {
+            if (tens > 0) sb.append('а');
+            sb.append(hundreds == 1 ? "гект" : NUMERAL_STEMS[hundreds] + (hundreds == 2 || hundreds == 3 ? "" : "а") + "кт");
         }
+        sb.append("ан");
+        sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
+        return sb.toString();
     }
 
-    public void draw(Graphics g) {
-        Graphics2D g2d = (Graphics2D) g;
-
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                RenderingHints.VALUE_ANTIALIAS_ON);
+    private static int alkylSymbol(int carbons) {
+        if (carbons <= ALKYL_SYMBOLS.length) {
+            return ALKYL_SYMBOLS[carbons - 1];
+        }
+        return SymbolTable.intern("C" + carbons + "H" + (2 * carbons + 1));
+    }
 
-        int lineWidth = Math.max(2, 5 - mainChain.size() / 3);
-        BasicStroke mainStroke = new BasicStroke(lineWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
-        BasicStroke subStroke = new BasicStroke(lineWidth - 1, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+    public MoleculeLayout getLayout() {
+        MoleculeLayout result = layout;
+        if (result == null) {
+            result = MoleculeLayout.compute(this);
+            layout = result;
+        }
+        return result;
+    }
 
-        g2d.setStroke(mainStroke);
-        g2d.setColor(Color.BLACK);
+    // Вписывание нормированной раскладки в панель
+    public AffineTransform getViewTransform(int panelWidth, int panelHeight) {
+        Rectangle2D bounds = getLayout().getBounds();
+        boolean folded = carbonCount > MoleculeLayout.SINGLE_ROW_LIMIT;
 
-        for (int i = 0; i < mainChain.size() - 1; i++) {
-            Point p1 = mainChain.get(i);
-            Point p2 = mainChain.get(i + 1);
-            g2d.drawLine(p1.x, p1.y, p2.x, p2.y);
+        double scale = (panelWidth - 100) / Math.max(1.0, bounds.getWidth());
+        if (folded) {
+            // Змейка вписывается целиком, без нижнего предела шага
+            scale = Math.min(scale, (panelHeight - 150) / Math.max(1.0, bounds.getHeight()));
+            scale = Math.max(0.01, Math.min(80, scale));
+        } else {
+            scale = Math.max(30, Math.min(80, scale));
         }
 
-        int pointSize = Math.max(4, 9 - mainChain.size());
-        g2d.setColor(new Color(200, 0, 0));
-        for (Point p : mainChain) {
-            g2d.fillOval(p.x - pointSize, p.y - pointSize,
-                    pointSize * 2, pointSize * 2);
-        }
+        double startX = (panelWidth - bounds.getWidth() * scale) / 2;
+        if (startX < 50) startX = 50;
 
-        g2d.setStroke(subStroke);
-        g2d.setColor(new Color(0, 0, 180));
+        double startY = folded
+                ? (panelHeight - bounds.getHeight() * scale) / 2 - bounds.getMinY() * scale
+                : panelHeight / 2.0;
+        if (startY < 100) startY = 100;
 
-        Font originalFont = g2d.getFont();
-        Font subFont = new Font("Arial Rounded MT", Font.BOLD, Math.max(20, 14 - mainChain.size() / 2));
+        AffineTransform transform = new AffineTransform();
+        transform.translate(startX, startY);
+        transform.scale(scale, scale);
+        transform.translate(-bounds.getMinX(), 0);
+        return transform;
+    }
 
-        for (Integer index : substituents.keySet()) {
-            ArrayList<Point> points = substituents.get(index);
-            if (points.size() >= 2) {
-                Point p1 = points.get(0);
-                Point p2 = points.get(1);
+    // План отрисовки строится один раз и переиспользуется при каждой перерисовке
+    public MoleculeRenderPlan getRenderPlan() {
+        MoleculeRenderPlan result = renderPlan;
+        if (result == null) {
+            result = MoleculeRenderPlan.compile(this);
+            renderPlan = result;
+        }
+        return result;
+    }
 
-                g2d.drawLine(p1.x, p1.y, p2.x, p2.y);
+    public void draw(Graphics g, int panelWidth, int panelHeight) {
+        getRenderPlan().paint((Graphics2D) g, getViewTransform(panelWidth, panelHeight));
+    }
 
-                String label = substituentLabels.get(index);
-                if (label != null) {
-                    g2d.setFont(subFont);
-                    g2d.setColor(Color.DARK_GRAY);
+    public String getName() {
+        return name;
+    }
 
-                    int labelX = p2.x;
-                    int labelY = p2.y;
+    public int getCarbonCount() {
+        return carbonCount;
+    }
 
-                    if (p2.y < p1.y) {
-                        labelY = p2.y - 8;
-                    } else if (p2.y > p1.y) {
-                        labelY = p2.y + 18;
-                    } else {
-                        if (p2.x > p1.x) {
-                            labelX = p2.x + 10;
-                            labelY = p2.y - 5;
-                        } else {
-                            labelX = p2.x - 10;
-                            labelY = p2.y - 5;
-                        }
-                    }
+    public int getSubstituentCount() {
+        return substituentCarbons.length;
+    }
 
-                    FontMetrics fm = g2d.getFontMetrics();
-                    int textWidth = fm.stringWidth(label);
-                    labelX -= textWidth / 2;
+    public int getSubstituentCarbon(int substituent) {
+        return substituentCarbons[substituent];
+    }
 
-                    g2d.drawString(label, labelX, labelY);
-                    g2d.setColor(new Color(0, 0, 180));
-                    g2d.setFont(originalFont);
-                }
-            }
-        }
+    public int getSubstituentSymbol(int substituent) {
+        return substituentSymbols[substituent];
+    }
 
-        g2d.setColor(Color.BLACK);
-        g2d.setFont(new Font("Bahnschrift", Font.BOLD, 18));
-        g2d.drawString(name, 30, 40);
+    public String getSubstituentLabel(int substituent) {
+        return SymbolTable.name(substituentSymbols[substituent]);
     }
 
-    public int getCarbonCount() {
-        return mainChain.size();
+    // Заместители атома carbonIndex: [substituentsStart, substituentsEnd)
+    public int substituentsStart(int carbonIndex) {
+        return substituentOffsets[carbonIndex];
+    }
+
+    public int substituentsEnd(int carbonIndex) {
+        return substituentOffsets[carbonIndex + 1];
     }
-}
\ No newline at end of file
+}
@@ -3,7 +3,7 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.*;
 import java.util.*;
-import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 public class MoleculeBuilder extends JPanel {
 
@@ -11,182 +11,96 @@ public class MoleculeBuilder extends JPanel {
     private static final double ROTATION_STEP = Math.toRadians(30);
     private static final int HOVER_RADIUS = 20;
     private static final int BOND_HOVER_RADIUS = 15;
-
-    class Vertex {
-        Point2D.Double position;
-        int id;
-        List<Bond> bonds;
-
-        Vertex(double x, double y, int id) {
-            this.position = new Point2D.Double(x, y);
-            this.id = id;
-            this.bonds = new ArrayList<>();
-        }
-    }
-    class FunctionalGroup {
-        Point2D.Double position;
-        String symbol;
-        Vertex attachedTo;
-        int id;
-
-        FunctionalGroup(double x, double y, String symbol, Vertex attachedTo, int id) {
-            this.position = new Point2D.Double(x, y);
-            this.symbol = symbol;
-            this.attachedTo = attachedTo;
-            this.id = id;
-        }
-
-        void draw(Graphics2D g2d) {
-            int size = 18;
-            if (symbol.equals("OH") || symbol.equals("NH2")) {
-                size = 26;
-            }
-
-            g2d.setColor(getGroupColor(symbol));
-            g2d.fillOval((int)position.x - size/2, (int)position.y - size/2, size, size);
-
-            g2d.setColor(Color.WHITE);
-            g2d.setFont(new Font("Arial Rounded MT", Font.BOLD, 12));
-            FontMetrics fm = g2d.getFontMetrics();
-            int textX = (int)position.x - fm.stringWidth(symbol)/2;
-            int textY = (int)position.y + fm.getAscent()/2 - 2;
-            g2d.drawString(symbol, textX, textY);
-        }
-
-        Color getGroupColor(String symbol) {
-            switch(symbol) {
-                case "OH": return new Color(200, 50, 50);
-                case "NH2": return new Color(68, 93, 219);
-                case "O": return new Color(200, 50, 50);
-                case "N": return new Color(68, 93, 219);
-                case "Cl": return new Color(50, 180, 50);
-                case "Br": return new Color(160, 80, 0);
-                case "F": return new Color(0, 180, 180);
-                default: return new Color(180, 100, 180);
-            }
-        }
-    }
-
-    class Bond {
-        Vertex vertex1;
-        Vertex vertex2;
-        FunctionalGroup group;
-        int order;
-
-        Bond(Vertex v1, Vertex v2, int order) {
-            this.vertex1 = v1;
-            this.vertex2 = v2;
-            this.order = order;
-            this.group = null;
-            v1.bonds.add(this);
-            v2.bonds.add(this);
-        }
-
-        Bond(Vertex v, FunctionalGroup g, int order) {
-            this.vertex1 = v;
-            this.group = g;
-            this.order = order;
-            v.bonds.add(this);
-        }
-
-        Point2D.Double getCenterPoint() {
-            Point2D.Double p1 = vertex1.position;
-            Point2D.Double p2 = (group != null) ? group.position : vertex2.position;
-            double centerX = (p1.x + p2.x) / 2;
-            double centerY = (p1.y + p2.y) / 2;
-            return new Point2D.Double(centerX, centerY);
-        }
-
-        double getLength() {
-            Point2D.Double p1 = vertex1.position;
-            Point2D.Double p2 = (group != null) ? group.position : vertex2.position;
-            return Math.hypot(p2.x - p1.x, p2.y - p1.y);
-        }
-
-        boolean isNear(Point p) {
-            Point2D.Double p1 = vertex1.position;
-            Point2D.Double p2 = (group != null) ? group.position : vertex2.position;
-            double dist = distanceToSegment(p.x, p.y, p1.x, p1.y, p2.x, p2.y);
-            return dist < BOND_HOVER_RADIUS;
-        }
-
-        private double distanceToSegment(double px, double py, double x1, double y1, double x2, double y2) {
-            double dx = x2 - x1;
-            double dy = y2 - y1;
-
-            if (dx == 0 && dy == 0) {
-                return Math.hypot(px - x1, py - y1);
-            }
-
-            double t = ((px - x1) * dx + (py - y1) * dy) / (dx * dx + dy * dy);
-            t = Math.max(0, Math.min(1, t));
-
-            double projX = x1 + t * dx;
-            double projY = y1 + t * dy;
-
-            return Math.hypot(px - projX, py - projY);
-        }
-
-        void draw(Graphics2D g2d) {
-            Point2D.Double p1 = vertex1.position;
-            Point2D.Double p2 = (group != null) ? group.position : vertex2.position;
-
-            g2d.setColor(Color.BLACK);
-            g2d.setStroke(new BasicStroke(2));
-
-            if (order == 1) {
-                g2d.drawLine((int)p1.x, (int)p1.y, (int)p2.x, (int)p2.y);
-            } else if (order == 2) {
-                double dx = p2.x - p1.x;
-                double dy = p2.y - p1.y;
-                double angle = Math.atan2(dy, dx);
-                double perpX = Math.sin(angle) * 5;
-                double perpY = -Math.cos(angle) * 5;
-
-                g2d.drawLine((int)(p1.x + perpX), (int)(p1.y + perpY - 2),
-                        (int)(p2.x + perpX), (int)(p2.y + perpY - 2));
-                g2d.drawLine((int)(p1.x), (int)(p1.y),
-                        (int)(p2.x), (int)(p2.y));
-            }
-        }
-    }
-
-    private List<Vertex> vertices;
-    private List<Bond> bonds;
-    private List<FunctionalGroup> groups;
-    private int nextId;
-
-    private Vertex selectedVertex;
-    private Vertex hoveredVertex;
-    private FunctionalGroup hoveredGroup;
-    private Bond hoveredBond;
+    // Запас вокруг объекта при частичной перерисовке: подписи, вторая линия связи, толщина
+    private static final int PAINT_MARGIN = 40;
+
+    // Перетаскивание обрабатывается раз в кадр: события мыши только запоминают курсор
+    private static final int FRAME_INTERVAL_MS = 16;
+    private static final boolean SHOW_FRAME_STATS = Boolean.getBoolean("molchem.debug.frames");
+
+    // Масштаб вида: колесо меняет его в ZOOM_STEP раз; мелкие подробности
+    // отбрасывает рендерер ниже MoleculeRenderer.DETAIL_SCALE
+    private static final double MIN_SCALE = 0.02;
+    private static final double MAX_SCALE = 8;
+    private static final double ZOOM_STEP = 1.1;
+    private static final int FIT_MARGIN = 40;
+
+    private static final Color SELECTION_COLOR = new Color(0, 100, 255);
+    private static final Color SELECTION_FILL = new Color(0, 100, 255, 50);
+
+    private static final int NONE = BuilderGraph.NONE;
+
+    // Атомы, группы и связи - номера в графе, а не объекты
+    private final BuilderGraph graph = new BuilderGraph(BOND_LENGTH);
+    private final IntList visible = new IntList();
+    private final BuilderHistory history = new BuilderHistory(graph);
+    // Формула, валентности и кольца обновляются по событиям графа, а не пересчётом
+    private final MoleculeRenderer renderer = new MoleculeRenderer(graph);
+    private final BuilderSelection selection = new BuilderSelection(graph);
+
+    private int selectedVertex = NONE;
+    private int hoveredVertex = NONE;
+    private int hoveredGroup = NONE;
+    private int hoveredBond = NONE;
     private Point2D.Double previewPoint;
     private double previewAngle = 0;
 
     private String currentGroup = null;
+    // Выбранный шаблон ставится щелчком вместо атома или группы
+    private FragmentTemplate currentTemplate;
+    private final java.util.List<FragmentTemplate> savedTemplates = new ArrayList<>();
+    private JButton templateBtn;
+    private ButtonGroup groupBtnGroup;
     private int currentBondOrder = 1;
     private boolean rotateMode = false;
+    private boolean moveMode = false;
+    private boolean selectMode = false;
 
     private Point lastMousePos;
-    private Vertex rotationCenter;
-    private Map<Vertex, Double> originalAngles;
-    private Map<Vertex, Double> originalDistances;
+    private Point pendingDrag;
+    private final javax.swing.Timer frameTimer = new javax.swing.Timer(FRAME_INTERVAL_MS, e -> renderFrame());
+    private long lastFrameNanos;
+    private double frameMillis;
+    private double paintMillis;
+    private long droppedFrames;
+    private BuilderGraph.Fragment dragFragment;
+    private double pivotX;
+    private double pivotY;
+    private Point dragStart;
+    private double dragAngle;
+    private AffineTransform dragTransform;
+
+    // Вид: экранная точка = мировая * viewScale + (viewX, viewY). Граф хранит
+    // мировые координаты, события мыши переводятся в них на входе
+    private double viewScale = 1;
+    private double viewX;
+    private double viewY;
+    private Point panStart;
+
+    // Рамка выделения в мировых координатах; lasso != null - выделение контуром
+    private Point2D.Double bandStart;
+    private Point2D.Double bandEnd;
+    private Path2D.Double lasso;
+    private final Line2D.Double line = new Line2D.Double();
+
+    // Выравнивание идёт в фоновом потоке; пока оно не закончено, правки запрещены
+    private SwingWorker<double[], double[]> cleanup;
+    private JButton cleanupBtn;
+    private int[] cleanupNodes;
+    private double[] cleanupBefore;
 
     public MoleculeBuilder() {
-        vertices = new ArrayList<>();
-        bonds = new ArrayList<>();
-        groups = new ArrayList<>();
-        nextId = 0;
-
         setBackground(Color.WHITE);
         setFocusable(true);
         requestFocusInWindow();
 
-        Vertex start = new Vertex(400, 300, nextId++);
-        vertices.add(start);
+        graph.addAtom(400, 300);
+        // Начальный атом отменять нельзя
+        history.clear();
 
         setupMouseListeners();
         setupControlPanel();
+        setupKeyBindings();
     }
 
     private void setupMouseListeners() {
@@ -195,76 +109,206 @@ public class MoleculeBuilder extends JPanel {
             public void mousePressed(MouseEvent e) {
                 lastMousePos = e.getPoint();
                 requestFocusInWindow();
+                if (cleanup != null) return;
 
                 findHovered(e.getPoint());
 
-                if (SwingUtilities.isLeftMouseButton(e)) {
-                    if (rotateMode) {
-                        if (hoveredVertex != null) {
-                            startRotation(hoveredVertex);
-                        }
-                    } else {
-                        if (hoveredVertex != null) {
-                            selectedVertex = hoveredVertex;
-                            updatePreview(e.getPoint());
-                        } else if (hoveredGroup != null) {
-
-                        } else if (hoveredBond != null) {
-                            cycleBondOrder(hoveredBond);
+                // Средняя кнопка, а в режиме перемещения и левая на пустом месте, сдвигают вид
+                if (SwingUtilities.isMiddleMouseButton(e) || (moveMode && SwingUtilities.isLeftMouseButton(e)
+                        && hoveredVertex == NONE && hoveredGroup == NONE)) {
+                    panStart = e.getPoint();
+                    return;
+                }
+
+                // Удаление атома вместе со связями и группами отменяется одним шагом
+                history.begin();
+                try {
+                    if (SwingUtilities.isLeftMouseButton(e)) {
+                        if (rotateMode) {
+                            if (hoveredVertex != NONE) {
+                                startRotation(hoveredVertex);
+                            }
+                        } else if (moveMode) {
+                            if (hoveredVertex != NONE) {
+                                startMove(hoveredVertex, e.getPoint());
+                            } else if (hoveredGroup != NONE) {
+                                startMove(hoveredGroup, e.getPoint());
+                            }
+                        } else if (selectMode) {
+                            startSelection(e);
+                        } else if (currentTemplate != null) {
+                            if (hoveredGroup == NONE) {
+                                stampTemplate(e.getPoint());
+                            }
                         } else {
-                            Vertex newVertex = addVertex(e.getX(), e.getY());
-                            if (newVertex != null) {
-                                vertices.add(newVertex);
+                            if (hoveredVertex != NONE) {
+                                selectedVertex = hoveredVertex;
+                                updatePreview(e.getPoint());
+                            } else if (hoveredGroup != NONE) {
+
+                            } else if (hoveredBond != NONE) {
+                                cycleBondOrder(hoveredBond);
+                            } else {
+                                Point2D.Double p = toWorld(e.getPoint());
+                                addVertex(p.x, p.y);
                             }
                         }
+                    } else if (SwingUtilities.isRightMouseButton(e)) {
+                        if (hoveredGroup != NONE) {
+                            removeGroup(hoveredGroup);
+                        } else if (hoveredVertex != NONE && graph.atomCount() > 1) {
+                            removeVertex(hoveredVertex);
+                        } else if (hoveredBond != NONE) {
+                            decreaseBondOrder(hoveredBond);
+                        }
                     }
-                } else if (SwingUtilities.isRightMouseButton(e)) {
-                    if (hoveredGroup != null) {
-                        removeGroup(hoveredGroup);
-                    } else if (hoveredVertex != null && vertices.size() > 1) {
-                        removeVertex(hoveredVertex);
-                    } else if (hoveredBond != null) {
-                        decreaseBondOrder(hoveredBond);
-                    }
+                } finally {
+                    history.end();
                 }
                 repaint();
             }
 
             @Override
             public void mouseReleased(MouseEvent e) {
-                if (selectedVertex != null && !rotateMode && previewPoint != null) {
-                    createBondOrGroup(e.getPoint());
+                // Последнее положение курсора применяется до завершения операции
+                if (pendingDrag != null) {
+                    applyDrag(pendingDrag);
+                    pendingDrag = null;
+                }
+                if (bandStart != null) {
+                    finishBand();
+                }
+                if (selectedVertex != NONE && !rotateMode && previewPoint != null) {
+                    history.begin();
+                    try {
+                        createBondOrGroup(e.getPoint());
+                    } finally {
+                        history.end();
+                    }
+                }
+                if (dragFragment != null && dragTransform != null) {
+                    history.recordTransform(dragFragment.nodes(), dragTransform);
                 }
 
-                selectedVertex = null;
+                dragFragment = null;
+                dragTransform = null;
+                panStart = null;
+                selectedVertex = NONE;
                 previewPoint = null;
                 repaint();
             }
         });
 
+        addMouseWheelListener(e -> zoomAt(e.getX(), e.getY(), Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation())));
+
         addMouseMotionListener(new MouseMotionAdapter() {
             @Override
             public void mouseDragged(MouseEvent e) {
-                if (rotateMode && rotationCenter != null) {
-                    double dx = e.getX() - lastMousePos.x;
-                    rotateMolecule(dx * 0.01);
-                } else if (selectedVertex != null) {
-                    updatePreview(e.getPoint());
+                pendingDrag = e.getPoint();
+                if (!frameTimer.isRunning()) {
+                    frameTimer.start();
                 }
-
-                findHovered(e.getPoint());
-                lastMousePos = e.getPoint();
-                repaint();
             }
 
             @Override
             public void mouseMoved(MouseEvent e) {
+                Rectangle before = highlightBounds();
+                int oldVertex = hoveredVertex;
+                int oldGroup = hoveredGroup;
+                int oldBond = hoveredBond;
+
                 findHovered(e.getPoint());
-                repaint();
+
+                // Подсветка не сменилась - перерисовывать нечего
+                if (oldVertex == hoveredVertex && oldGroup == hoveredGroup && oldBond == hoveredBond) {
+                    return;
+                }
+                repaintRegion(before, highlightBounds());
             }
         });
     }
 
+    // Один шаг геометрии и одна перерисовка на кадр, сколько бы событий ни пришло
+    private void renderFrame() {
+        if (pendingDrag == null) {
+            frameTimer.stop();
+            lastFrameNanos = 0;
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (lastFrameNanos != 0) {
+            double interval = (now - lastFrameNanos) / 1e6;
+            frameMillis = frameMillis == 0 ? interval : frameMillis * 0.9 + interval * 0.1;
+            long missed = Math.round(interval / FRAME_INTERVAL_MS) - 1;
+            if (missed > 0) {
+                droppedFrames += missed;
+            }
+        }
+        lastFrameNanos = now;
+
+        Point p = pendingDrag;
+        pendingDrag = null;
+        applyDrag(p);
+
+        if (SHOW_FRAME_STATS) {
+            repaint(frameStatsBounds());
+        }
+    }
+
+    private void applyDrag(Point p) {
+        if (bandStart != null) {
+            bandEnd = toWorld(p);
+            if (lasso != null) {
+                lasso.lineTo(bandEnd.x, bandEnd.y);
+            }
+            lastMousePos = p;
+            repaint();
+            return;
+        }
+        if (panStart != null) {
+            viewX += p.x - panStart.x;
+            viewY += p.y - panStart.y;
+            panStart = p;
+            repaint();
+            return;
+        }
+        if (dragFragment != null) {
+            if (rotateMode) {
+                dragAngle += (p.x - lastMousePos.x) * 0.01;
+                rotateMolecule(dragAngle);
+            } else {
+                moveFragment((p.x - dragStart.x) / viewScale, (p.y - dragStart.y) / viewScale);
+            }
+            findHovered(p);
+            lastMousePos = p;
+            repaint();
+            return;
+        }
+
+        Rectangle before = union(highlightBounds(), previewBounds());
+        Point2D.Double oldPreview = previewPoint;
+        int oldVertex = hoveredVertex;
+        int oldGroup = hoveredGroup;
+        int oldBond = hoveredBond;
+
+        if (selectedVertex != NONE) {
+            updatePreview(p);
+        }
+        findHovered(p);
+        lastMousePos = p;
+
+        if (Objects.equals(oldPreview, previewPoint) && oldVertex == hoveredVertex
+                && oldGroup == hoveredGroup && oldBond == hoveredBond) {
+            return;
+        }
+        repaintRegion(before, union(highlightBounds(), previewBounds()));
+    }
+
+    private Rectangle frameStatsBounds() {
+        return new Rectangle(0, getHeight() - 30, 560, 30);
+    }
+
     private void setupControlPanel() {
         JPanel controlPanel = new JPanel();
         controlPanel.setBackground(new Color(240, 240, 240));
@@ -286,20 +330,31 @@ public class MoleculeBuilder extends JPanel {
 
         JToggleButton carbonBtn = new JToggleButton("C (цепь)");
         carbonBtn.setSelected(true);
-        carbonBtn.addActionListener(e -> currentGroup = null);
+        carbonBtn.addActionListener(e -> {
+            currentGroup = null;
+            selectTemplate(null);
+        });
         controlPanel.add(carbonBtn);
 
         String[] groups = {"OH", "NH2", "O", "N", "Cl", "Br", "F"};
-        ButtonGroup groupBtnGroup = new ButtonGroup();
+        groupBtnGroup = new ButtonGroup();
         groupBtnGroup.add(carbonBtn);
 
         for (String group : groups) {
             JToggleButton btn = new JToggleButton(group);
-            btn.addActionListener(e -> currentGroup = group);
+            btn.addActionListener(e -> {
+                currentGroup = group;
+                selectTemplate(null);
+            });
             groupBtnGroup.add(btn);
             controlPanel.add(btn);
         }
 
+        templateBtn = new JButton("Шаблон ▾");
+        templateBtn.setToolTipText("Щелчок по пустому месту ставит шаблон, по атому - присоединяет его связью");
+        templateBtn.addActionListener(e -> templateMenu().show(templateBtn, 0, templateBtn.getHeight()));
+        controlPanel.add(templateBtn);
+
         controlPanel.add(new JLabel("  "));
 
         JToggleButton singleBtn = new JToggleButton("—");
@@ -317,275 +372,921 @@ public class MoleculeBuilder extends JPanel {
 
         controlPanel.add(new JLabel("  "));
 
+        JToggleButton drawModeBtn = new JToggleButton("Рисование");
+        drawModeBtn.setSelected(true);
+        drawModeBtn.addActionListener(e -> {
+            rotateMode = false;
+            moveMode = false;
+            selectMode = false;
+        });
+        controlPanel.add(drawModeBtn);
+
+        JToggleButton rotateModeBtn = new JToggleButton("Поворот");
+        rotateModeBtn.addActionListener(e -> {
+            rotateMode = true;
+            moveMode = false;
+            selectMode = false;
+        });
+        controlPanel.add(rotateModeBtn);
+
+        JToggleButton moveModeBtn = new JToggleButton("Сдвиг");
+        moveModeBtn.addActionListener(e -> {
+            rotateMode = false;
+            moveMode = true;
+            selectMode = false;
+        });
+        controlPanel.add(moveModeBtn);
+
+        JToggleButton selectModeBtn = new JToggleButton("Выделение");
+        selectModeBtn.setToolTipText("<html>Рамка, Shift - лассо, Ctrl - добавить к выделению<br>"
+                + "Delete - удалить, 1/2/3 - порядок связей, R / Shift+R - поворот, Esc - снять</html>");
+        selectModeBtn.addActionListener(e -> {
+            rotateMode = false;
+            moveMode = false;
+            selectMode = true;
+        });
+        controlPanel.add(selectModeBtn);
+
+        ButtonGroup modeGroup = new ButtonGroup();
+        modeGroup.add(drawModeBtn);
+        modeGroup.add(rotateModeBtn);
+        modeGroup.add(moveModeBtn);
+        modeGroup.add(selectModeBtn);
+
+        controlPanel.add(new JLabel("  "));
+
+        cleanupBtn = new JButton("Выровнять");
+        cleanupBtn.setToolTipText("Выровнять длины связей и раздвинуть атомы");
+        cleanupBtn.addActionListener(e -> toggleCleanup());
+        controlPanel.add(cleanupBtn);
+
         JButton clearBtn = new JButton("Очистить");
         clearBtn.addActionListener(e -> {
-            vertices.clear();
-            bonds.clear();
-            nextId = 0;
-            vertices.add(new Vertex(400, 300, nextId++));
+            stopCleanup();
+            Point2D.Double centre = viewCentre();
+            history.checkpoint(() -> {
+                graph.clear();
+                graph.addAtom(centre.x, centre.y);
+            });
+            hoveredVertex = NONE;
+            hoveredGroup = NONE;
+            hoveredBond = NONE;
             repaint();
         });
         controlPanel.add(clearBtn);
 
+        JButton fitBtn = new JButton("Вместить");
+        fitBtn.setToolTipText("Показать всю молекулу (Ctrl+0)");
+        fitBtn.addActionListener(e -> zoomToFit());
+        controlPanel.add(fitBtn);
+
+        JButton undoBtn = new JButton("↶");
+        undoBtn.setToolTipText("Отменить (Ctrl+Z)");
+        undoBtn.addActionListener(e -> undo());
+        controlPanel.add(undoBtn);
+
+        JButton redoBtn = new JButton("↷");
+        redoBtn.setToolTipText("Повторить (Ctrl+Y)");
+        redoBtn.addActionListener(e -> redo());
+        controlPanel.add(redoBtn);
+
+        JButton smilesBtn = new JButton("SMILES");
+        smilesBtn.addActionListener(e -> showSmiles());
+        controlPanel.add(smilesBtn);
+
+        JButton importBtn = new JButton("Из SMILES");
+        importBtn.addActionListener(e -> importSmiles());
+        controlPanel.add(importBtn);
+
         setLayout(new BorderLayout());
         add(controlPanel, BorderLayout.NORTH);
     }
 
-    private void findHovered(Point p) {
-        hoveredVertex = null;
-        hoveredGroup = null;
-        hoveredBond = null;
+    private void setupKeyBindings() {
+        InputMap inputMap = getInputMap(WHEN_IN_FOCUSED_WINDOW);
+        ActionMap actionMap = getActionMap();
+        inputMap.put(KeyStroke.getKeyStroke("ctrl Z"), "undo");
+        inputMap.put(KeyStroke.getKeyStroke("ctrl Y"), "redo");
+        inputMap.put(KeyStroke.getKeyStroke("ctrl shift Z"), "redo");
+        inputMap.put(KeyStroke.getKeyStroke("ctrl 0"), "fit");
+        inputMap.put(KeyStroke.getKeyStroke("DELETE"), "deleteSelection");
+        inputMap.put(KeyStroke.getKeyStroke("BACK_SPACE"), "deleteSelection");
+        inputMap.put(KeyStroke.getKeyStroke("ESCAPE"), "clearSelection");
+        inputMap.put(KeyStroke.getKeyStroke("ctrl A"), "selectAll");
+        inputMap.put(KeyStroke.getKeyStroke("R"), "rotateSelection");
+        inputMap.put(KeyStroke.getKeyStroke("shift R"), "rotateSelectionBack");
+        for (int order = 1; order <= 3; order++) {
+            inputMap.put(KeyStroke.getKeyStroke((char) ('0' + order)), "bondOrder" + order);
+        }
+        actionMap.put("undo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                undo();
+            }
+        });
+        actionMap.put("redo", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                redo();
+            }
+        });
+        actionMap.put("fit", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                zoomToFit();
+            }
+        });
+        actionMap.put("deleteSelection", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                deleteSelection();
+            }
+        });
+        actionMap.put("clearSelection", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                selection.clear();
+                repaint();
+            }
+        });
+        actionMap.put("selectAll", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                selection.addAll();
+                repaint();
+            }
+        });
+        actionMap.put("rotateSelection", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                rotateSelection(ROTATION_STEP);
+            }
+        });
+        actionMap.put("rotateSelectionBack", new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                rotateSelection(-ROTATION_STEP);
+            }
+        });
+        for (int order = 1; order <= 3; order++) {
+            int bondOrder = order;
+            actionMap.put("bondOrder" + order, new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    setSelectionBondOrder(bondOrder);
+                }
+            });
+        }
+    }
+
+    // Канонический SMILES в поле, откуда его удобно скопировать
+    private void showSmiles() {
+        JTextField field = new JTextField(SmilesWriter.write(graph, renderer.getRings()), 40);
+        field.setEditable(false);
+        field.selectAll();
+        JOptionPane.showMessageDialog(this, field, "Канонический SMILES", JOptionPane.PLAIN_MESSAGE);
+    }
 
-        for (FunctionalGroup g : groups) {
-            double dist = Math.hypot(p.x - g.position.x, p.y - g.position.y);
-            if (dist < 20) {
-                hoveredGroup = g;
-                return;
+    // Структура из SMILES вставляется целиком одним шагом отмены, по центру
+    // панели. Нетронутый начальный атом заменяется, иначе структура добавляется.
+    private void importSmiles() {
+        String text = JOptionPane.showInputDialog(this, "SMILES:", "Импорт SMILES", JOptionPane.PLAIN_MESSAGE);
+        if (text == null || text.trim().isEmpty()) return;
+        stopCleanup();
+        SmilesReader.Structure structure;
+        try {
+            structure = SmilesReader.parse(text);
+            // Группа без атома углерода (вода, «OO») в граф не попадёт - проверка
+            // до изменений, иначе замена начального атома успела бы очистить граф
+            for (int i = 0; i < structure.atomCount(); i++) {
+                if (!structure.symbols[i].equals("C") && structure.attachedTo[i] == NONE) {
+                    throw new IllegalArgumentException("Группа " + structure.symbols[i]
+                            + " не присоединена ни к одному атому углерода");
+                }
             }
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "Импорт SMILES", JOptionPane.ERROR_MESSAGE);
+            return;
         }
 
-        for (Vertex v : vertices) {
-            double dist = Math.hypot(p.x - v.position.x, p.y - v.position.y);
-            if (dist < 25) {
-                hoveredVertex = v;
-                return;
+        double[] xy = StructureLayout.layout(structure, BOND_LENGTH);
+        int count = structure.atomCount();
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, xy[2 * i]);
+            maxX = Math.max(maxX, xy[2 * i]);
+            minY = Math.min(minY, xy[2 * i + 1]);
+            maxY = Math.max(maxY, xy[2 * i + 1]);
+        }
+        Point2D.Double centre = viewCentre();
+        double shiftX = centre.x - (minX + maxX) / 2;
+        double shiftY = centre.y - (minY + maxY) / 2;
+        double[] x = new double[count];
+        double[] y = new double[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = xy[2 * i] + shiftX;
+            y[i] = xy[2 * i + 1] + shiftY;
+        }
+
+        // Замена начального атома очищает граф - это контрольная точка; добавление -
+        // обычная правка, и наблюдатели обновляются только по вставленному фрагменту
+        if (graph.nodeCount() == 1 && graph.bondCount() == 0) {
+            history.checkpoint(() -> {
+                graph.clear();
+                graph.insertAll(structure.symbols, x, y, structure.attachedTo,
+                        structure.bondStart, structure.bondEnd, structure.bondOrder);
+            });
+        } else {
+            graph.insertAll(structure.symbols, x, y, structure.attachedTo,
+                    structure.bondStart, structure.bondEnd, structure.bondOrder);
+        }
+        hoveredVertex = NONE;
+        hoveredGroup = NONE;
+        hoveredBond = NONE;
+        // Не помещается в окно - вид уменьшается до всей молекулы
+        if ((maxX - minX) * viewScale > getWidth() || (maxY - minY) * viewScale > getHeight()) {
+            zoomToFit();
+        }
+        repaint();
+    }
+
+    // ===== Шаблоны =====
+
+    private JPopupMenu templateMenu() {
+        JPopupMenu menu = new JPopupMenu();
+        for (int size = FragmentTemplate.MIN_RING; size <= FragmentTemplate.MAX_RING; size++) {
+            int ringSize = size;
+            addTemplateItem(menu, "Цикл C" + size, () -> FragmentTemplate.ring(ringSize, BOND_LENGTH));
+        }
+        addTemplateItem(menu, "Бензол", () -> FragmentTemplate.benzene(BOND_LENGTH));
+        addTemplateItem(menu, "Цепь…", this::askChain);
+        addTemplateItem(menu, "Полимер…", this::askPolymer);
+
+        if (!savedTemplates.isEmpty()) {
+            menu.addSeparator();
+            for (FragmentTemplate template : savedTemplates) {
+                addTemplateItem(menu, template.getName(), () -> template);
             }
         }
+        menu.addSeparator();
+        JMenuItem save = new JMenuItem("Сохранить выделение как шаблон…");
+        save.setEnabled(!selection.isEmpty());
+        save.addActionListener(e -> saveSelectionAsTemplate());
+        menu.add(save);
+        return menu;
+    }
 
-        for (Bond bond : bonds) {
-            if (bond.isNear(p)) {
-                hoveredBond = bond;
-                return;
+    // Фабрика возвращает null, если пользователь передумал
+    private void addTemplateItem(JPopupMenu menu, String title, java.util.function.Supplier<FragmentTemplate> factory) {
+        JMenuItem item = new JMenuItem(title);
+        item.addActionListener(e -> {
+            try {
+                FragmentTemplate template = factory.get();
+                if (template != null) {
+                    selectTemplate(template);
+                }
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(this, ex.getMessage(), "Шаблон", JOptionPane.ERROR_MESSAGE);
             }
+        });
+        menu.add(item);
+    }
+
+    private void selectTemplate(FragmentTemplate template) {
+        currentTemplate = template;
+        if (template != null) {
+            groupBtnGroup.clearSelection();
+            templateBtn.setText("Шаблон: " + template.getName() + " ▾");
+        } else if (templateBtn != null) {
+            templateBtn.setText("Шаблон ▾");
+        }
+    }
+
+    private FragmentTemplate askChain() {
+        String text = JOptionPane.showInputDialog(this, "Число атомов углерода:", "10");
+        if (text == null) return null;
+        return FragmentTemplate.chain(parseCount(text), BOND_LENGTH);
+    }
+
+    private FragmentTemplate askPolymer() {
+        JTextField unit = new JTextField("CC(c1ccccc1)", 20);
+        JTextField repeats = new JTextField("100", 8);
+        JPanel panel = new JPanel(new GridLayout(2, 2, 5, 5));
+        panel.add(new JLabel("Звено (SMILES):"));
+        panel.add(unit);
+        panel.add(new JLabel("Число звеньев:"));
+        panel.add(repeats);
+        int answer = JOptionPane.showConfirmDialog(this, panel, "Полимер", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE);
+        if (answer != JOptionPane.OK_OPTION) return null;
+        int count = parseCount(repeats.getText());
+        return FragmentTemplate.polymer("(" + unit.getText().trim() + ")×" + count, unit.getText(), count, BOND_LENGTH);
+    }
+
+    private static int parseCount(String text) {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Нужно целое число: " + text.trim());
         }
     }
 
-    private Vertex addVertex(double x, double y) {
-        for (Vertex v : vertices) {
-            double dist = Math.hypot(x - v.position.x, y - v.position.y);
-            if (dist < BOND_LENGTH * 0.7) {
-                return null;
+    // Шаблоны хранятся до конца сеанса и появляются в меню под готовыми
+    private void saveSelectionAsTemplate() {
+        String name = JOptionPane.showInputDialog(this, "Название шаблона:", "Фрагмент " + (savedTemplates.size() + 1));
+        if (name == null || name.trim().isEmpty()) return;
+        try {
+            FragmentTemplate template = FragmentTemplate.fromNodes(name.trim(), graph, selection.nodes());
+            savedTemplates.add(template);
+            selectTemplate(template);
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "Шаблон", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    // Шаблон вставляется целиком одним шагом отмены - вызов идёт внутри begin/end
+    // нажатия: щелчок по атому присоединяет его простой связью, по пустому месту -
+    // ставит центром под курсор
+    private void stampTemplate(Point screen) {
+        FragmentTemplate template = currentTemplate;
+        Point2D.Double p = toWorld(screen);
+        int atom = hoveredVertex;
+        try {
+            if (atom != NONE) {
+                template.attach(graph, atom, BOND_LENGTH);
+            } else {
+                template.stamp(graph, p.x, p.y);
             }
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "Шаблон", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        hoveredVertex = NONE;
+        hoveredGroup = NONE;
+        hoveredBond = NONE;
+        if (template.getWidth() * viewScale > getWidth() || template.getHeight() * viewScale > getHeight()) {
+            zoomToFit();
         }
-        return new Vertex(x, y, nextId++);
     }
 
-    private void removeVertex(Vertex v) {
-        Iterator<Bond> bondIter = bonds.iterator();
-        while (bondIter.hasNext()) {
-            Bond bond = bondIter.next();
-            if (bond.vertex1 == v || bond.vertex2 == v) {
-                bondIter.remove();
+    // ===== Вид =====
+
+    private Point2D.Double toWorld(Point p) {
+        return new Point2D.Double((p.x - viewX) / viewScale, (p.y - viewY) / viewScale);
+    }
+
+    private Point2D.Double viewCentre() {
+        int width = getWidth() > 0 ? getWidth() : 800;
+        int height = getHeight() > 0 ? getHeight() : 600;
+        return toWorld(new Point(width / 2, height / 2));
+    }
+
+    // Прямоугольник в мировых координатах -> область перерисовки на экране
+    private Rectangle toScreen(Rectangle world) {
+        int minX = (int) Math.floor(world.x * viewScale + viewX);
+        int minY = (int) Math.floor(world.y * viewScale + viewY);
+        int maxX = (int) Math.ceil((world.x + world.width) * viewScale + viewX);
+        int maxY = (int) Math.ceil((world.y + world.height) * viewScale + viewY);
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    // Точка под курсором остаётся на месте
+    private void zoomAt(double screenX, double screenY, double factor) {
+        double scale = Math.max(MIN_SCALE, Math.min(MAX_SCALE, viewScale * factor));
+        if (scale == viewScale) return;
+        viewX = screenX - (screenX - viewX) * scale / viewScale;
+        viewY = screenY - (screenY - viewY) * scale / viewScale;
+        viewScale = scale;
+        repaint();
+    }
+
+    // Вся молекула в окне под панелью кнопок; мельче исходного масштаба не увеличивает
+    private void zoomToFit() {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int node = 0; node < graph.nodeLimit(); node++) {
+            if (!graph.isAlive(node)) continue;
+            minX = Math.min(minX, graph.getX(node));
+            minY = Math.min(minY, graph.getY(node));
+            maxX = Math.max(maxX, graph.getX(node));
+            maxY = Math.max(maxY, graph.getY(node));
+        }
+        if (minX > maxX) return;
+
+        int top = getComponentCount() > 0 ? getComponent(0).getHeight() : 0;
+        double width = Math.max(1, getWidth() - 2 * FIT_MARGIN);
+        double height = Math.max(1, getHeight() - top - 2 * FIT_MARGIN);
+        double scale = Math.min(1, Math.min(width / Math.max(1, maxX - minX), height / Math.max(1, maxY - minY)));
+        viewScale = Math.max(MIN_SCALE, scale);
+        viewX = getWidth() / 2.0 - (minX + maxX) / 2 * viewScale;
+        viewY = top + (getHeight() - top) / 2.0 - (minY + maxY) / 2 * viewScale;
+        repaint();
+    }
+
+    // ===== Выделение =====
+
+    // Узел под курсором выделяется (с Ctrl - переключается) и тянет за собой всё
+    // выделение; пустое место начинает рамку, с Shift - лассо
+    private void startSelection(MouseEvent e) {
+        int node = hoveredVertex != NONE ? hoveredVertex : hoveredGroup;
+        if (node != NONE) {
+            if (e.isControlDown()) {
+                selection.toggle(node);
+                return;
+            }
+            if (!selection.contains(node)) {
+                selection.clear();
+                selection.add(node);
             }
+            dragFragment = graph.fragment(selection.nodes());
+            dragStart = e.getPoint();
+            return;
+        }
+        if (!e.isControlDown()) {
+            selection.clear();
+        }
+        bandStart = toWorld(e.getPoint());
+        bandEnd = bandStart;
+        lasso = null;
+        if (e.isShiftDown()) {
+            lasso = new Path2D.Double();
+            lasso.moveTo(bandStart.x, bandStart.y);
+        }
+    }
+
+    private void finishBand() {
+        if (lasso != null) {
+            lasso.closePath();
+            selection.addShape(lasso);
+        } else {
+            selection.addRectangle(Math.min(bandStart.x, bandEnd.x), Math.min(bandStart.y, bandEnd.y),
+                    Math.max(bandStart.x, bandEnd.x), Math.max(bandStart.y, bandEnd.y));
+        }
+        bandStart = null;
+        bandEnd = null;
+        lasso = null;
+    }
+
+    private boolean canEditSelection() {
+        return !selection.isEmpty() && cleanup == null && dragFragment == null && selectedVertex == NONE;
+    }
+
+    // Всё выделение удаляется одним вызовом графа и отменяется одним шагом
+    private void deleteSelection() {
+        if (!canEditSelection()) return;
+        history.begin();
+        try {
+            graph.removeNodes(selection.nodes());
+        } finally {
+            history.end();
         }
+        selection.clear();
+        clearHoverIfRemoved();
+        repaint();
+    }
 
-        Iterator<FunctionalGroup> groupIter = groups.iterator();
-        while (groupIter.hasNext()) {
-            FunctionalGroup g = groupIter.next();
-            if (g.attachedTo == v) {
-                groupIter.remove();
+    private void setSelectionBondOrder(int order) {
+        if (!canEditSelection()) return;
+        history.begin();
+        try {
+            for (int bond : selection.bonds()) {
+                graph.setBondOrder(bond, order);
             }
+        } finally {
+            history.end();
         }
+        repaint();
+    }
 
-        vertices.remove(v);
+    // Поворот выделения вокруг его центра на шаг поворота
+    private void rotateSelection(double angle) {
+        if (!canEditSelection()) return;
+        int[] nodes = selection.nodes();
+        double cx = 0;
+        double cy = 0;
+        for (int node : nodes) {
+            cx += graph.getX(node);
+            cy += graph.getY(node);
+        }
+        AffineTransform transform = AffineTransform.getRotateInstance(angle, cx / nodes.length, cy / nodes.length);
+        graph.fragment(nodes).apply(transform);
+        history.recordTransform(nodes, transform);
+        repaint();
     }
 
-    private void removeGroup(FunctionalGroup g) {
-        Iterator<Bond> bondIter = bonds.iterator();
-        while (bondIter.hasNext()) {
-            Bond bond = bondIter.next();
-            if (bond.group == g) {
-                bondIter.remove();
+    // ===== Выравнивание =====
+
+    // Повторное нажатие останавливает выравнивание на текущем кадре
+    private void toggleCleanup() {
+        if (cleanup != null) {
+            stopCleanup();
+            return;
+        }
+        if (dragFragment != null || selectedVertex != NONE) return;
+
+        // Узлы графа нумеруются подряд для решателя
+        IntList nodes = new IntList();
+        int[] index = new int[graph.nodeLimit()];
+        for (int node = 0; node < graph.nodeLimit(); node++) {
+            if (graph.isAlive(node)) {
+                index[node] = nodes.size();
+                nodes.add(node);
             }
         }
-        groups.remove(g);
+        if (nodes.size() < 2) return;
+        IntList bondA = new IntList();
+        IntList bondB = new IntList();
+        for (int bond = 0; bond < graph.bondLimit(); bond++) {
+            if (graph.isBondAlive(bond)) {
+                bondA.add(index[graph.getBondStart(bond)]);
+                bondB.add(index[graph.getBondEnd(bond)]);
+            }
+        }
+        cleanupNodes = nodes.toArray();
+        cleanupBefore = positionsOf(cleanupNodes);
+        ForceLayout layout = new ForceLayout(cleanupBefore, bondA.toArray(), bondB.toArray(), BOND_LENGTH);
+
+        cleanup = new SwingWorker<double[], double[]>() {
+            // Кадры отдаются не чаще раза в два интервала перерисовки
+            @Override
+            protected double[] doInBackground() {
+                long lastFrame = System.nanoTime();
+                while (!layout.isFinished() && !isCancelled()) {
+                    layout.step();
+                    long now = System.nanoTime();
+                    if (now - lastFrame >= FRAME_INTERVAL_MS * 2_000_000L) {
+                        publish(layout.positions());
+                        lastFrame = now;
+                    }
+                }
+                return layout.positions();
+            }
+
+            // Из накопившихся кадров нужен только последний
+            @Override
+            protected void process(java.util.List<double[]> frames) {
+                if (cleanup != this) return;
+                graph.setPositions(cleanupNodes, frames.get(frames.size() - 1));
+                repaint();
+            }
+
+            // При сбое решателя остаётся последний показанный кадр - он тоже
+            // записывается в историю, а редактирование снова разрешается
+            @Override
+            protected void done() {
+                if (cleanup != this || isCancelled()) return;
+                String failure = null;
+                try {
+                    graph.setPositions(cleanupNodes, get());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    failure = "Выравнивание прервано";
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    failure = "Выравнивание не удалось: " + cause;
+                }
+                finishCleanup();
+                if (failure != null) {
+                    JOptionPane.showMessageDialog(MoleculeBuilder.this, failure,
+                            "Выравнивание", JOptionPane.ERROR_MESSAGE);
+                }
+            }
+        };
+        cleanupBtn.setText("Стоп");
+        cleanup.execute();
     }
 
-    private void updatePreview(Point mousePos) {
-        if (selectedVertex == null) return;
+    // Останавливает выравнивание, оставляя последний показанный кадр
+    private void stopCleanup() {
+        if (cleanup == null) return;
+        cleanup.cancel(false);
+        finishCleanup();
+    }
 
-        double dx = mousePos.x - selectedVertex.position.x;
-        double dy = mousePos.y - selectedVertex.position.y;
+    // Всё выравнивание отменяется одним шагом
+    private void finishCleanup() {
+        cleanup = null;
+        cleanupBtn.setText("Выровнять");
+        history.recordPositions(cleanupNodes, cleanupBefore, positionsOf(cleanupNodes));
+        cleanupNodes = null;
+        cleanupBefore = null;
+        hoveredVertex = NONE;
+        hoveredGroup = NONE;
+        hoveredBond = NONE;
+        repaint();
+    }
+
+    private double[] positionsOf(int[] nodes) {
+        double[] xy = new double[nodes.length * 2];
+        for (int i = 0; i < nodes.length; i++) {
+            xy[2 * i] = graph.getX(nodes[i]);
+            xy[2 * i + 1] = graph.getY(nodes[i]);
+        }
+        return xy;
+    }
+
+    // Во время перетаскивания история не трогается: фрагмент ещё не записан
+    private void undo() {
+        if (cleanup == null && dragFragment == null && selectedVertex == NONE && history.undo()) {
+            clearHoverIfRemoved();
+            repaint();
+        }
+    }
+
+    private void redo() {
+        if (cleanup == null && dragFragment == null && selectedVertex == NONE && history.redo()) {
+            clearHoverIfRemoved();
+            repaint();
+        }
+    }
+
+    // Область подсветки под курсором; null, если ничего не подсвечено
+    private Rectangle highlightBounds() {
+        if (hoveredVertex != NONE) {
+            return pointBounds(graph.getX(hoveredVertex), graph.getY(hoveredVertex), 12);
+        }
+        if (hoveredGroup != NONE) {
+            return pointBounds(graph.getX(hoveredGroup), graph.getY(hoveredGroup), 15);
+        }
+        if (hoveredBond != NONE) {
+            int a = graph.getBondStart(hoveredBond);
+            int b = graph.getBondEnd(hoveredBond);
+            return segmentBounds(graph.getX(a), graph.getY(a), graph.getX(b), graph.getY(b), PAINT_MARGIN);
+        }
+        return null;
+    }
+
+    private Rectangle previewBounds() {
+        if (selectedVertex == NONE || previewPoint == null) {
+            return null;
+        }
+        return segmentBounds(graph.getX(selectedVertex), graph.getY(selectedVertex),
+                previewPoint.x, previewPoint.y, PAINT_MARGIN);
+    }
+
+    private static Rectangle pointBounds(double x, double y, int radius) {
+        return new Rectangle((int) x - radius - 2, (int) y - radius - 2,
+                2 * radius + 4, 2 * radius + 4);
+    }
+
+    private static Rectangle segmentBounds(double x1, double y1, double x2, double y2, int margin) {
+        int minX = (int) Math.floor(Math.min(x1, x2)) - margin;
+        int minY = (int) Math.floor(Math.min(y1, y2)) - margin;
+        int maxX = (int) Math.ceil(Math.max(x1, x2)) + margin;
+        int maxY = (int) Math.ceil(Math.max(y1, y2)) + margin;
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    private static Rectangle union(Rectangle a, Rectangle b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        return a.union(b);
+    }
+
+    private void repaintRegion(Rectangle before, Rectangle after) {
+        Rectangle dirty = union(before, after);
+        if (dirty != null) {
+            repaint(toScreen(dirty));
+        }
+    }
+
+    // Радиусы подсветки заданы в пикселях экрана, а не мира
+    private void findHovered(Point screen) {
+        hoveredVertex = NONE;
+        hoveredGroup = NONE;
+        hoveredBond = NONE;
+        Point2D.Double p = toWorld(screen);
+
+        hoveredGroup = graph.nearestGroup(p.x, p.y, HOVER_RADIUS / viewScale);
+        if (hoveredGroup != NONE) return;
+
+        hoveredVertex = graph.nearestAtom(p.x, p.y, 25 / viewScale);
+        if (hoveredVertex != NONE) return;
+
+        hoveredBond = graph.nearestBond(p.x, p.y, BOND_HOVER_RADIUS / viewScale);
+    }
+
+    private int addVertex(double x, double y) {
+        if (graph.nearestAtom(x, y, BOND_LENGTH * 0.7) != NONE) {
+            return NONE;
+        }
+        return graph.addAtom(x, y);
+    }
+
+    // Связи и присоединённые группы удаляются вместе с атомом за O(степени)
+    private void removeVertex(int v) {
+        graph.removeNode(v);
+        clearHoverIfRemoved();
+    }
+
+    private void removeGroup(int g) {
+        graph.removeNode(g);
+        clearHoverIfRemoved();
+    }
+
+    // Номера удалённых узлов переиспользуются - подсветка не должна на них ссылаться
+    private void clearHoverIfRemoved() {
+        if (!graph.isAlive(hoveredVertex)) hoveredVertex = NONE;
+        if (!graph.isAlive(hoveredGroup)) hoveredGroup = NONE;
+        if (!graph.isBondAlive(hoveredBond)) hoveredBond = NONE;
+    }
+
+    private void updatePreview(Point screen) {
+        if (selectedVertex == NONE) return;
+        Point2D.Double mousePos = toWorld(screen);
+
+        double x = graph.getX(selectedVertex);
+        double y = graph.getY(selectedVertex);
+        double dx = mousePos.x - x;
+        double dy = mousePos.y - y;
         previewAngle = Math.atan2(dy, dx);
 
         double steps = Math.round(previewAngle / ROTATION_STEP);
         previewAngle = steps * ROTATION_STEP;
 
-        double previewX = selectedVertex.position.x + Math.cos(previewAngle) * BOND_LENGTH;
-        double previewY = selectedVertex.position.y + Math.sin(previewAngle) * BOND_LENGTH;
+        double previewX = x + Math.cos(previewAngle) * BOND_LENGTH;
+        double previewY = y + Math.sin(previewAngle) * BOND_LENGTH;
 
         previewPoint = new Point2D.Double(previewX, previewY);
     }
 
     private void createBondOrGroup(Point mousePos) {
-        if (selectedVertex == null || previewPoint == null) return;
-
-        Vertex targetVertex = null;
-        FunctionalGroup targetGroup = null;
+        if (selectedVertex == NONE || previewPoint == null) return;
 
-        for (Vertex v : vertices) {
-            double dist = Math.hypot(previewPoint.x - v.position.x,
-                    previewPoint.y - v.position.y);
-            if (dist < 20) {
-                targetVertex = v;
-                break;
-            }
-        }
+        int targetVertex = graph.nearestAtom(previewPoint.x, previewPoint.y, 20);
+        int targetGroup = graph.nearestGroup(previewPoint.x, previewPoint.y, 20);
 
-        for (FunctionalGroup g : groups) {
-            double dist = Math.hypot(previewPoint.x - g.position.x,
-                    previewPoint.y - g.position.y);
-            if (dist < 20) {
-                targetGroup = g;
-                break;
+        if (targetVertex != NONE && targetVertex != selectedVertex) {
+            connect(selectedVertex, targetVertex);
+        } else if (targetGroup != NONE) {
+            // Чужая группа уже принадлежит другому атому - к ней не присоединяемся
+            if (graph.getAttachedTo(targetGroup) == selectedVertex) {
+                connect(selectedVertex, targetGroup);
             }
-        }
-
-        if (targetVertex != null && targetVertex != selectedVertex) {
-            bonds.add(new Bond(selectedVertex, targetVertex, currentBondOrder));
-        } else if (targetGroup != null) {
-            bonds.add(new Bond(selectedVertex, targetGroup, currentBondOrder));
         } else {
             if (currentGroup == null) {
-                Vertex newVertex = addVertex(previewPoint.x, previewPoint.y);
-                if (newVertex != null) {
-                    vertices.add(newVertex);
-                    bonds.add(new Bond(selectedVertex, newVertex, currentBondOrder));
+                int newVertex = addVertex(previewPoint.x, previewPoint.y);
+                if (newVertex != NONE) {
+                    graph.addBond(selectedVertex, newVertex, currentBondOrder);
                 }
             } else {
-                FunctionalGroup newGroup = new FunctionalGroup(
-                        previewPoint.x, previewPoint.y,
-                        currentGroup, selectedVertex, nextId++);
-                groups.add(newGroup);
-                bonds.add(new Bond(selectedVertex, newGroup, currentBondOrder));
+                graph.attachGroup(selectedVertex, currentGroup, currentBondOrder, previewPoint.x, previewPoint.y);
             }
         }
     }
 
-    private void cycleBondOrder(Bond bond) {
-        bond.order = (bond.order == 1) ? 2 : 1;
-        System.out.println("Изменен порядок связи на: " + bond.order);
+    // Уже связанные узлы не получают вторую связь: существующая только повышается
+    // до выбранного порядка
+    private void connect(int from, int to) {
+        int bond = graph.findBond(from, to);
+        if (bond == NONE) {
+            graph.addBond(from, to, currentBondOrder);
+        } else if (graph.getBondOrder(bond) < currentBondOrder) {
+            graph.setBondOrder(bond, currentBondOrder);
+        }
+    }
+
+    private void cycleBondOrder(int bond) {
+        int order = (graph.getBondOrder(bond) == 1) ? 2 : 1;
+        graph.setBondOrder(bond, order);
         repaint();
     }
 
-    private void decreaseBondOrder(Bond bond) {
-        if (bond.order > 1) {
-            bond.order--;
-            System.out.println("Уменьшен порядок связи до: " + bond.order);
+    private void decreaseBondOrder(int bond) {
+        int order = graph.getBondOrder(bond);
+        if (order > 1) {
+            graph.setBondOrder(bond, order - 1);
             repaint();
         }
     }
 
-    private void startRotation(Vertex center) {
-        rotationCenter = center;
-        originalAngles = new HashMap<>();
-        originalDistances = new HashMap<>();
-
-        for (Vertex v : vertices) {
-            if (v != center) {
-                double dx = v.position.x - center.position.x;
-                double dy = v.position.y - center.position.y;
-                originalAngles.put(v, Math.atan2(dy, dx));
-                originalDistances.put(v, Math.hypot(dx, dy));
-            }
-        }
+    // Поворот фрагмента вокруг атома: угол копится за всё перетаскивание
+    // и округляется до шага целиком, а не для каждого атома отдельно
+    private void startRotation(int center) {
+        dragFragment = selection.contains(center) ? graph.fragment(selection.nodes()) : graph.component(center);
+        pivotX = graph.getX(center);
+        pivotY = graph.getY(center);
+        dragAngle = 0;
     }
 
-    private void rotateMolecule(double deltaAngle) {
-        if (rotationCenter == null || originalAngles == null) return;
-
-        for (Vertex v : vertices) {
-            if (v == rotationCenter) continue;
+    private void rotateMolecule(double totalAngle) {
+        if (dragFragment == null) return;
 
-            Double originalAngle = originalAngles.get(v);
-            Double distance = originalDistances.get(v);
-            if (originalAngle == null || distance == null) continue;
-
-            double newAngle = originalAngle + deltaAngle;
-            double steps = Math.round(newAngle / ROTATION_STEP);
-            newAngle = steps * ROTATION_STEP;
+        double snapped = Math.round(totalAngle / ROTATION_STEP) * ROTATION_STEP;
+        dragTransform = AffineTransform.getRotateInstance(snapped, pivotX, pivotY);
+        dragFragment.apply(dragTransform);
+    }
 
-            double newX = rotationCenter.position.x + Math.cos(newAngle) * distance;
-            double newY = rotationCenter.position.y + Math.sin(newAngle) * distance;
+    private void startMove(int seed, Point start) {
+        dragFragment = selection.contains(seed) ? graph.fragment(selection.nodes()) : graph.component(seed);
+        dragStart = start;
+    }
 
-            v.position.setLocation(newX, newY);
+    private void moveFragment(double dx, double dy) {
+        if (dragFragment == null) return;
+        dragTransform = AffineTransform.getTranslateInstance(dx, dy);
+        dragFragment.apply(dragTransform);
+    }
 
-            for (FunctionalGroup g : groups) {
-                if (g.attachedTo == v) {
-                    double gDx = g.position.x - v.position.x;
-                    double gDy = g.position.y - v.position.y;
-                    double gAngle = Math.atan2(gDy, gDx);
-                    double gDist = Math.hypot(gDx, gDy);
+    // Координаты в мире не округляются: при увеличении округление было бы заметно
+    private void drawLine(Graphics2D g2d, double x1, double y1, double x2, double y2) {
+        line.setLine(x1, y1, x2, y2);
+        g2d.draw(line);
+    }
 
-                    g.position.x = v.position.x + Math.cos(gAngle) * gDist;
-                    g.position.y = v.position.y + Math.sin(gAngle) * gDist;
-                }
+    // Подложка под выделенными узлами и связями между ними
+    private void drawSelection(Graphics2D g2d, double minX, double minY, double maxX, double maxY) {
+        g2d.setColor(SELECTION_FILL);
+        g2d.setStroke(new BasicStroke(14, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        visible.clear();
+        graph.queryBonds(minX, minY, maxX, maxY, visible);
+        for (int i = 0; i < visible.size(); i++) {
+            int bond = visible.get(i);
+            int a = graph.getBondStart(bond);
+            int b = graph.getBondEnd(bond);
+            if (selection.contains(a) && selection.contains(b)) {
+                drawLine(g2d, graph.getX(a), graph.getY(a), graph.getX(b), graph.getY(b));
+            }
+        }
+        visible.clear();
+        graph.queryAtoms(minX, minY, maxX, maxY, visible);
+        graph.queryGroups(minX, minY, maxX, maxY, visible);
+        for (int i = 0; i < visible.size(); i++) {
+            int node = visible.get(i);
+            if (selection.contains(node)) {
+                g2d.fillOval((int) graph.getX(node) - 14, (int) graph.getY(node) - 14, 28, 28);
             }
         }
     }
 
     @Override
     protected void paintComponent(Graphics g) {
+        long paintStart = System.nanoTime();
         super.paintComponent(g);
         Graphics2D g2d = (Graphics2D) g;
 
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
                 RenderingHints.VALUE_ANTIALIAS_ON);
 
-        if (hoveredBond != null) {
-            Point2D.Double center = hoveredBond.getCenterPoint();
-            double length = hoveredBond.getLength();
+        // Рисуются только объекты, попавшие в область отсечения; она переводится
+        // в мировые координаты, так что работа зависит от видимого, а не от размера молекулы
+        Rectangle clip = g2d.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        double minX = (clip.getMinX() - viewX) / viewScale - PAINT_MARGIN;
+        double minY = (clip.getMinY() - viewY) / viewScale - PAINT_MARGIN;
+        double maxX = (clip.getMaxX() - viewX) / viewScale + PAINT_MARGIN;
+        double maxY = (clip.getMaxY() - viewY) / viewScale + PAINT_MARGIN;
+
+        AffineTransform screen = g2d.getTransform();
+        g2d.translate(viewX, viewY);
+        g2d.scale(viewScale, viewScale);
+
+        if (hoveredBond != NONE) {
+            int a = graph.getBondStart(hoveredBond);
+            int b = graph.getBondEnd(hoveredBond);
+            double x1 = graph.getX(a), y1 = graph.getY(a);
+            double x2 = graph.getX(b), y2 = graph.getY(b);
+            double length = Math.hypot(x2 - x1, y2 - y1);
 
             g2d.setColor(new Color(150, 150, 150, 80));
             int ellipseWidth = (int)(length * 0.8);
             int ellipseHeight = 30;
 
-            Point2D.Double p1 = hoveredBond.vertex1.position;
-            Point2D.Double p2 = (hoveredBond.group != null) ?
-                    hoveredBond.group.position : hoveredBond.vertex2.position;
-
-            double angle = Math.atan2(p2.y - p1.y, p2.x - p1.x);
+            double angle = Math.atan2(y2 - y1, x2 - x1);
 
             AffineTransform old = g2d.getTransform();
-            g2d.translate(center.x, center.y);
+            g2d.translate((x1 + x2) / 2, (y1 + y2) / 2);
             g2d.rotate(angle);
             g2d.fillOval(-ellipseWidth/2, -ellipseHeight/2, ellipseWidth, ellipseHeight);
             g2d.setTransform(old);
         }
 
-        for (Bond bond : bonds) {
-            bond.draw(g2d);
+        if (!selection.isEmpty()) {
+            drawSelection(g2d, minX, minY, maxX, maxY);
         }
 
-        for (FunctionalGroup group : groups) {
-            group.draw(g2d);
-        }
+        renderer.paint(g2d, minX, minY, maxX, maxY, viewScale);
 
-        g2d.setColor(new Color(100, 100, 100, 100));
-        for (Vertex v : vertices) {
-            g2d.fillOval((int) v.position.x - 2, (int) v.position.y - 2, 4, 4);
-            if (v.bonds.size() == 0) {
-                g2d.drawString("CH4", (int) v.position.x - 2, (int) v.position.y - 2);
-            }
-        }
-
-        if (hoveredVertex != null) {
+        if (hoveredVertex != NONE) {
             g2d.setColor(new Color(255, 255, 0, 80));
-            g2d.fillOval((int)hoveredVertex.position.x - 12,
-                    (int)hoveredVertex.position.y - 12, 24, 24);
+            g2d.fillOval((int)graph.getX(hoveredVertex) - 12,
+                    (int)graph.getY(hoveredVertex) - 12, 24, 24);
         }
-        if (hoveredGroup != null) {
+        if (hoveredGroup != NONE) {
             g2d.setColor(new Color(255, 255, 0, 80));
-            g2d.fillOval((int)hoveredGroup.position.x - 15,
-                    (int)hoveredGroup.position.y - 15, 30, 30);
+            g2d.fillOval((int)graph.getX(hoveredGroup) - 15,
+                    (int)graph.getY(hoveredGroup) - 15, 30, 30);
         }
 
-        if (selectedVertex != null && previewPoint != null) {
+        if (selectedVertex != NONE && previewPoint != null) {
             g2d.setColor(new Color(0, 100, 255, 150));
             g2d.setStroke(new BasicStroke(2, BasicStroke.CAP_ROUND,
                     BasicStroke.JOIN_ROUND, 0, new float[]{8, 4}, 0));
-            g2d.drawLine((int)selectedVertex.position.x, (int)selectedVertex.position.y,
-                    (int)previewPoint.x, (int)previewPoint.y);
+            drawLine(g2d, graph.getX(selectedVertex), graph.getY(selectedVertex),
+                    previewPoint.x, previewPoint.y);
 
             if (currentGroup == null) {
                 g2d.setColor(new Color(0, 255, 0, 100));
@@ -600,6 +1301,26 @@ public class MoleculeBuilder extends JPanel {
             }
         }
 
+        if (bandStart != null) {
+            g2d.setColor(SELECTION_COLOR);
+            g2d.setStroke(new BasicStroke((float) (1 / viewScale)));
+            if (lasso != null) {
+                g2d.draw(lasso);
+            } else {
+                g2d.draw(new Rectangle2D.Double(Math.min(bandStart.x, bandEnd.x), Math.min(bandStart.y, bandEnd.y),
+                        Math.abs(bandEnd.x - bandStart.x), Math.abs(bandEnd.y - bandStart.y)));
+            }
+        }
 
+        g2d.setTransform(screen);
+        renderer.paintFormula(g2d, 10, getHeight() - 60);
+
+        if (SHOW_FRAME_STATS) {
+            paintMillis = (System.nanoTime() - paintStart) / 1e6;
+            g2d.setColor(Color.GRAY);
+            g2d.setFont(new Font("Arial", Font.PLAIN, 12));
+            g2d.drawString(String.format("кадр %.1f мс, отрисовка %.2f мс, пропущено кадров: %d, масштаб %.0f%%",
+                    frameMillis, paintMillis, droppedFrames, viewScale * 100), 10, getHeight() - 10);
+        }
         }
-}
\ No newline at end of file
+}
@@ -0,0 +1,125 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// Ограниченный LRU-кэш разобранных молекул, общий для окна просмотра и пакетной обработки
+public class MoleculeCache {
+
+    private static final int SEGMENTS = 16;
+
+    private static final MoleculeCache SHARED =
+            new MoleculeCache(Integer.getInteger("molchem.cache.size", 1024));
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final int capacity;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // Каждый сегмент - LinkedHashMap в порядке доступа под собственной блокировкой
+    private final class Segment extends LinkedHashMap<String, Molecule> {
+        private static final long serialVersionUID = 1L;
+
+        private final int limit;
+
+        Segment(int limit) {
+            super(16, 0.75f, true);
+            this.limit = limit;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Molecule> eldest) {
+            if (size() > limit) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public MoleculeCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Размер кэша должен быть положительным: " + capacity);
+        }
+        this.capacity = capacity;
+        int perSegment = (capacity + SEGMENTS - 1) / SEGMENTS;
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    public static MoleculeCache shared() {
+        return SHARED;
+    }
+
+    private Segment segmentFor(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    public Molecule get(String key, Function<String, Molecule> loader) {
+        Segment segment = segmentFor(key);
+        Molecule molecule;
+        synchronized (segment) {
+            molecule = segment.get(key);
+        }
+        if (molecule != null) {
+            hits.increment();
+            return molecule;
+        }
+
+        // Разбор и раскладка вне блокировки; при гонке остаётся первая запись
+        misses.increment();
+        Molecule loaded = loader.apply(key);
+        loaded.getLayout();
+
+        synchronized (segment) {
+            molecule = segment.putIfAbsent(key, loaded);
+        }
+        return molecule != null ? molecule : loaded;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "MoleculeCache[size=" + size() + "/" + capacity
+                + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount() + "]";
+    }
+}
@@ -0,0 +1,130 @@
+import java.awt.geom.Rectangle2D;
+
+// Координаты в нормированных единицах: шаг цепи по X равен 1.
+// Массивы хранят пары x, y подряд: цепь по номеру атома, концы заместителей
+// в порядке таблицы заместителей молекулы.
+public class MoleculeLayout {
+    private final float[] chain;
+    private final float[] substituentEnds;
+    private final Rectangle2D.Float bounds;
+
+    private MoleculeLayout(float[] chain, float[] substituentEnds) {
+        this.chain = chain;
+        this.substituentEnds = substituentEnds;
+
+        float minX = chain[0], maxX = chain[0], minY = chain[1], maxY = chain[1];
+        for (float[] coords : new float[][]{chain, substituentEnds}) {
+            for (int i = 0; i < coords.length; i += 2) {
+                minX = Math.min(minX, coords[i]);
+                maxX = Math.max(maxX, coords[i]);
+                minY = Math.min(minY, coords[i + 1]);
+                maxY = Math.max(maxY, coords[i + 1]);
+            }
+        }
+        this.bounds = new Rectangle2D.Float(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    // До этой длины цепь рисуется одним зигзагом, длиннее - змейкой из рядов
+    static final int SINGLE_ROW_LIMIT = 30;
+    private static final float ROW_GAP = 1.5f;
+
+    // Несколько заместителей у одного атома расходятся веером
+    private static final double FAN_ANGLE = Math.toRadians(70);
+
+    static MoleculeLayout compute(Molecule molecule) {
+        int carbons = molecule.getCarbonCount();
+        int rowLength = rowLength(carbons);
+
+        float[] chain = new float[carbons * 2];
+        for (int i = 0; i < carbons; i++) {
+            int row = i / rowLength;
+            int column = i % rowLength;
+            chain[2 * i] = (row % 2 == 0) ? column : rowLength - 1 - column;
+            chain[2 * i + 1] = row * ROW_GAP + ((carbons > 2 && column % 2 == 1) ? 0.5f : 0);
+        }
+
+        float[] ends = new float[molecule.getSubstituentCount() * 2];
+        double length = carbons > 4 ? 0.375 : 0.5;
+
+        for (int s = 0; s < molecule.getSubstituentCount(); ) {
+            int carbonIndex = molecule.getSubstituentCarbon(s);
+            int first = s;
+            int last = molecule.substituentsEnd(carbonIndex);
+
+            float x = chain[2 * carbonIndex];
+            float y = chain[2 * carbonIndex + 1];
+            int column = carbonIndex % rowLength;
+            boolean rowTurn = carbons > rowLength
+                    && ((column == rowLength - 1 && carbonIndex < carbons - 1)
+                    || (column == 0 && carbonIndex > 0));
+            double dx, dy;
+
+            if (carbons == 1) {
+                dx = 0;
+                dy = -length;
+            } else if (carbonIndex == 0) {
+                dx = -length;
+                dy = -length;
+            } else if (carbonIndex == carbons - 1) {
+                dx = x > chain[2 * carbonIndex - 2] ? length : -length;
+                dy = -length;
+            } else if (rowTurn) {
+                // На повороте змейки - наружу по горизонтали
+                dx = x > 0 ? length : -length;
+                dy = 0;
+            } else {
+                // Вверх от верхних атомов зигзага, вниз от нижних
+                dx = 0;
+                dy = column % 2 == 1 ? length : -length;
+            }
+
+            for (; s < last; s++) {
+                double angle = (s - first - (last - first - 1) / 2.0) * FAN_ANGLE;
+                double cos = Math.cos(angle);
+                double sin = Math.sin(angle);
+                ends[2 * s] = (float) (x + dx * cos - dy * sin);
+                ends[2 * s + 1] = (float) (y + dx * sin + dy * cos);
+            }
+        }
+
+        return new MoleculeLayout(chain, ends);
+    }
+
+    // Чётная длина ряда, пропорции змейки около 4:3
+    static int rowLength(int carbons) {
+        if (carbons <= SINGLE_ROW_LIMIT) {
+            return Math.max(1, carbons);
+        }
+        int row = (int) Math.ceil(Math.sqrt(carbons * 2.0));
+        return Math.max(SINGLE_ROW_LIMIT, row + (row & 1));
+    }
+
+    public float getChainX(int carbonIndex) {
+        return chain[2 * carbonIndex];
+    }
+
+    public float getChainY(int carbonIndex) {
+        return chain[2 * carbonIndex + 1];
+    }
+
+    public float getSubstituentX(int substituent) {
+        return substituentEnds[2 * substituent];
+    }
+
+    public float getSubstituentY(int substituent) {
+        return substituentEnds[2 * substituent + 1];
+    }
+
+    // Внутренние массивы для отрисовки; изменять нельзя
+    float[] chainCoords() {
+        return chain;
+    }
+
+    float[] substituentCoords() {
+        return substituentEnds;
+    }
+
+    public Rectangle2D getBounds() {
+        return bounds.getBounds2D();
+    }
+}
@@ -0,0 +1,187 @@
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+
+// Скомпилированная отрисовка молекулы: контуры в нормированных единицах,
+// подписи - готовые GlyphVector со смещением в пикселях от конца заместителя
+public class MoleculeRenderPlan {
+
+    // Упрощённая отрисовка, когда шаг цепи меньше нескольких пикселей
+    static final double MIN_DETAILED_SCALE = 6;
+
+    private static final Color CHAIN_COLOR = Color.BLACK;
+    private static final Color ATOM_COLOR = new Color(200, 0, 0);
+    private static final Color SUBSTITUENT_COLOR = new Color(0, 0, 180);
+    private static final Color LABEL_COLOR = Color.DARK_GRAY;
+    private static final Color TITLE_COLOR = Color.BLACK;
+
+    private static final Font LABEL_FONT = new Font("Arial Rounded MT", Font.BOLD, 20);
+    private static final Font TITLE_FONT = new Font("Bahnschrift", Font.BOLD, 18);
+    // Нулевая толщина - однопиксельная линия при любом масштабе, без построения контура
+    private static final BasicStroke HAIRLINE = new BasicStroke(0);
+
+    private static final FontRenderContext FRC = new FontRenderContext(null, true, false);
+
+    private static final float EPSILON = 1e-4f;
+
+    private final Path2D.Float chainPath;
+    private final Path2D.Float atomPath;
+    private final Path2D.Float substituentPath;
+    private final int lineWidth;
+    private final int pointSize;
+
+    private final GlyphVector[] labels;
+    private final float[] labelAnchors;
+    private final float[] labelOffsets;
+    private final GlyphVector title;
+    // Перья последнего масштаба: при перерисовке без смены масштаба не создаются.
+    // План общий для потоков через кэш молекул, поэтому набор неизменяем и
+    // заменяется целиком
+    private volatile Strokes strokes;
+
+    private MoleculeRenderPlan(Molecule molecule) {
+        MoleculeLayout layout = molecule.getLayout();
+        int carbons = molecule.getCarbonCount();
+        int substituents = molecule.getSubstituentCount();
+        float[] chain = layout.chainCoords();
+        float[] ends = layout.substituentCoords();
+
+        lineWidth = Math.max(2, 5 - carbons / 3);
+        pointSize = Math.max(4, 9 - carbons);
+
+        chainPath = new Path2D.Float(Path2D.WIND_NON_ZERO, carbons + 1);
+        atomPath = new Path2D.Float(Path2D.WIND_NON_ZERO, carbons * 2);
+        for (int i = 0; i < carbons; i++) {
+            float x = chain[2 * i];
+            float y = chain[2 * i + 1];
+            if (i == 0) {
+                chainPath.moveTo(x, y);
+            } else {
+                chainPath.lineTo(x, y);
+            }
+            // Точка атома - отрезок нулевой длины с круглыми концами
+            atomPath.moveTo(x, y);
+            atomPath.lineTo(x, y);
+        }
+
+        substituentPath = new Path2D.Float(Path2D.WIND_NON_ZERO, substituents * 2);
+        labels = new GlyphVector[substituents];
+        labelAnchors = new float[substituents * 2];
+        labelOffsets = new float[substituents * 2];
+
+        for (int s = 0; s < substituents; s++) {
+            int carbon = molecule.getSubstituentCarbon(s);
+            float x1 = chain[2 * carbon];
+            float y1 = chain[2 * carbon + 1];
+            float x2 = ends[2 * s];
+            float y2 = ends[2 * s + 1];
+
+            substituentPath.moveTo(x1, y1);
+            substituentPath.lineTo(x2, y2);
+
+            GlyphVector glyphs = LABEL_FONT.createGlyphVector(FRC, molecule.getSubstituentLabel(s));
+            float textWidth = (float) glyphs.getLogicalBounds().getWidth();
+            float offsetX = 0;
+            float offsetY;
+
+            if (y2 < y1 - EPSILON) {
+                offsetY = -8;
+            } else if (y2 > y1 + EPSILON) {
+                offsetY = 18;
+            } else {
+                offsetX = x2 > x1 ? 10 : -10;
+                offsetY = -5;
+            }
+
+            boolean fanned = molecule.substituentsEnd(carbon) - molecule.substituentsStart(carbon) > 1;
+            if (fanned && Math.abs(x2 - x1) > EPSILON) {
+                // Веер заместителей: подпись прижимается наружу, чтобы соседние не накладывались
+                offsetX = x2 > x1 ? 2 : -2 - textWidth;
+            } else {
+                offsetX -= textWidth / 2;
+            }
+
+            labels[s] = glyphs;
+            labelAnchors[2 * s] = x2;
+            labelAnchors[2 * s + 1] = y2;
+            labelOffsets[2 * s] = offsetX;
+            labelOffsets[2 * s + 1] = offsetY;
+        }
+
+        title = TITLE_FONT.createGlyphVector(FRC, molecule.getName());
+    }
+
+    static MoleculeRenderPlan compile(Molecule molecule) {
+        return new MoleculeRenderPlan(molecule);
+    }
+
+    private Strokes strokesFor(double scale) {
+        Strokes current = strokes;
+        if (current == null || current.scale != scale) {
+            current = new Strokes(scale, lineWidth, pointSize);
+            strokes = current;
+        }
+        return current;
+    }
+
+    private static final class Strokes {
+        final double scale;
+        final BasicStroke chain;
+        final BasicStroke atom;
+        final BasicStroke substituent;
+
+        Strokes(double scale, int lineWidth, int pointSize) {
+            this.scale = scale;
+            chain = new BasicStroke((float) (lineWidth / scale), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+            atom = new BasicStroke((float) (2 * pointSize / scale), BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+            substituent = new BasicStroke((float) ((lineWidth - 1) / scale),
+                    BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        }
+    }
+
+    public void paint(Graphics2D g2d, AffineTransform view) {
+        double scale = view.getScaleX();
+        boolean detailed = scale >= MIN_DETAILED_SCALE;
+        AffineTransform saved = g2d.getTransform();
+
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                detailed ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+        g2d.transform(view);
+
+        // Толщина линий задана в пикселях, контуры - в нормированных единицах
+        g2d.setColor(CHAIN_COLOR);
+        Strokes current = strokesFor(scale);
+        g2d.setStroke(detailed ? current.chain : HAIRLINE);
+        g2d.draw(chainPath);
+
+        if (detailed) {
+            g2d.setColor(ATOM_COLOR);
+            g2d.setStroke(current.atom);
+            g2d.draw(atomPath);
+        }
+
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setColor(SUBSTITUENT_COLOR);
+        g2d.setStroke(current.substituent);
+        g2d.draw(substituentPath);
+        g2d.setTransform(saved);
+
+        if (labels.length > 0) {
+            float[] anchors = new float[labelAnchors.length];
+            view.transform(labelAnchors, 0, anchors, 0, labels.length);
+
+            g2d.setColor(LABEL_COLOR);
+            for (int s = 0; s < labels.length; s++) {
+                g2d.drawGlyphVector(labels[s],
+                        anchors[2 * s] + labelOffsets[2 * s],
+                        anchors[2 * s + 1] + labelOffsets[2 * s + 1]);
+            }
+        }
+
+        g2d.setColor(TITLE_COLOR);
+        g2d.drawGlyphVector(title, 30, 40);
+    }
+}
@@ -0,0 +1,291 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+
+// Отрисовка графа конструктора на любой Graphics2D: в панель конструктора,
+// в BufferedImage или на печать. Компонентов Swing не создаёт, поэтому работает
+// в headless JVM. Формулу и валентности берёт у FormulaCounter, положение
+// второй линии двойной связи в кольце - у RingPerception; оба следят за графом сами.
+// paint рисует в мировых координатах - преобразование вида ставит вызывающий.
+// Экземпляр держит общие буферы: для нескольких потоков - по рендереру на поток.
+public class MoleculeRenderer {
+
+    // Ниже этого масштаба подписи и вторые линии кратных связей не рисуются:
+    // их всё равно не различить
+    public static final double DETAIL_SCALE = 0.45;
+    private static final int FIT_MARGIN = 20;
+    private static final int NONE = BuilderGraph.NONE;
+
+    private static final Color VIOLATION_COLOR = new Color(230, 0, 0, 110);
+    private static final Color ATOM_COLOR = new Color(100, 100, 100, 100);
+    private static final Color OXYGEN_COLOR = new Color(200, 50, 50);
+    private static final Color NITROGEN_COLOR = new Color(68, 93, 219);
+    private static final Color CHLORINE_COLOR = new Color(50, 180, 50);
+    private static final Color BROMINE_COLOR = new Color(160, 80, 0);
+    private static final Color FLUORINE_COLOR = new Color(0, 180, 180);
+    private static final Color OTHER_GROUP_COLOR = new Color(180, 100, 180);
+    private static final Font GROUP_FONT = new Font("Arial Rounded MT", Font.BOLD, 12);
+    private static final Font FORMULA_FONT = new Font("Bahnschrift", Font.BOLD, 16);
+    private static final Font MASS_FONT = new Font("Arial", Font.PLAIN, 12);
+    private static final Stroke DETAILED_STROKE = new BasicStroke(2);
+    private static final Stroke VIOLATION_STROKE = new BasicStroke(3);
+
+    private final BuilderGraph graph;
+    private final FormulaCounter formula;
+    private final RingPerception rings;
+    private final IntList visible = new IntList();
+    private final Line2D.Double line = new Line2D.Double();
+
+    // Рендерер со своими наблюдателями формулы и колец
+    public MoleculeRenderer(BuilderGraph graph) {
+        this(graph, new FormulaCounter(graph), new RingPerception(graph));
+    }
+
+    // Рендерер поверх наблюдателей, которые у вызывающего уже есть
+    public MoleculeRenderer(BuilderGraph graph, FormulaCounter formula, RingPerception rings) {
+        this.graph = graph;
+        this.formula = formula;
+        this.rings = rings;
+    }
+
+    public FormulaCounter getFormula() {
+        return formula;
+    }
+
+    public RingPerception getRings() {
+        return rings;
+    }
+
+    // ===== Картинки =====
+
+    public BufferedImage render(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        render(image);
+        return image;
+    }
+
+    // Белый фон и вся молекула по размеру картинки; картинку можно переиспользовать
+    public void render(BufferedImage image) {
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setColor(Color.WHITE);
+            g2d.fillRect(0, 0, image.getWidth(), image.getHeight());
+            paintFitted(g2d, image.getWidth(), image.getHeight());
+        } finally {
+            g2d.dispose();
+        }
+    }
+
+    // Вся молекула в прямоугольнике (0, 0, width, height) текущих координат g2d;
+    // крупнее исходного масштаба не увеличивается. Картинка рисуется со всеми
+    // кратными связями даже мелко - в отличие от вида, её не приблизить
+    public void paintFitted(Graphics2D g2d, int width, int height) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int node = 0; node < graph.nodeLimit(); node++) {
+            if (!graph.isAlive(node)) continue;
+            minX = Math.min(minX, graph.getX(node));
+            minY = Math.min(minY, graph.getY(node));
+            maxX = Math.max(maxX, graph.getX(node));
+            maxY = Math.max(maxY, graph.getY(node));
+        }
+        if (minX > maxX) return;
+
+        double fitWidth = Math.max(1, width - 2 * FIT_MARGIN);
+        double fitHeight = Math.max(1, height - 2 * FIT_MARGIN);
+        double scale = Math.min(1, Math.min(fitWidth / Math.max(1, maxX - minX), fitHeight / Math.max(1, maxY - minY)));
+
+        AffineTransform saved = g2d.getTransform();
+        Object antialiasing = g2d.getRenderingHint(RenderingHints.KEY_ANTIALIASING);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.translate(width / 2.0 - (minX + maxX) / 2 * scale, height / 2.0 - (minY + maxY) / 2 * scale);
+        g2d.scale(scale, scale);
+        double margin = FIT_MARGIN / scale;
+        paint(g2d, minX - margin, minY - margin, maxX + margin, maxY + margin, scale, true);
+        g2d.setTransform(saved);
+        if (antialiasing != null) {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, antialiasing);
+        }
+    }
+
+    // ===== Отрисовка в мировых координатах =====
+
+    // Связи, группы и атомы, задевающие прямоугольник мира: работа зависит от
+    // видимого, а не от размера молекулы. scale - масштаб вида: при мелком
+    // линия остаётся толщиной в пиксель экрана, а подписи пропадают
+    public void paint(Graphics2D g2d, double minX, double minY, double maxX, double maxY, double scale) {
+        paint(g2d, minX, minY, maxX, maxY, scale, scale >= DETAIL_SCALE);
+    }
+
+    private void paint(Graphics2D g2d, double minX, double minY, double maxX, double maxY, double scale,
+                       boolean detailed) {
+        // Линия в две единицы мира, но не тоньше пикселя экрана
+        Stroke bondStroke = scale >= 0.5 ? DETAILED_STROKE : new BasicStroke((float) (1 / scale));
+        visible.clear();
+        graph.queryBonds(minX, minY, maxX, maxY, visible);
+        for (int i = 0; i < visible.size(); i++) {
+            drawBond(g2d, visible.get(i), bondStroke, detailed);
+        }
+
+        visible.clear();
+        graph.queryGroups(minX, minY, maxX, maxY, visible);
+        for (int i = 0; i < visible.size(); i++) {
+            drawGroup(g2d, visible.get(i), detailed);
+            markViolation(g2d, visible.get(i), 16);
+        }
+
+        // Точки атомов и подписи метана видны только вблизи
+        if (detailed) {
+            g2d.setColor(ATOM_COLOR);
+            visible.clear();
+            graph.queryAtoms(minX, minY, maxX, maxY, visible);
+            for (int i = 0; i < visible.size(); i++) {
+                int v = visible.get(i);
+                int x = (int) graph.getX(v);
+                int y = (int) graph.getY(v);
+                g2d.fillOval(x - 2, y - 2, 4, 4);
+                if (graph.getDegree(v) == 0) {
+                    g2d.drawString("CH4", x - 2, y - 2);
+                }
+                if (formula.isOverValence(v)) {
+                    markViolation(g2d, v, 10);
+                    g2d.setColor(ATOM_COLOR);
+                }
+            }
+        } else if (formula.getViolationCount() > 0) {
+            visible.clear();
+            graph.queryAtoms(minX, minY, maxX, maxY, visible);
+            for (int i = 0; i < visible.size(); i++) {
+                markViolation(g2d, visible.get(i), 10);
+            }
+        }
+    }
+
+    // Формула, массы и число нарушений валентности; (x, y) - базовая линия формулы
+    public void paintFormula(Graphics2D g2d, int x, int y) {
+        g2d.setColor(Color.BLACK);
+        g2d.setFont(FORMULA_FONT);
+        g2d.drawString(formula.getFormula(), x, y);
+
+        g2d.setColor(Color.DARK_GRAY);
+        g2d.setFont(MASS_FONT);
+        g2d.drawString(String.format("M = %.3f г/моль, точная масса %.4f",
+                formula.getAverageMass(), formula.getMonoisotopicMass()), x, y + 18);
+        int violations = formula.getViolationCount();
+        if (violations > 0) {
+            g2d.setColor(Color.RED);
+            g2d.drawString("Превышена валентность: " + violations, x, y + 34);
+        }
+    }
+
+    public static Color getGroupColor(String symbol) {
+        switch (symbol) {
+            case "OH":
+            case "O": return OXYGEN_COLOR;
+            case "NH2":
+            case "N": return NITROGEN_COLOR;
+            case "Cl": return CHLORINE_COLOR;
+            case "Br": return BROMINE_COLOR;
+            case "F": return FLUORINE_COLOR;
+            default: return OTHER_GROUP_COLOR;
+        }
+    }
+
+    private void drawGroup(Graphics2D g2d, int group, boolean detailed) {
+        String symbol = graph.getSymbolName(group);
+        double x = graph.getX(group);
+        double y = graph.getY(group);
+
+        int size = 18;
+        if (symbol.equals("OH") || symbol.equals("NH2")) {
+            size = 26;
+        }
+
+        g2d.setColor(getGroupColor(symbol));
+        g2d.fillOval((int)x - size/2, (int)y - size/2, size, size);
+        if (!detailed) return;
+
+        g2d.setColor(Color.WHITE);
+        g2d.setFont(GROUP_FONT);
+        FontMetrics fm = g2d.getFontMetrics();
+        int textX = (int)x - fm.stringWidth(symbol)/2;
+        int textY = (int)y + fm.getAscent()/2 - 2;
+        g2d.drawString(symbol, textX, textY);
+    }
+
+    // Координаты в мире не округляются: при увеличении округление было бы заметно
+    private void drawLine(Graphics2D g2d, double x1, double y1, double x2, double y2) {
+        line.setLine(x1, y1, x2, y2);
+        g2d.draw(line);
+    }
+
+    private void drawBond(Graphics2D g2d, int bond, Stroke stroke, boolean detailed) {
+        int a = graph.getBondStart(bond);
+        int b = graph.getBondEnd(bond);
+        double x1 = graph.getX(a), y1 = graph.getY(a);
+        double x2 = graph.getX(b), y2 = graph.getY(b);
+
+        g2d.setColor(Color.BLACK);
+        g2d.setStroke(stroke);
+
+        int order = graph.getBondOrder(bond);
+        if (order == 1 || !detailed) {
+            drawLine(g2d, x1, y1, x2, y2);
+            return;
+        }
+        int ring = order == 2 ? rings.smallestRing(bond) : NONE;
+        if (ring != NONE) {
+            drawRingDoubleBond(g2d, ring, x1, y1, x2, y2);
+        } else if (order == 2) {
+            double angle = Math.atan2(y2 - y1, x2 - x1);
+            double perpX = Math.sin(angle) * 5;
+            double perpY = -Math.cos(angle) * 5;
+
+            drawLine(g2d, x1 + perpX, y1 + perpY - 2, x2 + perpX, y2 + perpY - 2);
+            drawLine(g2d, x1, y1, x2, y2);
+        } else {
+            // Тройная связь (из SMILES): по линии с каждой стороны
+            double length = Math.hypot(x2 - x1, y2 - y1);
+            if (length == 0) return;
+            double perpX = -(y2 - y1) / length * 5;
+            double perpY = (x2 - x1) / length * 5;
+            drawLine(g2d, x1, y1, x2, y2);
+            drawLine(g2d, x1 + perpX, y1 + perpY, x2 + perpX, y2 + perpY);
+            drawLine(g2d, x1 - perpX, y1 - perpY, x2 - perpX, y2 - perpY);
+        }
+    }
+
+    // Красное кольцо вокруг узла, у которого связей больше, чем позволяет валентность
+    private void markViolation(Graphics2D g2d, int node, int radius) {
+        if (!formula.isOverValence(node)) return;
+        int x = (int) graph.getX(node);
+        int y = (int) graph.getY(node);
+        g2d.setColor(VIOLATION_COLOR);
+        g2d.setStroke(VIOLATION_STROKE);
+        g2d.drawOval(x - radius, y - radius, 2 * radius, 2 * radius);
+    }
+
+    // Вторая линия двойной связи в кольце - внутри кольца и короче основной
+    private void drawRingDoubleBond(Graphics2D g2d, int ring, double x1, double y1, double x2, double y2) {
+        drawLine(g2d, x1, y1, x2, y2);
+
+        double length = Math.hypot(x2 - x1, y2 - y1);
+        if (length == 0) return;
+        double nx = -(y2 - y1) / length;
+        double ny = (x2 - x1) / length;
+        double toCenterX = rings.getRingCenterX(ring) - (x1 + x2) / 2;
+        double toCenterY = rings.getRingCenterY(ring) - (y1 + y2) / 2;
+        if (nx * toCenterX + ny * toCenterY < 0) {
+            nx = -nx;
+            ny = -ny;
+        }
+
+        double inset = 0.15;
+        double dx = (x2 - x1) * inset;
+        double dy = (y2 - y1) * inset;
+        double offset = 7;
+        drawLine(g2d, x1 + dx + nx * offset, y1 + dy + ny * offset,
+                x2 - dx + nx * offset, y2 - dy + ny * offset);
+    }
+}
@@ -1,12 +1,47 @@
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.awt.event.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MyPanel extends JPanel {
+    private static final int PREVIEW_DELAY_MS = 60;
+
+    // Легенда прижата к правому краю, базовая линия заголовка на y = 100
+    private static final int LEGEND_WIDTH = 200;
+    private static final int LEGEND_HEIGHT = 210;
+    private static final int LEGEND_TOP = 80;
+    private static final int LEGEND_BASELINE = 100 - LEGEND_TOP;
+    private static final Font LEGEND_TITLE_FONT = new Font("Arial", Font.BOLD, 14);
+    private static final Font LEGEND_FONT = new Font("Arial", Font.PLAIN, 12);
+    private static final Font LEGEND_EXAMPLES_FONT = new Font("Arial", Font.PLAIN, 11);
+
+    // Разбор и раскладка вне EDT; поток-демон общий для всех панелей
+    private static final ScheduledExecutorService PARSER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "molecule-preview");
+        t.setDaemon(true);
+        return t;
+    });
+
     private Molecule molecule;
     private JTextField inputField;
     private JLabel infoLabel;
     private JButton drawButton;
+    private JCheckBox livePreviewBox;
+
+    private final AtomicLong parseGeneration = new AtomicLong();
+    private ScheduledFuture<?> pendingParse;
+
+    private BufferedImage moleculeLayer;
+    private BufferedImage legendLayer;
+    private int layerWidth;
+    private int layerHeight;
+    private double layerScaleX;
+    private double layerScaleY;
 
     public MyPanel() {
         setLayout(new BorderLayout());
@@ -39,6 +74,9 @@ public class MyPanel extends JPanel {
         controlPanel.add(inputLabel);
         controlPanel.add(inputField);
         controlPanel.add(drawButton);
+        livePreviewBox = new JCheckBox("Живой просмотр", true);
+        livePreviewBox.setOpaque(false);
+        controlPanel.add(livePreviewBox);
         controlPanel.add(new JSeparator(SwingConstants.VERTICAL));
         controlPanel.add(infoLabel);
 
@@ -56,7 +94,20 @@ public class MyPanel extends JPanel {
             }
         });
 
-        molecule = Molecule.parseMolecule("бутан", getWidth(), getHeight());
+        inputField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                schedulePreview();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                schedulePreview();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
+
+        molecule = Molecule.parseMolecule("бутан");
 
         SwingUtilities.invokeLater(new Runnable() {
             public void run() {
@@ -68,9 +119,7 @@ public class MyPanel extends JPanel {
     private void drawMolecule() {
         String formula = inputField.getText().trim();
         if (!formula.isEmpty()) {
-            molecule = Molecule.parseMolecule(formula, getWidth(), getHeight());
-            updateInfoLabel(formula);
-            repaint();
+            submitParse(formula, 0, true);
         } else {
             JOptionPane.showMessageDialog(this,
                     "Пожалуйста, введите название соединения",
@@ -78,6 +127,59 @@ public class MyPanel extends JPanel {
         }
     }
 
+    private void schedulePreview() {
+        if (!livePreviewBox.isSelected()) return;
+
+        String formula = inputField.getText().trim();
+        if (!formula.isEmpty()) {
+            submitParse(formula, PREVIEW_DELAY_MS, false);
+        }
+    }
+
+    // Новый запрос отменяет отложенный и делает устаревшим уже идущий разбор
+    private void submitParse(String formula, int delayMs, boolean reportErrors) {
+        long generation = parseGeneration.incrementAndGet();
+        if (pendingParse != null) {
+            pendingParse.cancel(false);
+        }
+
+        pendingParse = PARSER.schedule(() -> {
+            if (parseGeneration.get() != generation) return;
+
+            Molecule parsed;
+            try {
+                parsed = Molecule.parseMolecule(formula);
+                // Раскладка и план с GlyphVector строятся здесь же, а не при первой
+                // перерисовке: потоку событий остаётся только наложить преобразование
+                parsed.getLayout();
+                parsed.getRenderPlan();
+            } catch (RuntimeException ex) {
+                // Иначе исключение осталось бы в ScheduledFuture и нажатие ничего бы не показало
+                String message = ex instanceof IllegalArgumentException
+                        ? ex.getMessage() : "Не удалось построить молекулу: " + ex;
+                SwingUtilities.invokeLater(() -> {
+                    if (parseGeneration.get() != generation) return;
+                    if (reportErrors) {
+                        JOptionPane.showMessageDialog(this, message,
+                                "Ошибка", JOptionPane.ERROR_MESSAGE);
+                    } else {
+                        infoLabel.setText(message);
+                    }
+                });
+                return;
+            }
+            if (parseGeneration.get() != generation) return;
+
+            SwingUtilities.invokeLater(() -> {
+                if (parseGeneration.get() != generation) return;
+                molecule = parsed;
+                moleculeLayer = null;
+                updateInfoLabel(formula);
+                repaint();
+            });
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
     private void updateInfoLabel(String formula) {
         if (molecule != null) {
             String info = formula + " - цепь из " + molecule.getCarbonCount() + " атомов C";
@@ -88,25 +190,74 @@ public class MyPanel extends JPanel {
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
 
-        g.setColor(Color.WHITE);
-        g.fillRect(0, 0, getWidth(), getHeight());
+        int width = getWidth();
+        int height = getHeight();
+        if (width <= 0 || height <= 0) return;
 
-        if (molecule != null) {
-            molecule.draw(g);
+        // Слои пересобираются только при смене молекулы, размера или масштаба экрана;
+        // остальные перерисовки сводятся к копированию готовых изображений
+        Graphics2D g2d = (Graphics2D) g;
+        GraphicsConfiguration gc = g2d.getDeviceConfiguration();
+        AffineTransform device = gc.getDefaultTransform();
+        double scaleX = device.getScaleX();
+        double scaleY = device.getScaleY();
+
+        if (scaleX != layerScaleX || scaleY != layerScaleY) {
+            moleculeLayer = null;
+            legendLayer = null;
+            layerScaleX = scaleX;
+            layerScaleY = scaleY;
+        }
+        if (width != layerWidth || height != layerHeight) {
+            moleculeLayer = null;
+            layerWidth = width;
+            layerHeight = height;
         }
 
-        drawLegend(g);
+        if (moleculeLayer == null) {
+            moleculeLayer = createLayer(gc, width, height, Transparency.OPAQUE);
+            Graphics2D layer = layerGraphics(moleculeLayer);
+            layer.setColor(Color.WHITE);
+            layer.fillRect(0, 0, width, height);
+            if (molecule != null) {
+                molecule.draw(layer, width, height);
+            }
+            layer.dispose();
+        }
+
+        if (legendLayer == null) {
+            legendLayer = createLayer(gc, LEGEND_WIDTH, LEGEND_HEIGHT, Transparency.TRANSLUCENT);
+            Graphics2D layer = layerGraphics(legendLayer);
+            drawLegend(layer);
+            layer.dispose();
+        }
+
+        g2d.drawImage(moleculeLayer, 0, 0, width, height, null);
+        g2d.drawImage(legendLayer, width - LEGEND_WIDTH, LEGEND_TOP, LEGEND_WIDTH, LEGEND_HEIGHT, null);
+    }
+
+    // Слой в пикселях устройства, чтобы на экранах с масштабом не было размытия
+    private BufferedImage createLayer(GraphicsConfiguration gc, int width, int height, int transparency) {
+        return gc.createCompatibleImage((int) Math.ceil(width * layerScaleX),
+                (int) Math.ceil(height * layerScaleY), transparency);
+    }
+
+    private Graphics2D layerGraphics(BufferedImage image) {
+        Graphics2D g2d = image.createGraphics();
+        g2d.scale(layerScaleX, layerScaleY);
+        return g2d;
     }
 
+    // Легенда рисуется в собственных координатах слоя
     private void drawLegend(Graphics g) {
-        int legendX = getWidth() - 200;
-        int legendY = 100;
+        int legendX = 0;
+        int legendY = LEGEND_BASELINE;
 
         g.setColor(Color.BLACK);
-        g.setFont(new Font("Arial", Font.BOLD, 14));
+        g.setFont(LEGEND_TITLE_FONT);
         g.drawString("Легенда:", legendX, legendY);
 
-        g.setFont(new Font("Arial", Font.PLAIN, 12));
+        g.setFont(LEGEND_FONT);
 
         g.setColor(Color.BLACK);
         g.drawLine(legendX, legendY + 20, legendX + 40, legendY + 20);
@@ -123,7 +274,7 @@ public class MyPanel extends JPanel {
         g.drawString("- атом углерода", legendX + 50, legendY + 65);
 
         g.setColor(Color.DARK_GRAY);
-        g.setFont(new Font("Arial", Font.PLAIN, 11));
+        g.setFont(LEGEND_EXAMPLES_FONT);
         g.drawString("Примеры ввода:", legendX, legendY + 90);
         g.drawString("• метан", legendX + 10, legendY + 110);
         g.drawString("• этан", legendX + 10, legendY + 125);
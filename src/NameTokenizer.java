@@ -0,0 +1,233 @@
+import java.util.Arrays;
+
+public class NameTokenizer {
+
+    public static final int END = 0;
+    public static final int LOCANT = 1;
+    public static final int COMMA = 2;
+    public static final int NUMERAL = 3;
+    public static final int TENS = 4;
+    public static final int TENS_MULTIPLIER = 5;
+    public static final int HUNDREDS = 6;
+    public static final int HUNDREDS_MULTIPLIER = 7;
+    public static final int STEM = 8;
+    public static final int SUFFIX_ANE = 9;
+    public static final int SUFFIX_YL = 10;
+    public static final int HETERO = 11;
+    public static final int CHAIN_LENGTH = 12;
+    public static final int UNKNOWN = 13;
+
+    // Соединительная гласная ("тетр-а-метил"), наружу не выдаётся
+    private static final int CONNECTOR = 14;
+
+    public static final int HETERO_CL = 0;
+    public static final int HETERO_BR = 1;
+    public static final int HETERO_F = 2;
+    public static final int HETERO_I = 3;
+    public static final int HETERO_OH = 4;
+
+    private static final int ALPHABET_LIMIT = 0x0460;
+    private static final int MAX_NUMBER = 100_000_000;
+
+    // ===== ДКА, строится один раз из таблиц лексикона =====
+    private static final byte[] CHAR_CLASS = new byte[ALPHABET_LIMIT];
+    private static int alphabetSize = 1;
+    private static int[] transitions = new int[0];
+    private static int[] acceptKind = new int[0];
+    private static int[] acceptValue = new int[0];
+    private static int stateCount = 0;
+
+    static {
+        String[][] stems = {
+                {"мет", "1"}, {"эт", "2"}, {"проп", "3"}, {"бут", "4"}
+        };
+        // Кратные приставки и единицы систематических названий (ун-дек-ан, до-три-а-конт-ан)
+        String[][] numerals = {
+                {"ун", "1"}, {"ген", "1"}, {"до", "2"}, {"ди", "2"}, {"три", "3"}, {"тетр", "4"},
+                {"пент", "5"}, {"гекс", "6"}, {"гепт", "7"}, {"окт", "8"}, {"нон", "9"}
+        };
+        String[][] tens = {
+                {"дек", "10"}, {"дец", "10"}, {"эйкоз", "20"}, {"ейкоз", "20"}, {"икоз", "20"}, {"коз", "20"}
+        };
+        String[][] hetero = {
+                {"хлор", "0"}, {"бром", "1"}, {"фтор", "2"}, {"йод", "3"},
+                {"гидрокси", "4"}, {"окси", "4"}
+        };
+        // Числовая форма: C12, С100000 (латинская или русская буква)
+        String[] chainLength = {"c", "с"};
+
+        StringBuilder letters = new StringBuilder("аанилконтгектк");
+        for (String[][] table : new String[][][]{stems, numerals, tens, hetero}) {
+            for (String[] e : table) letters.append(e[0]);
+        }
+        for (String word : chainLength) letters.append(word);
+        for (int i = 0; i < letters.length(); i++) {
+            char c = letters.charAt(i);
+            if (CHAR_CLASS[c] == 0) {
+                CHAR_CLASS[c] = (byte) alphabetSize++;
+            }
+        }
+
+        newState();
+        addWord("а", CONNECTOR, 0);
+        addWord("ан", SUFFIX_ANE, 0);
+        addWord("ил", SUFFIX_YL, 0);
+        addWord("конт", TENS_MULTIPLIER, 10);
+        addWord("гект", HUNDREDS, 100);
+        addWord("кт", HUNDREDS_MULTIPLIER, 100);
+        for (String[] e : stems) addWord(e[0], STEM, Integer.parseInt(e[1]));
+        for (String[] e : numerals) addWord(e[0], NUMERAL, Integer.parseInt(e[1]));
+        for (String[] e : tens) addWord(e[0], TENS, Integer.parseInt(e[1]));
+        for (String[] e : hetero) addWord(e[0], HETERO, Integer.parseInt(e[1]));
+        for (String word : chainLength) addWord(word, CHAIN_LENGTH, 0);
+    }
+
+    private static int newState() {
+        int state = stateCount++;
+        if (stateCount * alphabetSize > transitions.length) {
+            int capacity = Math.max(16, stateCount * 2);
+            transitions = Arrays.copyOf(transitions, capacity * alphabetSize);
+            acceptKind = Arrays.copyOf(acceptKind, capacity);
+            acceptValue = Arrays.copyOf(acceptValue, capacity);
+        }
+        acceptKind[state] = -1;
+        return state;
+    }
+
+    private static void addWord(String word, int kind, int value) {
+        int state = 0;
+        for (int i = 0; i < word.length(); i++) {
+            int slot = state * alphabetSize + CHAR_CLASS[word.charAt(i)];
+            if (transitions[slot] == 0) {
+                int next = newState();
+                transitions[slot] = next;
+            }
+            state = transitions[slot];
+        }
+        acceptKind[state] = kind;
+        acceptValue[state] = value;
+    }
+
+    private static int charClass(char c) {
+        c = Character.toLowerCase(c);
+        return c < ALPHABET_LIMIT ? CHAR_CLASS[c] : 0;
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == '-' || Character.isWhitespace(c);
+    }
+
+    // ===== Курсор по строке: токены выдаются без аллокаций =====
+    private static final int MAX_MATCHES = 8;
+
+    private CharSequence source;
+    private int pos;
+    private int value;
+    private final int[] matchStates = new int[MAX_MATCHES];
+    private final int[] matchEnds = new int[MAX_MATCHES];
+
+    public NameTokenizer(CharSequence source) {
+        reset(source);
+    }
+
+    public void reset(CharSequence source) {
+        this.source = source;
+        this.pos = 0;
+        this.value = 0;
+    }
+
+    public int value() {
+        return value;
+    }
+
+    // Позиция сразу за последним выданным токеном
+    public int position() {
+        return pos;
+    }
+
+    private boolean canContinue(int from) {
+        if (from >= source.length()) return true;
+
+        char c = source.charAt(from);
+        if (isSeparator(c) || c == ',' || (c >= '0' && c <= '9')) return true;
+
+        int state = 0;
+        for (int i = from; i < source.length(); i++) {
+            int cls = charClass(source.charAt(i));
+            if (cls == 0) return false;
+            state = transitions[state * alphabetSize + cls];
+            if (state == 0) return false;
+            if (acceptKind[state] >= 0) return true;
+        }
+        return false;
+    }
+
+    public int next() {
+        int length = source.length();
+        while (pos < length) {
+            char c = source.charAt(pos);
+
+            if (isSeparator(c)) {
+                pos++;
+                continue;
+            }
+
+            if (c >= '0' && c <= '9') {
+                int number = 0;
+                while (pos < length && (c = source.charAt(pos)) >= '0' && c <= '9') {
+                    if (number < MAX_NUMBER) {
+                        number = number * 10 + (c - '0');
+                    }
+                    pos++;
+                }
+                value = number;
+                return LOCANT;
+            }
+
+            if (c == ',') {
+                pos++;
+                return COMMA;
+            }
+
+            // Самое длинное совпадение по ДКА, после которого разбор может продолжиться:
+            // "нон-а-конт-а-нон-а-кт-ан", а не "...конт-ан-он..."
+            int matches = 0;
+            int state = 0;
+            for (int i = pos; i < length && matches < MAX_MATCHES; i++) {
+                int cls = charClass(source.charAt(i));
+                if (cls == 0) break;
+                state = transitions[state * alphabetSize + cls];
+                if (state == 0) break;
+                if (acceptKind[state] >= 0) {
+                    matchStates[matches] = state;
+                    matchEnds[matches] = i + 1;
+                    matches++;
+                }
+            }
+
+            if (matches == 0) {
+                pos++;
+                value = 0;
+                return UNKNOWN;
+            }
+
+            int chosen = matches - 1;
+            while (chosen > 0 && !canContinue(matchEnds[chosen])) {
+                chosen--;
+            }
+            if (!canContinue(matchEnds[chosen])) {
+                chosen = matches - 1;
+            }
+
+            int matchKind = acceptKind[matchStates[chosen]];
+            int matchEnd = matchEnds[chosen];
+            value = acceptValue[matchStates[chosen]];
+
+            pos = matchEnd;
+            if (matchKind != CONNECTOR) {
+                return matchKind;
+            }
+        }
+        return END;
+    }
+}
@@ -0,0 +1,183 @@
+import java.util.Random;
+
+// Регрессионные проверки без внешних зависимостей:
+// java -cp MolChemView.jar RegressionTests
+// Разбор названий (верные и ошибочные) и канонический SMILES: разные записи
+// одной молекулы и любой порядок добавления атомов и связей дают одну строку.
+// При ошибке печатает её и завершается с кодом 1.
+public class RegressionTests {
+
+    private static final int PERMUTATIONS = 200;
+
+    // Название → число атомов C главной цепи
+    private static final Object[][] VALID_NAMES = {
+            {"метан", 1}, {"бутан", 4}, {"гексан", 6}, {"декан", 10}, {"ундекан", 11},
+            {"эйкозан", 20}, {"дотриаконтан", 32}, {"гектан", 100}, {"нонаконтанонактан", 990},
+            {"C12", 12}, {"С1000", 1000},
+            {"2-метилпропан", 3}, {"2-хлорпропан", 3}, {"2,3-диметилбутан", 4},
+            {"2,2,3,3-тетраметилбутан", 4}, {"2,3,4-триметилпентан", 5}, {"2-метил-3-хлорбутан", 4},
+            {"2-этилгексан", 6}, {"1,2-дихлорэтан", 2}, {"1,1,1-трихлорэтан", 2},
+            {"тетрахлорметан", 1}, {"дихлорметан", 1}, {"хлорэтан", 2},
+            // Алкил на конце цепи удлиняет её
+            {"1-метилбутан", 5}, {"метилэтан", 3}, {"метилметан", 2},
+            {"  2-Метил-Пропан ", 3}
+    };
+
+    private static final String[] INVALID_NAMES = {
+            "", "   ", "-", "циклогексан", "бутанол", "2-метилпропанол", "бутанметил",
+            "99-метилбутан", "0-метилбутан",
+            // Без номеров
+            "метилбутан", "метилпропан", "тетраметилбутан", "гексахлорэтан",
+            // Лишние части названия
+            "октаноктан", "дектриаконтан", "дибутан", "тетрабутан", "ди", "2-метил",
+            // Номера без заместителя и неверное их число
+            "2-бутан", "бутан3", "2-метилбутан2", "2,3метилбутан", "2,-метилпропан", ",2-метилпропан",
+            "2-диметилбутан"
+    };
+
+    // Записи одной молекулы: Кекуле с разным расположением двойных связей и ароматическая
+    private static final String[][] SAME_MOLECULE = {
+            {"CC1=C(C)C=CC=C1", "CC1=CC=CC=C1C", "Cc1ccccc1C"},
+            {"OC1=C(Cl)C=CC=C1", "OC1=CC=CC=C1Cl", "Oc1ccccc1Cl"},
+            {"C1=CC=C2C=CC=CC2=C1", "C1=CC2=CC=CC=C2C=C1", "c1ccc2ccccc2c1"},
+            {"C1=CC=C(C=C1)C1=CC=CC=C1", "c1ccccc1-c1ccccc1"},
+            {"C1=CC=NC=C1", "N1=CC=CC=C1", "c1ccncc1"},
+            {"OC(=O)C1=CC=CC=C1", "O=C(O)c1ccccc1"},
+            {"C1=CC=C2C(=C1)C1=CC=CC=C1C2"},
+            {"CC(c1ccccc1)CC(c1ccccc1)"},
+            {"C1=CC=CC1"}, {"C1=CCCC=C1"}, {"C=CC=C"}, {"CC#CC"}, {"C1CC1"},
+            {"CC(C)(C)C", "C(C)(C)(C)C"}, {"ClC(Cl)(Cl)Cl"}
+    };
+
+    private static int checks;
+    private static int failures;
+
+    public static void main(String[] args) {
+        checkNames();
+        checkCanonicalSmiles();
+
+        System.out.println("Проверок: " + checks + ", ошибок: " + failures);
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void checkNames() {
+        for (Object[] entry : VALID_NAMES) {
+            String name = (String) entry[0];
+            int carbons = (Integer) entry[1];
+            try {
+                int actual = Molecule.parseMolecule(name).getCarbonCount();
+                check(actual == carbons, "«" + name + "»: " + actual + " атомов C вместо " + carbons);
+            } catch (IllegalArgumentException e) {
+                check(false, "«" + name + "» отвергнуто: " + e.getMessage());
+            }
+        }
+        for (String name : INVALID_NAMES) {
+            // Дважды: ошибка не должна попадать в кэш как готовая молекула
+            for (int attempt = 0; attempt < 2; attempt++) {
+                try {
+                    Molecule.parseMolecule(name);
+                    check(false, "«" + name + "» принято, ожидалась ошибка");
+                } catch (IllegalArgumentException e) {
+                    check(true, null);
+                }
+            }
+        }
+    }
+
+    private static void checkCanonicalSmiles() {
+        Random random = new Random(42);
+        for (String[] forms : SAME_MOLECULE) {
+            String expected = null;
+            for (String smiles : forms) {
+                String actual;
+                try {
+                    actual = SmilesWriter.write(build(SmilesReader.parse(smiles), null));
+                } catch (IllegalArgumentException e) {
+                    check(false, smiles + " отвергнуто: " + e.getMessage());
+                    continue;
+                }
+                if (expected == null) {
+                    expected = actual;
+                } else {
+                    check(expected.equals(actual), smiles + " → " + actual + ", ожидалось " + expected);
+                }
+            }
+            if (expected == null) continue;
+
+            // Запись читается обратно в ту же строку
+            String again = SmilesWriter.write(build(SmilesReader.parse(expected), null));
+            check(expected.equals(again), expected + " после повторного чтения → " + again);
+
+            SmilesReader.Structure structure = SmilesReader.parse(forms[0]);
+            for (int i = 0; i < PERMUTATIONS; i++) {
+                String actual = SmilesWriter.write(build(structure, random));
+                if (!check(expected.equals(actual), forms[0] + " в случайном порядке → " + actual
+                        + ", ожидалось " + expected)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    // Атомы, группы и связи добавляются в перемешанном порядке (random == null - как прочитано),
+    // концы связей меняются местами: каноническая запись от этого зависеть не должна
+    private static BuilderGraph build(SmilesReader.Structure structure, Random random) {
+        int n = structure.atomCount();
+        int[] nodeOrder = order(n, random);
+        int[] bondOrder = order(structure.bondCount(), random);
+        int[] node = new int[n];
+        BuilderGraph graph = new BuilderGraph(80);
+
+        for (int pass = 0; pass < 2; pass++) {
+            for (int k = 0; k < n; k++) {
+                int i = nodeOrder[k];
+                boolean group = !"C".equals(structure.symbols[i]);
+                if (group != (pass == 1)) continue;
+                double x = k * 40;
+                double y = (k % 2) * 40;
+                node[i] = group
+                        ? graph.addGroup(structure.symbols[i], x, y, node[structure.attachedTo[i]])
+                        : graph.addAtom(x, y);
+            }
+        }
+        for (int k = 0; k < bondOrder.length; k++) {
+            int b = bondOrder[k];
+            int start = node[structure.bondStart[b]];
+            int end = node[structure.bondEnd[b]];
+            if (random != null && random.nextBoolean()) {
+                int t = start;
+                start = end;
+                end = t;
+            }
+            graph.addBond(start, end, structure.bondOrder[b]);
+        }
+        return graph;
+    }
+
+    private static int[] order(int size, Random random) {
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        if (random != null) {
+            for (int i = size - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int t = order[i];
+                order[i] = order[j];
+                order[j] = t;
+            }
+        }
+        return order;
+    }
+
+    private static boolean check(boolean ok, String message) {
+        checks++;
+        if (!ok) {
+            failures++;
+            System.out.println("ОШИБКА: " + message);
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,629 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+// Кольца графа конструктора: наименьший набор наименьших колец (SSSR).
+// Набор поддерживается по событиям графа и пересчитывается только для
+// кольцевой системы, которую задела правка, - связной части графа из
+// циклических связей. Висячие связи (продолжение цепи) кольца не затрагивают
+// и обходятся за O(1); замыкание кольца ищет путь между концами связи двусторонним
+// обходом, который останавливается, как только одна из сторон исчерпана.
+public class RingPerception implements BuilderGraph.Listener {
+
+    private static final int NONE = BuilderGraph.NONE;
+
+    private final BuilderGraph graph;
+
+    // Кольца по номерам; null - свободный слот
+    private final ArrayList<int[]> ringAtoms = new ArrayList<>();
+    private final ArrayList<int[]> ringBonds = new ArrayList<>();
+    private final IntList freeRings = new IntList();
+    private int ringCount;
+
+    // Кольца, в которые входит связь, и число колец у узла
+    private IntList[] bondRings = new IntList[16];
+    private int[] nodeRings = new int[16];
+
+    // Временные пометки сравниваются с поколением, поэтому массивы не очищаются
+    private int generation;
+    private int[] seenA = new int[16];
+    private int[] seenB = new int[16];
+    private int[] parentA = new int[16];
+    private int[] parentB = new int[16];
+    private int[] systemNode = new int[16];
+    private int[] systemBond = new int[16];
+    private int[] extraBond = new int[16];
+    private int[] localBond = new int[16];
+    private int[] localNode = new int[16];
+    private final IntList queueA = new IntList();
+    private final IntList queueB = new IntList();
+
+    public RingPerception(BuilderGraph graph) {
+        this.graph = graph;
+        graph.addListener(this);
+        graphReset();
+    }
+
+    // ===== Запросы =====
+
+    public int ringCount() {
+        return ringCount;
+    }
+
+    // Верхняя граница номеров колец; пропуски - свободные слоты
+    public int ringLimit() {
+        return ringAtoms.size();
+    }
+
+    public boolean isRingAlive(int ring) {
+        return ring >= 0 && ring < ringAtoms.size() && ringAtoms.get(ring) != null;
+    }
+
+    // Узлы кольца в порядке обхода
+    public int[] getRingAtoms(int ring) {
+        return ringAtoms.get(ring).clone();
+    }
+
+    public int[] getRingBonds(int ring) {
+        return ringBonds.get(ring).clone();
+    }
+
+    public int getRingSize(int ring) {
+        return ringAtoms.get(ring).length;
+    }
+
+    public double getRingCenterX(int ring) {
+        double sum = 0;
+        for (int node : ringAtoms.get(ring)) {
+            sum += graph.getX(node);
+        }
+        return sum / ringAtoms.get(ring).length;
+    }
+
+    public double getRingCenterY(int ring) {
+        double sum = 0;
+        for (int node : ringAtoms.get(ring)) {
+            sum += graph.getY(node);
+        }
+        return sum / ringAtoms.get(ring).length;
+    }
+
+    public boolean isInRing(int node) {
+        return getRingCount(node) > 0;
+    }
+
+    public int getRingCount(int node) {
+        return node >= 0 && node < nodeRings.length ? nodeRings[node] : 0;
+    }
+
+    public boolean isBondInRing(int bond) {
+        return bond >= 0 && bond < bondRings.length && bondRings[bond] != null && !bondRings[bond].isEmpty();
+    }
+
+    // Номера колец, содержащих связь
+    public int[] getBondRings(int bond) {
+        return isBondInRing(bond) ? bondRings[bond].toArray() : new int[0];
+    }
+
+    // Наименьшее кольцо со связью или NONE
+    public int smallestRing(int bond) {
+        if (!isBondInRing(bond)) return NONE;
+        IntList rings = bondRings[bond];
+        int best = rings.get(0);
+        for (int i = 1; i < rings.size(); i++) {
+            if (ringAtoms.get(rings.get(i)).length < ringAtoms.get(best).length) {
+                best = rings.get(i);
+            }
+        }
+        return best;
+    }
+
+    // ===== События графа =====
+
+    @Override
+    public void nodeAdded(int node) {
+        ensureNodeCapacity(node + 1);
+        nodeRings[node] = 0;
+    }
+
+    @Override
+    public void bondAdded(int bond) {
+        ensureBondCapacity(bond + 1);
+        int start = graph.getBondStart(bond);
+        int end = graph.getBondEnd(bond);
+        // У одного из концов других связей нет - связь висячая
+        if (graph.getDegree(start) == 1 || graph.getDegree(end) == 1) return;
+
+        IntList path = findPath(start, end, bond);
+        if (path == null) return;
+
+        // Мосты на найденном пути и сама связь становятся циклическими;
+        // остальные связи пути уже лежат в кольцевых системах
+        int extra = ++generation;
+        for (int i = 0; i < path.size(); i++) {
+            extraBond[path.get(i)] = extra;
+        }
+        extraBond[bond] = extra;
+        rebuildSystem(new int[]{start}, extra);
+    }
+
+    @Override
+    public void bondRemoved(int bond, int start, int end, int order) {
+        if (!isBondInRing(bond)) return;
+
+        // Кольца со связью исчезают, а система могла распасться на две. Их связи
+        // помечаются: сумма двух снятых колец может остаться циклом
+        int extra = ++generation;
+        IntList dropped = bondRings[bond];
+        while (!dropped.isEmpty()) {
+            int ring = dropped.get(dropped.size() - 1);
+            for (int b : ringBonds.get(ring)) {
+                extraBond[b] = extra;
+            }
+            removeRing(ring);
+        }
+        rebuildSystem(new int[]{start, end}, extra);
+    }
+
+    // Вставленный фрагмент ни с чем, кроме себя, не связан: мосты ищутся и
+    // системы строятся только в нём, за O(фрагмента)
+    @Override
+    public void fragmentInserted(int[] nodes, int[] bonds) {
+        ensureNodeCapacity(graph.nodeLimit());
+        ensureBondCapacity(graph.bondLimit());
+        for (int node : nodes) {
+            nodeRings[node] = 0;
+        }
+        buildSystems(nodes);
+    }
+
+    // Полный пересчёт - только после очистки или восстановления снимка
+    @Override
+    public void graphReset() {
+        ringAtoms.clear();
+        ringBonds.clear();
+        freeRings.clear();
+        ringCount = 0;
+        ensureNodeCapacity(graph.nodeLimit());
+        ensureBondCapacity(graph.bondLimit());
+        Arrays.fill(nodeRings, 0);
+        Arrays.fill(bondRings, null);
+
+        IntList alive = new IntList();
+        for (int node = 0; node < graph.nodeLimit(); node++) {
+            if (graph.isAlive(node)) alive.add(node);
+        }
+        buildSystems(alive.toArray());
+    }
+
+    // Кольцевые системы набора узлов, замкнутого по связям
+    private void buildSystems(int[] nodes) {
+        int cyclic = markCyclicBonds(nodes);
+        for (int node : nodes) {
+            if (nodeRings[node] > 0) continue;
+            for (int h = graph.firstHalfEdge(node); h != NONE; h = graph.nextHalfEdge(h)) {
+                if (extraBond[BuilderGraph.halfEdgeBond(h)] == cyclic) {
+                    rebuildSystem(new int[]{node}, cyclic);
+                    break;
+                }
+            }
+        }
+    }
+
+    // Связи, не являющиеся мостами (мосты Тарьяна, итеративно); возвращает поколение пометки.
+    // Связи узлов набора не должны выходить за набор: массивы обхода - по его индексам
+    private int markCyclicBonds(int[] nodes) {
+        int mark = ++generation;
+        int count = nodes.length;
+        for (int i = 0; i < count; i++) {
+            localNode[nodes[i]] = i;
+        }
+        int[] order = new int[count];
+        int[] low = new int[count];
+        int[] edge = new int[count];
+        int[] parentEdge = new int[count];
+        int[] stack = new int[count];
+        int time = 0;
+
+        for (int r = 0; r < count; r++) {
+            if (order[r] != 0) continue;
+            int top = 0;
+            stack[top++] = r;
+            order[r] = low[r] = ++time;
+            edge[r] = graph.firstHalfEdge(nodes[r]);
+            parentEdge[r] = NONE;
+
+            while (top > 0) {
+                int local = stack[top - 1];
+                int h = edge[local];
+                if (h != NONE) {
+                    edge[local] = graph.nextHalfEdge(h);
+                    if (parentEdge[local] != NONE && (h >> 1) == (parentEdge[local] >> 1)) continue;
+                    int target = localNode[graph.halfEdgeTarget(h)];
+                    if (order[target] == 0) {
+                        order[target] = low[target] = ++time;
+                        edge[target] = graph.firstHalfEdge(nodes[target]);
+                        parentEdge[target] = h;
+                        stack[top++] = target;
+                    } else {
+                        // Обратная связь всегда лежит на цикле
+                        low[local] = Math.min(low[local], order[target]);
+                        extraBond[h >> 1] = mark;
+                    }
+                } else {
+                    top--;
+                    int h2 = parentEdge[local];
+                    if (h2 == NONE) continue;
+                    int parent = stack[top - 1];
+                    low[parent] = Math.min(low[parent], low[local]);
+                    if (low[local] <= order[parent]) {
+                        extraBond[h2 >> 1] = mark;
+                    }
+                }
+            }
+        }
+        return mark;
+    }
+
+    // ===== Поиск пути при замыкании =====
+
+    // Связи какого-нибудь пути между a и b в обход связи excluded; null, если пути нет.
+    // Стороны расширяются по очереди, поэтому работа не больше удвоенной меньшей компоненты.
+    private IntList findPath(int a, int b, int excluded) {
+        int gen = ++generation;
+        queueA.clear();
+        queueB.clear();
+        seenA[a] = gen;
+        parentA[a] = NONE;
+        queueA.add(a);
+        seenB[b] = gen;
+        parentB[b] = NONE;
+        queueB.add(b);
+
+        int headA = 0;
+        int headB = 0;
+        while (headA < queueA.size() && headB < queueB.size()) {
+            IntList path = expand(queueA.get(headA++), excluded, gen, seenA, parentA, queueA, seenB, parentB);
+            if (path != null) return path;
+            path = expand(queueB.get(headB++), excluded, gen, seenB, parentB, queueB, seenA, parentA);
+            if (path != null) return path;
+        }
+        return null;
+    }
+
+    private IntList expand(int node, int excluded, int gen, int[] seen, int[] parent, IntList queue,
+                           int[] otherSeen, int[] otherParent) {
+        for (int h = graph.firstHalfEdge(node); h != NONE; h = graph.nextHalfEdge(h)) {
+            if ((h >> 1) == excluded) continue;
+            int target = graph.halfEdgeTarget(h);
+            if (otherSeen[target] == gen) {
+                IntList path = new IntList();
+                path.add(h >> 1);
+                collectParents(node, parent, path);
+                collectParents(target, otherParent, path);
+                return path;
+            }
+            if (seen[target] != gen) {
+                seen[target] = gen;
+                parent[target] = h;
+                queue.add(target);
+            }
+        }
+        return null;
+    }
+
+    private void collectParents(int node, int[] parent, IntList bonds) {
+        while (parent[node] != NONE) {
+            int h = parent[node];
+            bonds.add(h >> 1);
+            node = otherEnd(h);
+        }
+    }
+
+    // Узел, из которого пришла полусвязь h
+    private int otherEnd(int h) {
+        int bond = h >> 1;
+        return (h & 1) == 0 ? graph.getBondStart(bond) : graph.getBondEnd(bond);
+    }
+
+    // ===== Пересчёт кольцевой системы =====
+
+    // Система - всё, что достижимо от затравок по циклическим связям (в кольце или
+    // помеченным extra); её кольца снимаются и строятся заново
+    private void rebuildSystem(int[] seeds, int extra) {
+        int sysGen = ++generation;
+        IntList nodes = new IntList();
+        IntList bonds = new IntList();
+        for (int seed : seeds) {
+            if (systemNode[seed] == sysGen) continue;
+            systemNode[seed] = sysGen;
+            nodes.add(seed);
+            for (int head = nodes.size() - 1; head < nodes.size(); head++) {
+                int node = nodes.get(head);
+                for (int h = graph.firstHalfEdge(node); h != NONE; h = graph.nextHalfEdge(h)) {
+                    int bond = h >> 1;
+                    if (!isBondInRing(bond) && (extra == NONE || extraBond[bond] != extra)) continue;
+                    if (systemBond[bond] != sysGen) {
+                        systemBond[bond] = sysGen;
+                        localBond[bond] = bonds.size();
+                        bonds.add(bond);
+                    }
+                    int target = graph.halfEdgeTarget(h);
+                    if (systemNode[target] != sysGen) {
+                        systemNode[target] = sysGen;
+                        nodes.add(target);
+                    }
+                }
+            }
+        }
+
+        for (int i = 0; i < bonds.size(); i++) {
+            IntList rings = bondRings[bonds.get(i)];
+            while (rings != null && !rings.isEmpty()) {
+                removeRing(rings.get(rings.size() - 1));
+            }
+        }
+        findSmallestRings(nodes, bonds, sysGen);
+    }
+
+    private static final class Cycle {
+        final int[] atoms;
+        final int[] bonds;
+        final long[] bits;
+
+        Cycle(int[] atoms, int[] bonds, long[] bits) {
+            this.atoms = atoms;
+            this.bonds = bonds;
+            this.bits = bits;
+        }
+    }
+
+    // Кандидаты - кратчайший цикл через каждую связь системы; они отбираются жадно
+    // по длине с проверкой линейной независимости над GF(2). Если их не хватает
+    // до размерности пространства циклов, добавляются циклы Хортона.
+    private void findSmallestRings(IntList nodes, IntList bonds, int sysGen) {
+        int needed = bonds.size() - nodes.size() + components(nodes, sysGen);
+        if (needed <= 0) return;
+
+        ArrayList<Cycle> candidates = new ArrayList<>();
+        for (int i = 0; i < bonds.size(); i++) {
+            Cycle cycle = shortestCycle(bonds.get(i), sysGen, bonds.size());
+            if (cycle != null) candidates.add(cycle);
+        }
+        ArrayList<Cycle> basis = selectIndependent(candidates, needed, bonds.size());
+
+        if (basis.size() < needed) {
+            for (int i = 0; i < nodes.size(); i++) {
+                addHortonCycles(nodes.get(i), bonds, sysGen, candidates);
+            }
+            basis = selectIndependent(candidates, needed, bonds.size());
+        }
+        for (Cycle cycle : basis) {
+            addRing(cycle.atoms, cycle.bonds);
+        }
+    }
+
+    private int components(IntList nodes, int sysGen) {
+        int gen = ++generation;
+        int count = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            int root = nodes.get(i);
+            if (seenA[root] == gen) continue;
+            count++;
+            queueA.clear();
+            queueA.add(root);
+            seenA[root] = gen;
+            for (int head = 0; head < queueA.size(); head++) {
+                int node = queueA.get(head);
+                for (int h = graph.firstHalfEdge(node); h != NONE; h = graph.nextHalfEdge(h)) {
+                    int target = graph.halfEdgeTarget(h);
+                    if (systemBond[h >> 1] == sysGen && seenA[target] != gen) {
+                        seenA[target] = gen;
+                        queueA.add(target);
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    // Кратчайший путь от начала связи к её концу внутри системы плюс сама связь
+    private Cycle shortestCycle(int bond, int sysGen, int width) {
+        int from = graph.getBondStart(bond);
+        int to = graph.getBondEnd(bond);
+        int gen = ++generation;
+        queueA.clear();
+        queueA.add(from);
+        seenA[from] = gen;
+        parentA[from] = NONE;
+
+        for (int head = 0; head < queueA.size(); head++) {
+            int node = queueA.get(head);
+            for (int h = graph.firstHalfEdge(node); h != NONE; h = graph.nextHalfEdge(h)) {
+                if ((h >> 1) == bond || systemBond[h >> 1] != sysGen) continue;
+                int target = graph.halfEdgeTarget(h);
+                if (seenA[target] == gen) continue;
+                seenA[target] = gen;
+                parentA[target] = h;
+                if (target == to) {
+                    IntList atoms = new IntList();
+                    IntList cycleBonds = new IntList();
+                    for (int n = to; n != from; n = otherEnd(parentA[n])) {
+                        atoms.add(n);
+                        cycleBonds.add(parentA[n] >> 1);
+                    }
+                    atoms.add(from);
+                    cycleBonds.add(bond);
+                    return cycle(atoms, cycleBonds, width);
+                }
+                queueA.add(target);
+            }
+        }
+        return null;
+    }
+
+    // Циклы Хортона для вершины root: путь root..x, связь (x, y), путь y..root,
+    // если пути в дереве кратчайших путей пересекаются только в root
+    private void addHortonCycles(int root, IntList bonds, int sysGen, ArrayList<Cycle> candidates) {
+        int gen = ++generation;
+        queueB.clear();
+        queueB.add(root);
+        seenB[root] = gen;
+        parentB[root] = NONE;
+        for (int head = 0; head < queueB.size(); head++) {
+            int node = queueB.get(head);
+            for (int h = graph.firstHalfEdge(node); h != NONE; h = graph.nextHalfEdge(h)) {
+                int target = graph.halfEdgeTarget(h);
+                if (systemBond[h >> 1] == sysGen && seenB[target] != gen) {
+                    seenB[target] = gen;
+                    parentB[target] = h;
+                    queueB.add(target);
+                }
+            }
+        }
+
+        for (int i = 0; i < bonds.size(); i++) {
+            int bond = bonds.get(i);
+            int x = graph.getBondStart(bond);
+            int y = graph.getBondEnd(bond);
+            if (seenB[x] != gen || seenB[y] != gen) continue;
+            if (parentB[x] != NONE && parentB[x] >> 1 == bond) continue;
+            if (parentB[y] != NONE && parentB[y] >> 1 == bond) continue;
+
+            int pathGen = ++generation;
+            for (int n = x; n != root; n = otherEnd(parentB[n])) {
+                seenA[n] = pathGen;
+            }
+            boolean simple = true;
+            for (int n = y; n != root; n = otherEnd(parentB[n])) {
+                if (seenA[n] == pathGen) {
+                    simple = false;
+                    break;
+                }
+            }
+            if (!simple) continue;
+
+            // Порядок обхода: root..x, затем y..root
+            IntList atoms = new IntList();
+            IntList cycleBonds = new IntList();
+            IntList toX = new IntList();
+            for (int n = x; n != root; n = otherEnd(parentB[n])) {
+                toX.add(n);
+            }
+            atoms.add(root);
+            for (int k = toX.size() - 1; k >= 0; k--) {
+                int n = toX.get(k);
+                atoms.add(n);
+                cycleBonds.add(parentB[n] >> 1);
+            }
+            cycleBonds.add(bond);
+            for (int n = y; n != root; n = otherEnd(parentB[n])) {
+                atoms.add(n);
+                cycleBonds.add(parentB[n] >> 1);
+            }
+            candidates.add(cycle(atoms, cycleBonds, bonds.size()));
+        }
+    }
+
+    private Cycle cycle(IntList atoms, IntList bonds, int width) {
+        long[] bits = new long[(width + 63) >> 6];
+        for (int i = 0; i < bonds.size(); i++) {
+            int local = localBond[bonds.get(i)];
+            bits[local >> 6] |= 1L << local;
+        }
+        return new Cycle(atoms.toArray(), bonds.toArray(), bits);
+    }
+
+    // Жадный отбор коротких независимых циклов: вектор сокращается строками базиса
+    // по младшему биту; ненулевой остаток означает независимость
+    private static ArrayList<Cycle> selectIndependent(ArrayList<Cycle> candidates, int needed, int width) {
+        candidates.sort((c1, c2) -> Integer.compare(c1.bonds.length, c2.bonds.length));
+        long[][] rowByPivot = new long[width][];
+        ArrayList<Cycle> basis = new ArrayList<>();
+        for (Cycle candidate : candidates) {
+            if (basis.size() == needed) break;
+            long[] vector = candidate.bits.clone();
+            int pivot = lowestBit(vector);
+            while (pivot >= 0 && rowByPivot[pivot] != null) {
+                long[] row = rowByPivot[pivot];
+                for (int w = 0; w < vector.length; w++) {
+                    vector[w] ^= row[w];
+                }
+                pivot = lowestBit(vector);
+            }
+            if (pivot >= 0) {
+                rowByPivot[pivot] = vector;
+                basis.add(candidate);
+            }
+        }
+        return basis;
+    }
+
+    private static int lowestBit(long[] vector) {
+        for (int w = 0; w < vector.length; w++) {
+            if (vector[w] != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(vector[w]);
+            }
+        }
+        return -1;
+    }
+
+    // ===== Хранение колец =====
+
+    private void addRing(int[] atoms, int[] bonds) {
+        int ring;
+        if (!freeRings.isEmpty()) {
+            ring = freeRings.removeLast();
+            ringAtoms.set(ring, atoms);
+            ringBonds.set(ring, bonds);
+        } else {
+            ring = ringAtoms.size();
+            ringAtoms.add(atoms);
+            ringBonds.add(bonds);
+        }
+        for (int node : atoms) {
+            nodeRings[node]++;
+        }
+        for (int bond : bonds) {
+            if (bondRings[bond] == null) {
+                bondRings[bond] = new IntList(2);
+            }
+            bondRings[bond].add(ring);
+        }
+        ringCount++;
+    }
+
+    private void removeRing(int ring) {
+        for (int node : ringAtoms.get(ring)) {
+            nodeRings[node]--;
+        }
+        for (int bond : ringBonds.get(ring)) {
+            IntList rings = bondRings[bond];
+            rings.swapRemove(rings.indexOf(ring));
+        }
+        ringAtoms.set(ring, null);
+        ringBonds.set(ring, null);
+        freeRings.add(ring);
+        ringCount--;
+    }
+
+    private void ensureNodeCapacity(int limit) {
+        if (limit <= nodeRings.length) return;
+        int capacity = Math.max(limit, nodeRings.length * 2);
+        nodeRings = Arrays.copyOf(nodeRings, capacity);
+        seenA = Arrays.copyOf(seenA, capacity);
+        seenB = Arrays.copyOf(seenB, capacity);
+        parentA = Arrays.copyOf(parentA, capacity);
+        parentB = Arrays.copyOf(parentB, capacity);
+        systemNode = Arrays.copyOf(systemNode, capacity);
+        localNode = Arrays.copyOf(localNode, capacity);
+    }
+
+    private void ensureBondCapacity(int limit) {
+        if (limit <= bondRings.length) return;
+        int capacity = Math.max(limit, bondRings.length * 2);
+        bondRings = Arrays.copyOf(bondRings, capacity);
+        systemBond = Arrays.copyOf(systemBond, capacity);
+        extraBond = Arrays.copyOf(extraBond, capacity);
+        localBond = Arrays.copyOf(localBond, capacity);
+    }
+}
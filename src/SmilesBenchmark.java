@@ -0,0 +1,66 @@
+// Замер канонического SMILES без внешних зависимостей:
+// java -cp MolChemView.jar SmilesBenchmark [атомов] [итераций]
+// Сначала прогрев, затем несколько серий; печатается время на одну молекулу.
+public class SmilesBenchmark {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int atoms = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        if (atoms < 6 || iterations < 1) {
+            System.err.println("Использование: java -cp MolChemView.jar SmilesBenchmark [атомов >= 6] [итераций]");
+            System.exit(2);
+        }
+
+        BuilderGraph graph = sampleMolecule(atoms);
+        String smiles = SmilesWriter.write(graph);
+        System.out.println("Атомов: " + graph.nodeCount() + ", связей: " + graph.bondCount()
+                + ", длина SMILES: " + smiles.length());
+
+        // Результат копится, чтобы JIT не выбросил вызов
+        long checksum = 0;
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (int i = 0; i < iterations; i++) {
+                checksum += SmilesWriter.write(graph).length();
+            }
+        }
+
+        for (int round = 1; round <= MEASURED_ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                checksum += SmilesWriter.write(graph).length();
+            }
+            double micros = (System.nanoTime() - start) / 1e3 / iterations;
+            System.out.printf("Серия %d: %.1f мкс на молекулу%n", round, micros);
+        }
+        System.out.println("Контрольная сумма: " + checksum);
+    }
+
+    // Цепь шестичленных колец с заместителями - типичный рисунок в конструкторе
+    private static BuilderGraph sampleMolecule(int atoms) {
+        BuilderGraph graph = new BuilderGraph(80);
+        int previous = BuilderGraph.NONE;
+        int ringStart = BuilderGraph.NONE;
+        String[] groups = {"OH", "Cl", "NH2", "F", "Br"};
+
+        for (int i = 0; graph.nodeCount() < atoms; i++) {
+            int atom = graph.addAtom(i * 40, (i % 2) * 40);
+            if (previous != BuilderGraph.NONE) {
+                graph.addBond(previous, atom, i % 6 == 3 ? 2 : 1);
+            }
+            if (i % 6 == 0) {
+                ringStart = atom;
+            } else if (i % 6 == 5) {
+                graph.addBond(atom, ringStart, 1);
+            }
+            if (i % 7 == 3 && graph.nodeCount() < atoms) {
+                int group = graph.addGroup(groups[i % groups.length], i * 40, 80, atom);
+                graph.addBond(atom, group, 1);
+            }
+            previous = atom;
+        }
+        return graph;
+    }
+}
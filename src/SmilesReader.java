@@ -0,0 +1,459 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+// Разбор SMILES в структуру для конструктора за один проход по строке, без
+// промежуточных лексем. Ароматические кольца кекулизуются: конструктор знает
+// только простые, двойные и тройные связи. Углерод становится атомом,
+// остальные элементы - группами с собственными H: O с одной связью -> OH,
+// N с одной связью -> NH2. Стереохимия отбрасывается; заряды и изотопы
+// не поддерживаются - это ошибка разбора, а не молча изменённая формула.
+public final class SmilesReader {
+
+    private static final int NONE = BuilderGraph.NONE;
+    private static final int AROMATIC = 0;
+
+    // Органическое подмножество и обычные валентности
+    private static final String[] ELEMENTS = {"B", "C", "N", "O", "P", "S", "F", "Cl", "Br", "I"};
+    private static final int[] VALENCE = {3, 4, 3, 2, 3, 2, 1, 1, 1, 1};
+
+    private final String smiles;
+    private int pos;
+
+    private final ArrayList<String> element = new ArrayList<>();
+    private final IntList aromatic = new IntList();
+    // Явное число H из скобок; NONE - неявное
+    private final IntList hydrogens = new IntList();
+    private final IntList bondStart = new IntList();
+    private final IntList bondEnd = new IntList();
+    private final IntList bondOrder = new IntList();
+    private final HashSet<Long> pairs = new HashSet<>();
+
+    private SmilesReader(String smiles) {
+        this.smiles = smiles;
+    }
+
+    // Результат разбора: узлы с символами конструктора и связи между ними
+    public static final class Structure {
+        public final String[] symbols;
+        // Для группы - индекс соседнего атома углерода или NONE
+        public final int[] attachedTo;
+        public final int[] bondStart;
+        public final int[] bondEnd;
+        public final int[] bondOrder;
+
+        private Structure(String[] symbols, int[] attachedTo, int[] bondStart, int[] bondEnd,
+                          int[] bondOrder) {
+            this.symbols = symbols;
+            this.attachedTo = attachedTo;
+            this.bondStart = bondStart;
+            this.bondEnd = bondEnd;
+            this.bondOrder = bondOrder;
+        }
+
+        public int atomCount() {
+            return symbols.length;
+        }
+
+        public int bondCount() {
+            return bondStart.length;
+        }
+    }
+
+    public static Structure parse(String smiles) {
+        if (smiles == null || smiles.trim().isEmpty()) {
+            throw new IllegalArgumentException("Пустая строка SMILES");
+        }
+        SmilesReader reader = new SmilesReader(smiles.trim());
+        reader.read();
+        return reader.toStructure();
+    }
+
+    // ===== Разбор =====
+
+    private void read() {
+        int previous = NONE;
+        int pendingOrder = NONE;
+        IntList branches = new IntList();
+        int[] openAtom = new int[100];
+        int[] openOrder = new int[100];
+        int[] openPos = new int[100];
+        Arrays.fill(openAtom, NONE);
+
+        while (pos < smiles.length()) {
+            char c = smiles.charAt(pos);
+            int at = pos;
+            if (c == '(') {
+                if (previous == NONE) throw error(at, "ветвь без атома");
+                branches.add(previous);
+                pos++;
+            } else if (c == ')') {
+                if (branches.isEmpty()) throw error(at, "лишняя закрывающая скобка");
+                if (pendingOrder != NONE) throw error(at, "связь без второго атома");
+                previous = branches.removeLast();
+                pos++;
+            } else if (c == '.') {
+                if (pendingOrder != NONE) throw error(at, "связь без второго атома");
+                previous = NONE;
+                pos++;
+            } else if (c == '-' || c == '=' || c == '#' || c == ':' || c == '/' || c == '\\') {
+                if (previous == NONE || pendingOrder != NONE) throw error(at, "неожиданная связь");
+                pendingOrder = c == '=' ? 2 : c == '#' ? 3 : c == ':' ? AROMATIC : 1;
+                pos++;
+            } else if (c == '$') {
+                throw error(at, "четверные связи не поддерживаются");
+            } else if (Character.isDigit(c) || c == '%') {
+                if (previous == NONE) throw error(at, "номер кольца без атома");
+                int number = readRingNumber();
+                if (openAtom[number] == NONE) {
+                    openAtom[number] = previous;
+                    openOrder[number] = pendingOrder;
+                    openPos[number] = at;
+                } else {
+                    int partner = openAtom[number];
+                    if (partner == previous) throw error(at, "кольцо замкнуто на тот же атом");
+                    int order = pendingOrder != NONE ? pendingOrder : openOrder[number];
+                    if (pendingOrder != NONE && openOrder[number] != NONE && pendingOrder != openOrder[number]) {
+                        throw error(at, "разные связи на концах кольца " + number);
+                    }
+                    addBond(partner, previous, order);
+                    openAtom[number] = NONE;
+                }
+                pendingOrder = NONE;
+            } else {
+                int atom = readAtom();
+                if (previous != NONE) {
+                    addBond(previous, atom, pendingOrder);
+                }
+                pendingOrder = NONE;
+                previous = atom;
+            }
+        }
+
+        if (pendingOrder != NONE) throw error(pos, "связь без второго атома");
+        if (!branches.isEmpty()) throw error(pos, "не закрыта скобка ветви");
+        for (int number = 0; number < openAtom.length; number++) {
+            if (openAtom[number] != NONE) throw error(openPos[number], "не замкнуто кольцо " + number);
+        }
+    }
+
+    private int readRingNumber() {
+        if (smiles.charAt(pos) != '%') {
+            return smiles.charAt(pos++) - '0';
+        }
+        if (pos + 2 >= smiles.length() || !Character.isDigit(smiles.charAt(pos + 1))
+                || !Character.isDigit(smiles.charAt(pos + 2))) {
+            throw error(pos, "после % нужны две цифры");
+        }
+        int number = (smiles.charAt(pos + 1) - '0') * 10 + (smiles.charAt(pos + 2) - '0');
+        pos += 3;
+        return number;
+    }
+
+    private int readAtom() {
+        int at = pos;
+        char c = smiles.charAt(pos);
+        if (c == '[') {
+            return readBracketAtom();
+        }
+        if (c == '*') {
+            pos++;
+            return addAtom("*", false, 0);
+        }
+        // Двухбуквенные Cl и Br проверяются раньше однобуквенных
+        if (smiles.startsWith("Cl", pos) || smiles.startsWith("Br", pos)) {
+            pos += 2;
+            return addAtom(smiles.substring(at, pos), false, NONE);
+        }
+        if (Character.isUpperCase(c) && elementIndex(String.valueOf(c)) >= 0) {
+            pos++;
+            return addAtom(String.valueOf(c), false, NONE);
+        }
+        if ("bcnops".indexOf(c) >= 0) {
+            pos++;
+            return addAtom(String.valueOf(Character.toUpperCase(c)), true, NONE);
+        }
+        throw error(at, "неизвестный символ '" + c + "'");
+    }
+
+    // символ[хиральность][Hn][:класс]; изотоп и заряд - ошибка
+    private int readBracketAtom() {
+        int open = pos++;
+        if (pos < smiles.length() && Character.isDigit(smiles.charAt(pos))) {
+            throw error(pos, "изотопы не поддерживаются");
+        }
+        if (pos >= smiles.length()) throw error(open, "не закрыта квадратная скобка");
+
+        boolean isAromatic = false;
+        String symbol;
+        char c = smiles.charAt(pos);
+        if (c == '*') {
+            symbol = "*";
+            pos++;
+        } else if (Character.isLowerCase(c)) {
+            // Ароматические se и as - двухбуквенные
+            int length = smiles.startsWith("se", pos) || smiles.startsWith("as", pos) ? 2 : 1;
+            symbol = Character.toUpperCase(c) + smiles.substring(pos + 1, pos + length);
+            isAromatic = true;
+            pos += length;
+        } else if (Character.isUpperCase(c)) {
+            int length = pos + 1 < smiles.length() && Character.isLowerCase(smiles.charAt(pos + 1)) ? 2 : 1;
+            symbol = smiles.substring(pos, pos + length);
+            pos += length;
+        } else {
+            throw error(pos, "нет символа элемента");
+        }
+
+        while (pos < smiles.length() && smiles.charAt(pos) == '@') pos++;
+        int count = 0;
+        if (pos < smiles.length() && smiles.charAt(pos) == 'H') {
+            pos++;
+            count = 1;
+            if (pos < smiles.length() && Character.isDigit(smiles.charAt(pos))) {
+                count = 0;
+                while (pos < smiles.length() && Character.isDigit(smiles.charAt(pos))) {
+                    count = Math.min(count * 10 + smiles.charAt(pos++) - '0', 1000);
+                }
+            }
+        }
+        // Заряд конструктору нечем показать: молча отбросить его - значит исказить формулу
+        if (pos < smiles.length() && (smiles.charAt(pos) == '+' || smiles.charAt(pos) == '-')) {
+            throw error(pos, "заряженные атомы не поддерживаются");
+        }
+        if (pos < smiles.length() && smiles.charAt(pos) == ':') {
+            pos++;
+            while (pos < smiles.length() && Character.isDigit(smiles.charAt(pos))) pos++;
+        }
+        if (pos >= smiles.length() || smiles.charAt(pos) != ']') {
+            throw error(open, "не закрыта квадратная скобка");
+        }
+        int index = elementIndex(symbol);
+        if (index >= 0 && count > VALENCE[index]) {
+            throw error(open, "у атома " + symbol + " не может быть " + count + " атомов H");
+        }
+        pos++;
+        return addAtom(symbol, isAromatic, count);
+    }
+
+    private int addAtom(String symbol, boolean isAromatic, int explicitHydrogens) {
+        element.add(symbol);
+        aromatic.add(isAromatic ? 1 : 0);
+        hydrogens.add(explicitHydrogens);
+        return element.size() - 1;
+    }
+
+    // Связь без символа между ароматическими атомами - ароматическая
+    private void addBond(int a, int b, int order) {
+        if (order == NONE) {
+            order = aromatic.get(a) == 1 && aromatic.get(b) == 1 ? AROMATIC : 1;
+        }
+        // Повторить существующую связь может только замыкание кольца: C1C1
+        if (!pairs.add(((long) Math.min(a, b) << 32) | Math.max(a, b))) {
+            throw error(pos - 1, "повторная связь между атомами " + (a + 1) + " и " + (b + 1));
+        }
+        bondStart.add(a);
+        bondEnd.add(b);
+        bondOrder.add(order);
+    }
+
+    private IllegalArgumentException error(int at, String message) {
+        return new IllegalArgumentException("Ошибка в SMILES в позиции " + (at + 1) + ": " + message);
+    }
+
+    private static int elementIndex(String symbol) {
+        for (int i = 0; i < ELEMENTS.length; i++) {
+            if (ELEMENTS[i].equals(symbol)) return i;
+        }
+        return -1;
+    }
+
+    // ===== Кекулизация и символы конструктора =====
+
+    private Structure toStructure() {
+        int atoms = element.size();
+        int bonds = bondStart.size();
+        int[] orders = bondOrder.toArray();
+        kekulize(atoms, orders);
+
+        int[] valenceUsed = new int[atoms];
+        for (int b = 0; b < bonds; b++) {
+            valenceUsed[bondStart.get(b)] += orders[b];
+            valenceUsed[bondEnd.get(b)] += orders[b];
+        }
+
+        String[] symbols = new String[atoms];
+        int[] attachedTo = new int[atoms];
+        Arrays.fill(attachedTo, NONE);
+        for (int a = 0; a < atoms; a++) {
+            String symbol = element.get(a);
+            if (symbol.equals("C")) {
+                symbols[a] = "C";
+                continue;
+            }
+            int h = hydrogens.get(a);
+            if (h == NONE) {
+                int index = elementIndex(symbol);
+                h = index < 0 ? 0 : Math.max(0, VALENCE[index] - valenceUsed[a]);
+            }
+            symbols[a] = h == 0 ? symbol : h == 1 ? symbol + "H" : symbol + "H" + h;
+        }
+        for (int b = 0; b < bonds; b++) {
+            attach(symbols, attachedTo, bondStart.get(b), bondEnd.get(b));
+            attach(symbols, attachedTo, bondEnd.get(b), bondStart.get(b));
+        }
+        return new Structure(symbols, attachedTo, bondStart.toArray(), bondEnd.toArray(), orders);
+    }
+
+    // Группа присоединяется к первому соседнему атому углерода
+    private static void attach(String[] symbols, int[] attachedTo, int group, int neighbour) {
+        if (!symbols[group].equals("C") && attachedTo[group] == NONE && symbols[neighbour].equals("C")) {
+            attachedTo[group] = neighbour;
+        }
+    }
+
+    // Ароматическим атомам, которым не хватает связи до валентности, нужна ровно
+    // одна двойная: это паросочетание по ароматическим связям. Сначала жадно от
+    // атомов с наименьшим числом вариантов, затем чередующимися путями для остатка.
+    private void kekulize(int atoms, int[] orders) {
+        int bonds = orders.length;
+        boolean any = false;
+        for (int order : orders) {
+            any |= order == AROMATIC;
+        }
+        if (!any) return;
+
+        int[] used = new int[atoms];
+        int[] aromaticBonds = new int[atoms];
+        for (int b = 0; b < bonds; b++) {
+            int a1 = bondStart.get(b);
+            int a2 = bondEnd.get(b);
+            if (orders[b] == AROMATIC) {
+                aromaticBonds[a1]++;
+                aromaticBonds[a2]++;
+            } else {
+                used[a1] += orders[b];
+                used[a2] += orders[b];
+            }
+        }
+        boolean[] needs = new boolean[atoms];
+        for (int a = 0; a < atoms; a++) {
+            int index = elementIndex(element.get(a));
+            if (aromatic.get(a) == 0 || index < 0) continue;
+            int h = Math.max(0, hydrogens.get(a));
+            needs[a] = VALENCE[index] - used[a] - aromaticBonds[a] - h >= 1;
+        }
+
+        // Смежность по ароматическим связям между нуждающимися атомами
+        int[] start = new int[atoms + 1];
+        for (int b = 0; b < bonds; b++) {
+            if (orders[b] == AROMATIC && needs[bondStart.get(b)] && needs[bondEnd.get(b)]) {
+                start[bondStart.get(b) + 1]++;
+                start[bondEnd.get(b) + 1]++;
+            }
+        }
+        for (int a = 0; a < atoms; a++) {
+            start[a + 1] += start[a];
+        }
+        int[] neighbour = new int[start[atoms]];
+        int[] via = new int[start[atoms]];
+        int[] fill = Arrays.copyOf(start, atoms);
+        for (int b = 0; b < bonds; b++) {
+            int a1 = bondStart.get(b);
+            int a2 = bondEnd.get(b);
+            if (orders[b] == AROMATIC && needs[a1] && needs[a2]) {
+                neighbour[fill[a1]] = a2;
+                via[fill[a1]++] = b;
+                neighbour[fill[a2]] = a1;
+                via[fill[a2]++] = b;
+            }
+        }
+
+        int[] mate = new int[atoms];
+        int[] mateBond = new int[atoms];
+        Arrays.fill(mate, NONE);
+        Integer[] byChoices = new Integer[atoms];
+        for (int a = 0; a < atoms; a++) {
+            byChoices[a] = a;
+        }
+        Arrays.sort(byChoices, (x, y) -> Integer.compare(start[x + 1] - start[x], start[y + 1] - start[y]));
+        for (int a : byChoices) {
+            if (!needs[a] || mate[a] != NONE) continue;
+            for (int e = start[a]; e < start[a + 1]; e++) {
+                if (mate[neighbour[e]] == NONE) {
+                    match(a, neighbour[e], via[e], mate, mateBond);
+                    break;
+                }
+            }
+        }
+
+        int[] seen = new int[atoms];
+        int[] parent = new int[atoms];
+        int[] parentBond = new int[atoms];
+        int stamp = 0;
+        for (int a = 0; a < atoms; a++) {
+            if (needs[a] && mate[a] == NONE) {
+                augment(a, ++stamp, start, neighbour, via, mate, mateBond, seen, parent, parentBond);
+            }
+        }
+
+        // Атому без пары двойную связь поставить некуда: c1cccc1 - не циклопентадиен
+        for (int a = 0; a < atoms; a++) {
+            if (needs[a] && mate[a] == NONE) {
+                throw new IllegalArgumentException("Ошибка в SMILES: для ароматического атома "
+                        + (a + 1) + " (" + element.get(a) + ") нельзя расставить двойные связи");
+            }
+        }
+
+        for (int b = 0; b < bonds; b++) {
+            if (orders[b] == AROMATIC) orders[b] = 1;
+        }
+        for (int a = 0; a < atoms; a++) {
+            if (mate[a] != NONE) orders[mateBond[a]] = 2;
+        }
+    }
+
+    private static void match(int a, int b, int bond, int[] mate, int[] mateBond) {
+        mate[a] = b;
+        mate[b] = a;
+        mateBond[a] = bond;
+        mateBond[b] = bond;
+    }
+
+    // Поиск в ширину чередующегося пути от свободного атома к свободному
+    private static void augment(int root, int stamp, int[] start, int[] neighbour, int[] via,
+                                int[] mate, int[] mateBond, int[] seen, int[] parent, int[] parentBond) {
+        IntList queue = new IntList();
+        queue.add(root);
+        seen[root] = stamp;
+        parent[root] = NONE;
+        for (int head = 0; head < queue.size(); head++) {
+            int a = queue.get(head);
+            for (int e = start[a]; e < start[a + 1]; e++) {
+                int b = neighbour[e];
+                if (seen[b] == stamp) continue;
+                seen[b] = stamp;
+                if (mate[b] == NONE) {
+                    // Путь найден: перекидываем пары вдоль него к корню. Бывший
+                    // партнёр a связан связью parentBond[a] с предыдущим атомом пути
+                    int bond = via[e];
+                    while (true) {
+                        int bridge = mate[a];
+                        int next = parent[a];
+                        int nextBond = parentBond[a];
+                        match(a, b, bond, mate, mateBond);
+                        if (next == NONE) return;
+                        b = bridge;
+                        a = next;
+                        bond = nextBond;
+                    }
+                }
+                int c = mate[b];
+                if (seen[c] == stamp) continue;
+                seen[c] = stamp;
+                parent[c] = a;
+                parentBond[c] = via[e];
+                queue.add(c);
+            }
+        }
+    }
+}
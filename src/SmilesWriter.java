@@ -0,0 +1,504 @@
+import java.util.Arrays;
+
+// Канонический SMILES для графа конструктора.
+// Ранги атомов уточняются по Моргану: класс атома делится по отсортированным
+// парам (ранг соседа, порядок связи), пока число классов растёт; оставшиеся
+// равные классы разбиваются по одному атому. Строка собирается обходом в глубину
+// от атома с наименьшим рангом, соседи - по возрастанию ранга, номера
+// замыканий колец - наименьшие свободные. Всё в примитивных массивах, без рекурсии.
+// Группы пишутся как гетероатомы: OH -> O, NH2 -> N, водород неявный.
+// Чередующиеся кольца (бензол, пиридин, конденсированные системы из них) ранжируются
+// с ароматическим классом связи и пишутся строчными буквами, поэтому строка не
+// зависит от того, как пользователь расставил двойные связи. Кольца, где у атома
+// нет своей двойной связи (пиррол, фуран), остаются в записи Кекуле - у них
+// она и так единственная.
+public final class SmilesWriter {
+
+    private static final int NONE = BuilderGraph.NONE;
+    private static final int MAX_RING_NUMBER = 99;
+    // Класс ароматической связи при ранжировании; в строке связь не пишется
+    private static final int AROMATIC = 4;
+
+    // Органическое подмножество SMILES: символ и атомный номер
+    private static final String[] ORGANIC = {"C", "N", "O", "F", "Cl", "Br"};
+    private static final int[] ATOMIC_NUMBER = {6, 7, 8, 9, 17, 35};
+
+    // Локальная нумерация атомов 0..n-1 и смежность в формате CSR
+    private final int n;
+    private final String[] symbol;
+    private final int[] adjStart;
+    private final int[] adjTarget;
+    private final int[] adjOrder;
+    private final boolean[] aromatic;
+
+    private final int[] rank;
+    private final int[] signature;
+
+    private SmilesWriter(BuilderGraph graph, RingPerception rings) {
+        int[] local = new int[graph.nodeLimit()];
+        int count = 0;
+        for (int node = 0; node < graph.nodeLimit(); node++) {
+            local[node] = graph.isAlive(node) ? count++ : NONE;
+        }
+        n = count;
+        symbol = new String[n];
+        adjStart = new int[n + 1];
+        for (int node = 0; node < graph.nodeLimit(); node++) {
+            if (local[node] == NONE) continue;
+            symbol[local[node]] = atomSymbol(graph.getSymbolName(node));
+            adjStart[local[node] + 1] = graph.getDegree(node);
+        }
+        for (int i = 0; i < n; i++) {
+            adjStart[i + 1] += adjStart[i];
+        }
+        adjTarget = new int[adjStart[n]];
+        adjOrder = new int[adjStart[n]];
+        aromatic = new boolean[n];
+        boolean[] aromaticBond = aromaticBonds(graph, rings, local);
+        int[] fill = Arrays.copyOf(adjStart, n);
+        for (int node = 0; node < graph.nodeLimit(); node++) {
+            if (local[node] == NONE) continue;
+            int a = local[node];
+            for (int h = graph.firstHalfEdge(node); h != NONE; h = graph.nextHalfEdge(h)) {
+                int bond = BuilderGraph.halfEdgeBond(h);
+                adjTarget[fill[a]] = local[graph.halfEdgeTarget(h)];
+                adjOrder[fill[a]++] = aromaticBond[bond] ? AROMATIC : graph.getBondOrder(bond);
+                aromatic[a] |= aromaticBond[bond];
+            }
+        }
+        rank = new int[n];
+        signature = new int[adjStart[n]];
+    }
+
+    // Свои кольца строятся, только если в графе есть двойные связи
+    public static String write(BuilderGraph graph) {
+        if (!hasDoubleBond(graph)) {
+            return write(graph, null);
+        }
+        RingPerception rings = new RingPerception(graph);
+        try {
+            return write(graph, rings);
+        } finally {
+            graph.removeListener(rings);
+        }
+    }
+
+    // С кольцами, которые у вызывающего уже поддерживаются по событиям графа;
+    // null - граф без двойных связей, ароматических колец в нём нет
+    public static String write(BuilderGraph graph, RingPerception rings) {
+        SmilesWriter writer = new SmilesWriter(graph, rings);
+        writer.canonicalRanks();
+        return writer.build();
+    }
+
+    private static boolean hasDoubleBond(BuilderGraph graph) {
+        for (int bond = 0; bond < graph.bondLimit(); bond++) {
+            if (graph.isBondAlive(bond) && graph.getBondOrder(bond) == 2) return true;
+        }
+        return false;
+    }
+
+    // ===== Ароматичность =====
+
+    // Кольцо из 4k+2 атомов C и N ароматическое, если у каждого атома ровно одна
+    // двойная связь и она лежит в этом кольце или в уже найденном ароматическом.
+    // Проходы повторяются до неподвижной точки: во второй форме Кекуле нафталина
+    // второе кольцо признаётся только после первого. Набор колец SSSR от двойных
+    // связей не зависит, поэтому и результат одинаков для любой формы Кекуле.
+    private boolean[] aromaticBonds(BuilderGraph graph, RingPerception rings, int[] local) {
+        boolean[] result = new boolean[graph.bondLimit()];
+        if (rings == null) return result;
+        boolean[] found = new boolean[rings.ringLimit()];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int ring = 0; ring < rings.ringLimit(); ring++) {
+                if (found[ring] || !rings.isRingAlive(ring)) continue;
+                int[] ringBonds = rings.getRingBonds(ring);
+                if (isAromatic(graph, rings.getRingAtoms(ring), ringBonds, result, local)) {
+                    for (int bond : ringBonds) {
+                        result[bond] = true;
+                    }
+                    found[ring] = true;
+                    changed = true;
+                }
+            }
+        }
+        return result;
+    }
+
+    private boolean isAromatic(BuilderGraph graph, int[] atoms, int[] ringBonds, boolean[] aromaticBond,
+                               int[] local) {
+        if (atoms.length % 4 != 2) return false;
+        for (int node : atoms) {
+            String element = symbol[local[node]];
+            if (!element.equals("C") && !element.equals("N")) return false;
+            int doubles = 0;
+            for (int h = graph.firstHalfEdge(node); h != NONE; h = graph.nextHalfEdge(h)) {
+                int bond = BuilderGraph.halfEdgeBond(h);
+                int order = graph.getBondOrder(bond);
+                if (order == 3) return false;
+                if (order == 2) {
+                    if (!aromaticBond[bond] && !contains(ringBonds, bond)) return false;
+                    doubles++;
+                }
+            }
+            if (doubles != 1) return false;
+        }
+        return true;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) return true;
+        }
+        return false;
+    }
+
+    // Символ группы в SMILES: элемент без собственных H, либо скобочный атом
+    private static String atomSymbol(String name) {
+        String element = name;
+        int h = name.indexOf('H', 1);
+        if (h > 0 && name.substring(h + 1).chars().allMatch(Character::isDigit)) {
+            element = name.substring(0, h);
+        }
+        return organicIndex(element) >= 0 ? element : "[" + name + "]";
+    }
+
+    private static int organicIndex(String element) {
+        for (int i = 0; i < ORGANIC.length; i++) {
+            if (ORGANIC[i].equals(element)) return i;
+        }
+        return -1;
+    }
+
+    // ===== Канонические ранги =====
+
+    private void canonicalRanks() {
+        int[] order = new int[n];
+        int[] buffer = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+
+        // Начальный инвариант: элемент, степень, сумма порядков связей
+        long[] invariant = new long[n];
+        String[] unknown = Arrays.stream(symbol).filter(s -> s.startsWith("[")).distinct().sorted()
+                .toArray(String[]::new);
+        for (int a = 0; a < n; a++) {
+            int element = organicIndex(symbol[a]);
+            long atomic = element >= 0 ? ATOMIC_NUMBER[element] : 128 + Arrays.binarySearch(unknown, symbol[a]);
+            // У ароматического атома ровно одна двойная связь в любой форме Кекуле
+            int valence = aromatic[a] ? 1 : 0;
+            for (int e = adjStart[a]; e < adjStart[a + 1]; e++) {
+                valence += adjOrder[e] == AROMATIC ? 1 : adjOrder[e];
+            }
+            invariant[a] = (atomic << 32) | ((long) (adjStart[a + 1] - adjStart[a]) << 16) | valence;
+        }
+        sort(order, buffer, (x, y) -> Long.compare(invariant[x], invariant[y]));
+        int classes = assignRanks(order, (x, y) -> Long.compare(invariant[x], invariant[y]));
+
+        while (true) {
+            classes = refine(order, buffer, classes);
+            if (classes == n) break;
+            // Равный класс с наименьшим рангом: первый его атом получает отдельный ранг
+            for (int i = 0; i + 1 < n; i++) {
+                if (rank[order[i]] == rank[order[i + 1]]) {
+                    for (int j = i + 1; j < n && rank[order[j]] == rank[order[i]]; j++) {
+                        rank[order[j]] = i + 1;
+                    }
+                    classes++;
+                    break;
+                }
+            }
+        }
+    }
+
+    // Уточнение до неподвижной точки; возвращает число классов
+    private int refine(int[] order, int[] buffer, int classes) {
+        while (true) {
+            for (int a = 0; a < n; a++) {
+                int from = adjStart[a];
+                int to = adjStart[a + 1];
+                for (int e = from; e < to; e++) {
+                    signature[e] = rank[adjTarget[e]] * 5 + adjOrder[e];
+                }
+                // Соседей мало - сортировка вставками
+                for (int e = from + 1; e < to; e++) {
+                    int value = signature[e];
+                    int k = e - 1;
+                    while (k >= from && signature[k] > value) {
+                        signature[k + 1] = signature[k];
+                        k--;
+                    }
+                    signature[k + 1] = value;
+                }
+            }
+            sort(order, buffer, this::compareRefined);
+            int refined = assignRanks(order, this::compareRefined);
+            if (refined == classes) return refined;
+            classes = refined;
+        }
+    }
+
+    private int compareRefined(int a, int b) {
+        if (rank[a] != rank[b]) return Integer.compare(rank[a], rank[b]);
+        int lengthA = adjStart[a + 1] - adjStart[a];
+        int lengthB = adjStart[b + 1] - adjStart[b];
+        int length = Math.min(lengthA, lengthB);
+        for (int i = 0; i < length; i++) {
+            int cmp = Integer.compare(signature[adjStart[a] + i], signature[adjStart[b] + i]);
+            if (cmp != 0) return cmp;
+        }
+        return Integer.compare(lengthA, lengthB);
+    }
+
+    // Ранг - число атомов со строго меньшим ключом; возвращает число классов
+    private int assignRanks(int[] order, IntComparator comparator) {
+        int classes = 0;
+        int[] ranks = new int[n];
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || comparator.compare(order[i - 1], order[i]) != 0) {
+                ranks[order[i]] = i;
+                classes++;
+            } else {
+                ranks[order[i]] = ranks[order[i - 1]];
+            }
+        }
+        System.arraycopy(ranks, 0, rank, 0, n);
+        return classes;
+    }
+
+    private interface IntComparator {
+        int compare(int a, int b);
+    }
+
+    // Устойчивая сортировка слиянием номеров атомов
+    private static void sort(int[] items, int[] buffer, IntComparator comparator) {
+        int length = items.length;
+        for (int width = 1; width < length; width *= 2) {
+            for (int from = 0; from < length; from += 2 * width) {
+                int middle = Math.min(from + width, length);
+                int to = Math.min(from + 2 * width, length);
+                int i = from, j = middle, k = from;
+                while (i < middle && j < to) {
+                    buffer[k++] = comparator.compare(items[j], items[i]) < 0 ? items[j++] : items[i++];
+                }
+                while (i < middle) buffer[k++] = items[i++];
+                while (j < to) buffer[k++] = items[j++];
+            }
+            System.arraycopy(buffer, 0, items, 0, length);
+        }
+    }
+
+    // ===== Сборка строки =====
+
+    private String build() {
+        // Соседи каждого атома по возрастанию ранга
+        int[] sortedTarget = adjTarget.clone();
+        int[] sortedOrder = adjOrder.clone();
+        for (int a = 0; a < n; a++) {
+            for (int e = adjStart[a] + 1; e < adjStart[a + 1]; e++) {
+                int target = sortedTarget[e];
+                int bondOrder = sortedOrder[e];
+                int k = e - 1;
+                while (k >= adjStart[a] && rank[sortedTarget[k]] > rank[target]) {
+                    sortedTarget[k + 1] = sortedTarget[k];
+                    sortedOrder[k + 1] = sortedOrder[k];
+                    k--;
+                }
+                sortedTarget[k + 1] = target;
+                sortedOrder[k + 1] = bondOrder;
+            }
+        }
+
+        // Первый проход: дерево обхода и связи-замыкания
+        int[] visit = new int[n];
+        Arrays.fill(visit, -1);
+        int[] parent = new int[n];
+        int[] parentOrder = new int[n];
+        int[] cursor = new int[n];
+        boolean[] parentSkipped = new boolean[n];
+        int[] stack = new int[n];
+        int[] visitOrder = new int[n];
+        int visited = 0;
+        // Замыкание хранится у обоих концов: у раннего - открытие, у позднего - закрытие
+        IntList closureAtom = new IntList();
+        IntList closurePartner = new IntList();
+        IntList closureOrder = new IntList();
+
+        int[] byRank = new int[n];
+        for (int a = 0; a < n; a++) {
+            byRank[a] = a;
+        }
+        sort(byRank, new int[n], (x, y) -> Integer.compare(rank[x], rank[y]));
+
+        IntList roots = new IntList();
+        for (int r = 0; r < n; r++) {
+            int root = byRank[r];
+            if (visit[root] >= 0) continue;
+            roots.add(root);
+            int top = 0;
+            stack[top++] = root;
+            visit[root] = visited;
+            visitOrder[visited++] = root;
+            parent[root] = NONE;
+            cursor[root] = adjStart[root];
+            while (top > 0) {
+                int a = stack[top - 1];
+                if (cursor[a] == adjStart[a + 1]) {
+                    top--;
+                    continue;
+                }
+                int e = cursor[a]++;
+                int b = sortedTarget[e];
+                // Связь к родителю пропускается один раз; повторная связь станет замыканием
+                if (b == parent[a] && !parentSkipped[a]) {
+                    parentSkipped[a] = true;
+                    continue;
+                }
+                if (visit[b] < 0) {
+                    visit[b] = visited;
+                    visitOrder[visited++] = b;
+                    parent[b] = a;
+                    parentOrder[b] = sortedOrder[e];
+                    cursor[b] = adjStart[b];
+                    stack[top++] = b;
+                } else if (visit[b] < visit[a]) {
+                    // Обратная связь к предку: замыкание открывается у b, закрывается у a
+                    closureAtom.add(b);
+                    closurePartner.add(a);
+                    closureOrder.add(sortedOrder[e]);
+                }
+            }
+        }
+
+        // Замыкания у каждого атома: открытия по порядку обхода партнёра
+        int closures = closureAtom.size();
+        int[] perAtom = new int[n + 1];
+        for (int i = 0; i < closures; i++) {
+            perAtom[closureAtom.get(i) + 1]++;
+            perAtom[closurePartner.get(i) + 1]++;
+        }
+        for (int a = 0; a < n; a++) {
+            perAtom[a + 1] += perAtom[a];
+        }
+        int[] closureStart = perAtom;
+        int[] atomClosures = new int[2 * closures];
+        int[] fill = Arrays.copyOf(perAtom, n);
+        for (int i = 0; i < closures; i++) {
+            atomClosures[fill[closureAtom.get(i)]++] = i;
+            atomClosures[fill[closurePartner.get(i)]++] = i;
+        }
+        for (int a = 0; a < n; a++) {
+            int from = closureStart[a];
+            int to = closureStart[a + 1];
+            for (int i = from + 1; i < to; i++) {
+                int c = atomClosures[i];
+                int k = i - 1;
+                while (k >= from && visit[partner(atomClosures[k], a, closureAtom, closurePartner)]
+                        > visit[partner(c, a, closureAtom, closurePartner)]) {
+                    atomClosures[k + 1] = atomClosures[k];
+                    k--;
+                }
+                atomClosures[k + 1] = c;
+            }
+        }
+
+        // Дети в дереве в порядке обхода
+        int[] childStart = new int[n + 1];
+        for (int i = 0; i < visited; i++) {
+            int a = visitOrder[i];
+            if (parent[a] != NONE) childStart[parent[a] + 1]++;
+        }
+        for (int a = 0; a < n; a++) {
+            childStart[a + 1] += childStart[a];
+        }
+        int[] children = new int[Math.max(0, n - roots.size())];
+        int[] childFill = Arrays.copyOf(childStart, n);
+        for (int i = 0; i < visited; i++) {
+            int a = visitOrder[i];
+            if (parent[a] != NONE) children[childFill[parent[a]]++] = a;
+        }
+
+        // Второй проход: атомы, цифры замыканий, ветви в скобках
+        StringBuilder sb = new StringBuilder(n * 2);
+        int[] ringNumber = new int[closures];
+        boolean[] used = new boolean[MAX_RING_NUMBER + 1];
+        final int open = -1;
+        final int close = -2;
+        int[] actions = new int[3 * n + 1];
+        for (int r = 0; r < roots.size(); r++) {
+            if (r > 0) sb.append('.');
+            int top = 0;
+            actions[top++] = roots.get(r);
+            while (top > 0) {
+                int action = actions[--top];
+                if (action == open) {
+                    sb.append('(');
+                    continue;
+                }
+                if (action == close) {
+                    sb.append(')');
+                    continue;
+                }
+                int a = action;
+                if (parent[a] != NONE) {
+                    appendBond(sb, parentOrder[a], aromatic[a] && aromatic[parent[a]]);
+                }
+                sb.append(aromatic[a] ? symbol[a].toLowerCase() : symbol[a]);
+                for (int i = closureStart[a]; i < closureStart[a + 1]; i++) {
+                    int c = atomClosures[i];
+                    if (closureAtom.get(c) == a) {
+                        int number = 1;
+                        while (number <= MAX_RING_NUMBER && used[number]) number++;
+                        if (number > MAX_RING_NUMBER) {
+                            throw new IllegalArgumentException("Слишком много одновременно открытых колец");
+                        }
+                        used[number] = true;
+                        ringNumber[c] = number;
+                        appendBond(sb, closureOrder.get(c), aromatic[a] && aromatic[closurePartner.get(c)]);
+                        appendRingNumber(sb, number);
+                    } else {
+                        appendRingNumber(sb, ringNumber[c]);
+                        used[ringNumber[c]] = false;
+                    }
+                }
+
+                int first = childStart[a];
+                int last = childStart[a + 1] - 1;
+                if (last < first) continue;
+                actions[top++] = children[last];
+                for (int i = last - 1; i >= first; i--) {
+                    actions[top++] = close;
+                    actions[top++] = children[i];
+                    actions[top++] = open;
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int partner(int closure, int atom, IntList closureAtom, IntList closurePartner) {
+        return closureAtom.get(closure) == atom ? closurePartner.get(closure) : closureAtom.get(closure);
+    }
+
+    // Простая связь между ароматическими атомами (как в бифениле) пишется явно:
+    // без знака читатель принял бы её за ароматическую
+    private static void appendBond(StringBuilder sb, int order, boolean betweenAromatic) {
+        if (order == 1 && betweenAromatic) {
+            sb.append('-');
+        } else if (order == 2) {
+            sb.append('=');
+        } else if (order == 3) {
+            sb.append('#');
+        }
+    }
+
+    private static void appendRingNumber(StringBuilder sb, int number) {
+        if (number > 9) {
+            sb.append('%');
+        }
+        sb.append(number);
+    }
+}
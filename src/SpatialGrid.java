@@ -0,0 +1,241 @@
+import java.util.*;
+
+// Равномерная сетка для поиска объектов рядом с точкой. Объекты - целые номера;
+// объект хранится в каждой ячейке, которую пересекает его прямоугольник, а запрос
+// просматривает только ячейки вокруг точки, поэтому стоимость не зависит от размера рисунка.
+public class SpatialGrid {
+
+    private final double cellSize;
+    // Ячейки - открытая адресация с линейным пробированием по ключу ячейки: без
+    // упаковки ключа в Long и без записи-объекта на ячейку. Массовая вставка
+    // (шаблон, полимер на сотню тысяч атомов) иначе упирается в HashMap.
+    // Пустой слот - bucket == null; заполнено не больше половины слотов.
+    private long[] cellKeys = new long[64];
+    private IntList[] cellBuckets = new IntList[64];
+    private int cellCount;
+
+    // По номеру объекта: прямоугольник и диапазон занятых ячеек
+    private double[] bounds = new double[0];
+    private int[] cellRange = new int[0];
+    private boolean[] present = new boolean[0];
+    private int size;
+
+    public SpatialGrid(double cellSize) {
+        if (cellSize <= 0) {
+            throw new IllegalArgumentException("Размер ячейки должен быть положительным: " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // Слот с ключом или пустой слот, где цепочка поиска обрывается
+    private int find(long key) {
+        int mask = cellBuckets.length - 1;
+        int slot = hash(key) & mask;
+        while (cellBuckets[slot] != null && cellKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private IntList bucketOrCreate(long key) {
+        int slot = find(key);
+        if (cellBuckets[slot] == null) {
+            if ((cellCount + 1) * 2 > cellBuckets.length) {
+                rehash(cellBuckets.length * 2);
+                slot = find(key);
+            }
+            cellKeys[slot] = key;
+            cellBuckets[slot] = new IntList(4);
+            cellCount++;
+        }
+        return cellBuckets[slot];
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = cellKeys;
+        IntList[] oldBuckets = cellBuckets;
+        cellKeys = new long[capacity];
+        cellBuckets = new IntList[capacity];
+        for (int i = 0; i < oldBuckets.length; i++) {
+            if (oldBuckets[i] != null) {
+                int slot = find(oldKeys[i]);
+                cellKeys[slot] = oldKeys[i];
+                cellBuckets[slot] = oldBuckets[i];
+            }
+        }
+    }
+
+    // Удаление со сдвигом назад: следующие записи цепочки подтягиваются в дыру,
+    // так что поиск не нуждается в пометках удалённых слотов
+    private void deleteSlot(int slot) {
+        int mask = cellBuckets.length - 1;
+        cellBuckets[slot] = null;
+        cellCount--;
+        int hole = slot;
+        for (int next = (hole + 1) & mask; cellBuckets[next] != null; next = (next + 1) & mask) {
+            int home = hash(cellKeys[next]) & mask;
+            // Запись остаётся, если её исходный слот лежит между дырой и ней самой
+            boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+            if (!stays) {
+                cellKeys[hole] = cellKeys[next];
+                cellBuckets[hole] = cellBuckets[next];
+                cellBuckets[next] = null;
+                hole = next;
+            }
+        }
+    }
+
+    private void ensureCapacity(int id) {
+        if (id < present.length) return;
+        int capacity = Math.max(16, Math.max(id + 1, present.length * 2));
+        bounds = Arrays.copyOf(bounds, capacity * 4);
+        cellRange = Arrays.copyOf(cellRange, capacity * 4);
+        present = Arrays.copyOf(present, capacity);
+    }
+
+    public void insertPoint(int id, double x, double y) {
+        insert(id, x, y, x, y);
+    }
+
+    // Повторная вставка того же номера заменяет его прежнее положение
+    public void insert(int id, double minX, double minY, double maxX, double maxY) {
+        ensureCapacity(id);
+        int minCellX = cell(minX), minCellY = cell(minY);
+        int maxCellX = cell(maxX), maxCellY = cell(maxY);
+
+        if (present[id]) {
+            int base = id * 4;
+            if (cellRange[base] == minCellX && cellRange[base + 1] == minCellY
+                    && cellRange[base + 2] == maxCellX && cellRange[base + 3] == maxCellY) {
+                // Ячейки те же - достаточно обновить прямоугольник
+                setBounds(id, minX, minY, maxX, maxY);
+                return;
+            }
+            remove(id);
+        }
+
+        int base = id * 4;
+        setBounds(id, minX, minY, maxX, maxY);
+        cellRange[base] = minCellX;
+        cellRange[base + 1] = minCellY;
+        cellRange[base + 2] = maxCellX;
+        cellRange[base + 3] = maxCellY;
+        present[id] = true;
+        size++;
+
+        for (int cx = minCellX; cx <= maxCellX; cx++) {
+            for (int cy = minCellY; cy <= maxCellY; cy++) {
+                bucketOrCreate(key(cx, cy)).add(id);
+            }
+        }
+    }
+
+    private void setBounds(int id, double minX, double minY, double maxX, double maxY) {
+        int base = id * 4;
+        bounds[base] = minX;
+        bounds[base + 1] = minY;
+        bounds[base + 2] = maxX;
+        bounds[base + 3] = maxY;
+    }
+
+    public void remove(int id) {
+        if (id >= present.length || !present[id]) return;
+
+        int base = id * 4;
+        for (int cx = cellRange[base]; cx <= cellRange[base + 2]; cx++) {
+            for (int cy = cellRange[base + 1]; cy <= cellRange[base + 3]; cy++) {
+                int slot = find(key(cx, cy));
+                IntList bucket = cellBuckets[slot];
+                if (bucket == null) continue;
+                int index = bucket.indexOf(id);
+                if (index >= 0) {
+                    bucket.swapRemove(index);
+                }
+                if (bucket.isEmpty()) {
+                    deleteSlot(slot);
+                }
+            }
+        }
+        present[id] = false;
+        size--;
+    }
+
+    public boolean contains(int id) {
+        return id < present.length && present[id];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(cellBuckets, null);
+        cellCount = 0;
+        Arrays.fill(present, false);
+        size = 0;
+    }
+
+    // Номера объектов, чей прямоугольник пересекает заданный; каждый выдаётся один раз
+    // Большой запрос (рамка выделения, вид при сильном уменьшении) перебирает
+    // занятые ячейки, а не все ячейки диапазона: их может быть на порядки больше
+    public IntList query(double minX, double minY, double maxX, double maxY, IntList result) {
+        int fromX = cell(minX), fromY = cell(minY);
+        int toX = cell(maxX), toY = cell(maxY);
+
+        long rangeCells = ((long) toX - fromX + 1) * ((long) toY - fromY + 1);
+        if (rangeCells > cellCount) {
+            for (int slot = 0; slot < cellBuckets.length; slot++) {
+                if (cellBuckets[slot] == null) continue;
+                long key = cellKeys[slot];
+                int cx = (int) (key >> 32);
+                int cy = (int) key;
+                if (cx < fromX || cx > toX || cy < fromY || cy > toY) continue;
+                collect(cellBuckets[slot], cx, cy, fromX, fromY, minX, minY, maxX, maxY, result);
+            }
+            return result;
+        }
+
+        for (int cx = fromX; cx <= toX; cx++) {
+            for (int cy = fromY; cy <= toY; cy++) {
+                IntList bucket = cellBuckets[find(key(cx, cy))];
+                if (bucket == null) continue;
+                collect(bucket, cx, cy, fromX, fromY, minX, minY, maxX, maxY, result);
+            }
+        }
+        return result;
+    }
+
+    private void collect(IntList bucket, int cx, int cy, int fromX, int fromY,
+                         double minX, double minY, double maxX, double maxY, IntList result) {
+        for (int i = 0; i < bucket.size(); i++) {
+            int id = bucket.get(i);
+            int base = id * 4;
+            // Объект на нескольких ячейках учитывается только в первой общей с запросом
+            if (cx != Math.max(fromX, cellRange[base]) || cy != Math.max(fromY, cellRange[base + 1])) {
+                continue;
+            }
+            if (bounds[base + 2] < minX || bounds[base] > maxX
+                    || bounds[base + 3] < minY || bounds[base + 1] > maxY) {
+                continue;
+            }
+            result.add(id);
+        }
+    }
+
+    public IntList queryRadius(double x, double y, double radius, IntList result) {
+        return query(x - radius, y - radius, x + radius, y + radius, result);
+    }
+}
@@ -0,0 +1,502 @@
+import java.util.Arrays;
+
+// Двумерные координаты для структуры без координат (например, из SMILES).
+// Кольцевые системы раскладываются по шаблону правильных многоугольников:
+// первое кольцо целиком, сконденсированные - на общем ребре с противоположной
+// стороны, спиро - на общем атоме. Цепи идут зигзагом с поворотом на 60° (два
+// шага поворота по 30°), тройные связи - по прямой. Система колец ставится
+// жёстко, центром от атома, к которому присоединена. Всё за один обход в ширину:
+// время линейно по числу атомов, кроме поиска колец у замыкающих связей.
+public final class StructureLayout {
+
+    private static final int NONE = BuilderGraph.NONE;
+    private static final double TURN = Math.toRadians(60);
+    private static final double FIRST_BOND = Math.toRadians(-30);
+
+    private final int atoms;
+    private final int[] bondStart;
+    private final int[] bondEnd;
+    private final int[] bondOrder;
+
+    // Смежность в сжатом виде: соседи атома a - neighbour[start[a]..start[a+1])
+    private final int[] start;
+    private final int[] neighbour;
+    private final int[] via;
+
+    // Кольца и кольцевые системы
+    private int[][] rings = new int[0][];
+    private int[] ringStart;
+    private int[] ringOf;
+    private int[] system;
+    private boolean[] systemPlaced;
+    private boolean[] ringPlaced;
+    private double[] centreX;
+    private double[] centreY;
+
+    private final double[] x;
+    private final double[] y;
+    private final boolean[] placed;
+    // Знак последнего поворота зигзага, с которым атом был поставлен
+    private final int[] turn;
+
+    private StructureLayout(SmilesReader.Structure structure) {
+        atoms = structure.atomCount();
+        bondStart = structure.bondStart;
+        bondEnd = structure.bondEnd;
+        bondOrder = structure.bondOrder;
+        start = new int[atoms + 1];
+        for (int b = 0; b < bondStart.length; b++) {
+            start[bondStart[b] + 1]++;
+            start[bondEnd[b] + 1]++;
+        }
+        for (int a = 0; a < atoms; a++) {
+            start[a + 1] += start[a];
+        }
+        neighbour = new int[start[atoms]];
+        via = new int[start[atoms]];
+        int[] fill = Arrays.copyOf(start, atoms);
+        for (int b = 0; b < bondStart.length; b++) {
+            neighbour[fill[bondStart[b]]] = bondEnd[b];
+            via[fill[bondStart[b]]++] = b;
+            neighbour[fill[bondEnd[b]]] = bondStart[b];
+            via[fill[bondEnd[b]]++] = b;
+        }
+        x = new double[atoms];
+        y = new double[atoms];
+        placed = new boolean[atoms];
+        turn = new int[atoms];
+    }
+
+    // Координаты атомов в пикселях: x[i] = xy[2i], y[i] = xy[2i+1]
+    public static double[] layout(SmilesReader.Structure structure, double bondLength) {
+        StructureLayout layout = new StructureLayout(structure);
+        layout.findRings();
+        layout.placeComponents();
+        double[] xy = new double[layout.atoms * 2];
+        for (int a = 0; a < layout.atoms; a++) {
+            xy[2 * a] = layout.x[a] * bondLength;
+            xy[2 * a + 1] = layout.y[a] * bondLength;
+        }
+        return xy;
+    }
+
+    // ===== Кольца =====
+
+    // Циклические связи - те, что лежат на фундаментальных циклах остовного леса.
+    // Затем для каждой циклической связи, ещё не покрытой кольцом, берётся
+    // кратчайший цикл через неё: так кольца покрывают все циклические связи и
+    // в нафталине находятся оба шестичленных кольца, а не одно дважды.
+    // Атомы колец с общими атомами объединяются в системы.
+    private void findRings() {
+        int bonds = bondStart.length;
+        int[] parent = new int[atoms];
+        int[] parentBond = new int[atoms];
+        int[] depth = new int[atoms];
+        int[] seen = new int[atoms];
+        boolean[] tree = new boolean[bonds];
+        IntList queue = new IntList();
+        Arrays.fill(parent, NONE);
+        int stamp = 1;
+        for (int root = 0; root < atoms; root++) {
+            if (seen[root] == stamp) continue;
+            queue.clear();
+            queue.add(root);
+            seen[root] = stamp;
+            for (int head = 0; head < queue.size(); head++) {
+                int a = queue.get(head);
+                for (int e = start[a]; e < start[a + 1]; e++) {
+                    int n = neighbour[e];
+                    if (seen[n] == stamp) continue;
+                    seen[n] = stamp;
+                    parent[n] = a;
+                    parentBond[n] = via[e];
+                    depth[n] = depth[a] + 1;
+                    tree[via[e]] = true;
+                    queue.add(n);
+                }
+            }
+        }
+
+        boolean[] cyclic = new boolean[bonds];
+        for (int b = 0; b < bonds; b++) {
+            if (tree[b]) continue;
+            cyclic[b] = true;
+            int u = bondStart[b];
+            int v = bondEnd[b];
+            while (u != v) {
+                if (depth[u] < depth[v]) {
+                    int swap = u;
+                    u = v;
+                    v = swap;
+                }
+                cyclic[parentBond[u]] = true;
+                u = parent[u];
+            }
+        }
+
+        boolean[] covered = new boolean[bonds];
+        int[][] found = new int[16][];
+        int count = 0;
+        for (int b = 0; b < bonds; b++) {
+            if (!cyclic[b] || covered[b]) continue;
+            int from = bondStart[b];
+            int to = bondEnd[b];
+            stamp++;
+            queue.clear();
+            queue.add(from);
+            seen[from] = stamp;
+            parent[from] = NONE;
+            for (int head = 0; head < queue.size() && seen[to] != stamp; head++) {
+                int a = queue.get(head);
+                for (int e = start[a]; e < start[a + 1]; e++) {
+                    int n = neighbour[e];
+                    if (via[e] == b || !cyclic[via[e]] || seen[n] == stamp) continue;
+                    seen[n] = stamp;
+                    parent[n] = a;
+                    parentBond[n] = via[e];
+                    queue.add(n);
+                }
+            }
+            IntList ring = new IntList();
+            covered[b] = true;
+            for (int a = to; a != NONE; a = parent[a]) {
+                ring.add(a);
+                if (a != from) covered[parentBond[a]] = true;
+            }
+            if (count == found.length) {
+                found = Arrays.copyOf(found, count * 2);
+            }
+            found[count++] = ring.toArray();
+        }
+        rings = Arrays.copyOf(found, count);
+
+        // Кольца атома в сжатом виде
+        ringStart = new int[atoms + 1];
+        for (int[] ring : rings) {
+            for (int a : ring) ringStart[a + 1]++;
+        }
+        for (int a = 0; a < atoms; a++) {
+            ringStart[a + 1] += ringStart[a];
+        }
+        ringOf = new int[ringStart[atoms]];
+        int[] fill = Arrays.copyOf(ringStart, atoms);
+        for (int r = 0; r < rings.length; r++) {
+            for (int a : rings[r]) ringOf[fill[a]++] = r;
+        }
+
+        // Системы - связные группы колец с общими атомами
+        int[] root = new int[rings.length];
+        for (int r = 0; r < rings.length; r++) {
+            root[r] = r;
+        }
+        for (int a = 0; a < atoms; a++) {
+            for (int i = ringStart[a] + 1; i < ringStart[a + 1]; i++) {
+                int r1 = find(root, ringOf[ringStart[a]]);
+                int r2 = find(root, ringOf[i]);
+                if (r1 != r2) root[r2] = r1;
+            }
+        }
+        system = new int[atoms];
+        Arrays.fill(system, NONE);
+        for (int a = 0; a < atoms; a++) {
+            if (ringStart[a] != ringStart[a + 1]) {
+                system[a] = find(root, ringOf[ringStart[a]]);
+            }
+        }
+        systemPlaced = new boolean[rings.length];
+        ringPlaced = new boolean[rings.length];
+        centreX = new double[rings.length];
+        centreY = new double[rings.length];
+    }
+
+    private static int find(int[] root, int r) {
+        while (root[r] != r) {
+            root[r] = root[root[r]];
+            r = root[r];
+        }
+        return r;
+    }
+
+    // Раскладка кольцевой системы в собственных координатах. Кольца ставятся
+    // в порядке обхода в ширину по общим атомам; атомы мостиков, не попавшие
+    // ни в один шаблон, остаются для обычной цепной раскладки.
+    private int[] placeSystem(int sys, double[] localX, double[] localY, boolean[] local) {
+        IntList members = new IntList();
+        IntList queue = new IntList();
+
+        int first = sys;
+        int[] ring = rings[first];
+        double radius = radius(ring.length);
+        for (int i = 0; i < ring.length; i++) {
+            double angle = Math.PI / 2 + 2 * Math.PI * i / ring.length;
+            localX[ring[i]] = Math.cos(angle) * radius;
+            localY[ring[i]] = Math.sin(angle) * radius;
+            local[ring[i]] = true;
+            members.add(ring[i]);
+        }
+        ringPlaced[first] = true;
+        centreX[first] = 0;
+        centreY[first] = 0;
+        queue.add(first);
+
+        for (int head = 0; head < queue.size(); head++) {
+            for (int a : rings[queue.get(head)]) {
+                for (int i = ringStart[a]; i < ringStart[a + 1]; i++) {
+                    int r = ringOf[i];
+                    if (ringPlaced[r]) continue;
+                    ringPlaced[r] = true;
+                    placeRing(rings[r], r, localX, localY, local, members);
+                    queue.add(r);
+                }
+            }
+        }
+        return members.toArray();
+    }
+
+    private void placeRing(int[] ring, int r, double[] localX, double[] localY, boolean[] local, IntList members) {
+        int k = ring.length;
+        double radius = radius(k);
+        double cx;
+        double cy;
+        double firstAngle;
+        double step;
+        int anchor;
+
+        int edge = NONE;
+        int shared = NONE;
+        for (int i = 0; i < k; i++) {
+            if (!local[ring[i]]) continue;
+            if (shared == NONE) shared = i;
+            if (local[ring[(i + 1) % k]]) {
+                edge = i;
+                break;
+            }
+        }
+
+        if (edge != NONE) {
+            // Сконденсированное кольцо: центр по другую сторону общего ребра
+            int u = ring[edge];
+            int v = ring[(edge + 1) % k];
+            double mx = (localX[u] + localX[v]) / 2;
+            double my = (localY[u] + localY[v]) / 2;
+            int other = ringWithEdge(u, v, r);
+            double ox = other == NONE ? centroid(members, localX) : centreX[other];
+            double oy = other == NONE ? centroid(members, localY) : centreY[other];
+            double nx = -(localY[v] - localY[u]);
+            double ny = localX[v] - localX[u];
+            double length = Math.hypot(nx, ny);
+            nx /= length;
+            ny /= length;
+            if (nx * (mx - ox) + ny * (my - oy) < 0) {
+                nx = -nx;
+                ny = -ny;
+            }
+            double apothem = radius * Math.cos(Math.PI / k);
+            cx = mx + nx * apothem;
+            cy = my + ny * apothem;
+            double angleU = Math.atan2(localY[u] - cy, localX[u] - cx);
+            double angleV = Math.atan2(localY[v] - cy, localX[v] - cx);
+            step = Math.IEEEremainder(angleV - angleU, 2 * Math.PI);
+            anchor = (edge + 1) % k;
+            firstAngle = angleV;
+        } else {
+            // Спиро-кольцо: центр на продолжении луча из центра соседнего кольца
+            int s = ring[shared];
+            int other = NONE;
+            for (int i = ringStart[s]; i < ringStart[s + 1] && other == NONE; i++) {
+                if (ringOf[i] != r && ringPlaced[ringOf[i]]) {
+                    other = ringOf[i];
+                }
+            }
+            double dx = localX[s] - (other == NONE ? 0 : centreX[other]);
+            double dy = localY[s] - (other == NONE ? 0 : centreY[other]);
+            double length = Math.hypot(dx, dy);
+            if (length == 0) {
+                dx = 1;
+                length = 1;
+            }
+            cx = localX[s] + dx / length * radius;
+            cy = localY[s] + dy / length * radius;
+            step = 2 * Math.PI / k;
+            anchor = shared;
+            firstAngle = Math.atan2(localY[s] - cy, localX[s] - cx);
+        }
+
+        centreX[r] = cx;
+        centreY[r] = cy;
+        for (int j = 1; j < k; j++) {
+            int a = ring[(anchor + j) % k];
+            if (local[a]) continue;
+            double angle = firstAngle + j * step;
+            localX[a] = cx + Math.cos(angle) * radius;
+            localY[a] = cy + Math.sin(angle) * radius;
+            local[a] = true;
+            members.add(a);
+        }
+    }
+
+    // Уже поставленное кольцо с ребром u-v, кроме кольца skip
+    private int ringWithEdge(int u, int v, int skip) {
+        for (int i = ringStart[u]; i < ringStart[u + 1]; i++) {
+            int r = ringOf[i];
+            if (r == skip || !ringPlaced[r]) continue;
+            for (int a : rings[r]) {
+                if (a == v) return r;
+            }
+        }
+        return NONE;
+    }
+
+    private static double radius(int k) {
+        return 0.5 / Math.sin(Math.PI / k);
+    }
+
+    private static double centroid(IntList members, double[] values) {
+        double sum = 0;
+        for (int i = 0; i < members.size(); i++) {
+            sum += values[members.get(i)];
+        }
+        return sum / members.size();
+    }
+
+    // ===== Обход =====
+
+    private void placeComponents() {
+        double[] localX = new double[atoms];
+        double[] localY = new double[atoms];
+        boolean[] local = new boolean[atoms];
+        IntList queue = new IntList();
+        double offset = 0;
+
+        for (int root = 0; root < atoms; root++) {
+            if (placed[root]) continue;
+            queue.clear();
+            place(root, 0, 0, FIRST_BOND, -1, queue, localX, localY, local, true);
+            for (int head = 0; head < queue.size(); head++) {
+                placeNeighbours(queue.get(head), queue, localX, localY, local);
+            }
+
+            // Компоненты рядом слева направо с промежутком в одну связь
+            double minX = Double.MAX_VALUE;
+            double maxX = -Double.MAX_VALUE;
+            for (int i = 0; i < queue.size(); i++) {
+                minX = Math.min(minX, x[queue.get(i)]);
+                maxX = Math.max(maxX, x[queue.get(i)]);
+            }
+            for (int i = 0; i < queue.size(); i++) {
+                x[queue.get(i)] += offset - minX;
+            }
+            offset += maxX - minX + 1;
+        }
+    }
+
+    // Ставит атом; если он открывает ещё не поставленную кольцевую систему,
+    // ставит её целиком, повернув центром по направлению angle
+    private void place(int atom, double ax, double ay, double angle, int sign, IntList queue,
+                       double[] localX, double[] localY, boolean[] local, boolean root) {
+        int sys = system[atom];
+        if (sys == NONE || systemPlaced[sys]) {
+            x[atom] = ax;
+            y[atom] = ay;
+            placed[atom] = true;
+            turn[atom] = sign;
+            queue.add(atom);
+            return;
+        }
+        systemPlaced[sys] = true;
+        int[] members = placeSystem(sys, localX, localY, local);
+        double rotation = 0;
+        if (!root) {
+            double cx = 0;
+            double cy = 0;
+            for (int a : members) {
+                cx += localX[a];
+                cy += localY[a];
+            }
+            cx = cx / members.length - localX[atom];
+            cy = cy / members.length - localY[atom];
+            rotation = angle - Math.atan2(cy, cx);
+        }
+        double cos = Math.cos(rotation);
+        double sin = Math.sin(rotation);
+        double baseX = localX[atom];
+        double baseY = localY[atom];
+        for (int a : members) {
+            if (placed[a]) continue;
+            double dx = localX[a] - baseX;
+            double dy = localY[a] - baseY;
+            x[a] = ax + dx * cos - dy * sin;
+            y[a] = ay + dx * sin + dy * cos;
+            placed[a] = true;
+            turn[a] = -1;
+            queue.add(a);
+        }
+    }
+
+    private void placeNeighbours(int atom, IntList queue, double[] localX, double[] localY, boolean[] local) {
+        int placedCount = 0;
+        int free = 0;
+        double sumX = 0;
+        double sumY = 0;
+        boolean linear = false;
+        for (int e = start[atom]; e < start[atom + 1]; e++) {
+            int n = neighbour[e];
+            if (placed[n]) {
+                placedCount++;
+                sumX += x[n];
+                sumY += y[n];
+            } else {
+                free++;
+            }
+            linear |= bondOrder[via[e]] == 3;
+        }
+        if (free == 0) return;
+
+        double[] angles = new double[free];
+        int[] signs = new int[free];
+        if (placedCount == 0) {
+            // Начало цепи
+            for (int j = 0; j < free; j++) {
+                angles[j] = FIRST_BOND + j * 2 * Math.PI / free;
+                signs[j] = -1;
+            }
+        } else if (placedCount == 1 && system[atom] == NONE) {
+            // Продолжение цепи: зигзаг против предыдущего поворота
+            double in = Math.atan2(y[atom] - sumY, x[atom] - sumX);
+            int sign = turn[atom] == 0 ? 1 : -turn[atom];
+            if (free == 1) {
+                angles[0] = linear ? in : in + sign * TURN;
+                signs[0] = linear ? turn[atom] : sign;
+            } else if (free == 2) {
+                angles[0] = in + sign * TURN;
+                angles[1] = in - sign * TURN;
+                signs[0] = sign;
+                signs[1] = -sign;
+            } else {
+                double spread = free == 3 ? Math.PI / 2 : 2 * Math.PI / (free + 1);
+                for (int j = 0; j < free; j++) {
+                    angles[j] = in + (j - (free - 1) / 2.0) * spread;
+                    signs[j] = j < free / 2 ? -1 : 1;
+                }
+            }
+        } else {
+            // Заместители кольца и узлов ветвления - от центра поставленных соседей
+            double out = Math.atan2(y[atom] - sumY / placedCount, x[atom] - sumX / placedCount);
+            double spread = free <= 2 ? TURN : 2 * Math.PI / (free + placedCount);
+            for (int j = 0; j < free; j++) {
+                angles[j] = out + (j - (free - 1) / 2.0) * spread;
+                signs[j] = j < free / 2 ? -1 : 1;
+            }
+        }
+
+        int j = 0;
+        for (int e = start[atom]; e < start[atom + 1]; e++) {
+            int n = neighbour[e];
+            if (placed[n]) continue;
+            double angle = angles[j];
+            place(n, x[atom] + Math.cos(angle), y[atom] + Math.sin(angle), angle, signs[j], queue,
+                    localX, localY, local, false);
+            j++;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Интернированные подписи заместителей: в молекулах хранится только номер символа
+public final class SymbolTable {
+    private static final ConcurrentHashMap<String, Integer> IDS = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[32];
+    private static int count;
+
+    private SymbolTable() {
+    }
+
+    public static int intern(String symbol) {
+        Integer id = IDS.get(symbol);
+        if (id != null) {
+            return id;
+        }
+        synchronized (SymbolTable.class) {
+            id = IDS.get(symbol);
+            if (id != null) {
+                return id;
+            }
+            String[] table = names;
+            if (count == table.length) {
+                table = Arrays.copyOf(table, count * 2);
+            }
+            table[count] = symbol;
+            names = table;
+            IDS.put(symbol, count);
+            return count++;
+        }
+    }
+
+    public static String name(int id) {
+        return names[id];
+    }
+}